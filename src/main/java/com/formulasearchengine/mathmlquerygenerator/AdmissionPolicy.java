@@ -0,0 +1,104 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Budget for the {@link QueryCost} of generated queries.
+ * If the score of a pattern exceeds the budget, the generator applies the fallbacks of the policy in order and
+ * regenerates the query after each step, until the score fits. If no fallback is configured or the last one still
+ * exceeds the budget, the generator throws a {@link QueryRejectedException}.
+ * Fallbacks change the semantics of the query: without restrictLength longer formulae match as well, and without
+ * findRootApply $rootApply and $depth are not available in the return format.
+ * Instances are immutable; set them with {@link GeneratorConfig.Builder#setAdmissionPolicy(AdmissionPolicy)}.
+ */
+public final class AdmissionPolicy {
+    /**
+     * Cheaper settings that can be applied to a configuration.
+     */
+    public enum Fallback {
+        /**
+         * Drops the length constraints.
+         */
+        DROP_RESTRICT_LENGTH {
+            @Override
+            GeneratorConfig apply(GeneratorConfig config) {
+                return config.toBuilder().setRestrictLength(false).build();
+            }
+        },
+        /**
+         * Loops over the candidates of the root instead of searching the root apply.
+         */
+        DROP_FIND_ROOT_APPLY {
+            @Override
+            GeneratorConfig apply(GeneratorConfig config) {
+                return config.toBuilder().setFindRootApply(false).build();
+            }
+        };
+
+        abstract GeneratorConfig apply(GeneratorConfig config);
+    }
+
+    private final double maxScore;
+    private final List<Fallback> fallbacks;
+
+    private AdmissionPolicy(double maxScore, Fallback... fallbacks) {
+        if (!(maxScore >= 0)) {
+            throw new IllegalArgumentException("maxScore must not be negative, was " + maxScore);
+        }
+        this.maxScore = maxScore;
+        this.fallbacks = Collections.unmodifiableList(Arrays.asList(fallbacks.clone()));
+    }
+
+    /**
+     * @param maxScore the budget for {@link QueryCost#getScore()}
+     * @return a policy that rejects all patterns above the budget
+     */
+    public static AdmissionPolicy reject(double maxScore) {
+        return new AdmissionPolicy(maxScore);
+    }
+
+    /**
+     * @param maxScore  the budget for {@link QueryCost#getScore()}
+     * @param fallbacks the steps that are applied in order until the score fits
+     * @return a policy that degrades patterns above the budget and rejects them if that does not suffice
+     */
+    public static AdmissionPolicy fallback(double maxScore, Fallback... fallbacks) {
+        return new AdmissionPolicy(maxScore, fallbacks);
+    }
+
+    public double getMaxScore() {
+        return maxScore;
+    }
+
+    public List<Fallback> getFallbacks() {
+        return fallbacks;
+    }
+
+    boolean admits(QueryCost cost) {
+        return cost.getScore() <= maxScore;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AdmissionPolicy)) {
+            return false;
+        }
+        final AdmissionPolicy other = (AdmissionPolicy) o;
+        return Double.compare(maxScore, other.maxScore) == 0 && fallbacks.equals(other.fallbacks);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.valueOf(maxScore).hashCode() + fallbacks.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionPolicy{maxScore=" + maxScore + ", fallbacks=" + fallbacks + "}";
+    }
+}
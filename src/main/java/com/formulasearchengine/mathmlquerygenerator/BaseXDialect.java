@@ -0,0 +1,48 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * BaseX. The formulae are read with {@code db:open}, the MathML namespace is the default element namespace and the
+ * texts are compared with plain {@code text() = 'literal'} predicates on named steps, which the BaseX optimizer
+ * rewrites to text index lookups if the database has a text index.
+ */
+public final class BaseXDialect extends NamedStepDialect {
+    private final String database;
+
+    /**
+     * @param database the name of the database that contains the formulae
+     */
+    public BaseXDialect(String database) {
+        super("");
+        this.database = database;
+    }
+
+    @Override
+    public String getNamespace() {
+        return GeneratorConfig.DEFAULT_NAMESPACE;
+    }
+
+    @Override
+    public String getPathToRoot() {
+        return "db:open(" + XQueryLiterals.stringLiteral(database) + ")//math";
+    }
+
+    @Override
+    public String getReturnFormat() {
+        return "data($m/@alttext)";
+    }
+
+    @Override
+    public boolean supportsMaps() {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BaseXDialect && database.equals(((BaseXDialect) o).database);
+    }
+
+    @Override
+    public int hashCode() {
+        return database.hashCode();
+    }
+}
@@ -0,0 +1,418 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Converts the formulae of many NTCIR topic files into queries and writes them as NDJSON, one object
+ * {@code {"num":..., "formulaID":..., "query":...}} per line in input order. Patterns rejected by an
+ * {@link AdmissionPolicy} are written with an {@code "error"} member instead of the query.
+ * <p>
+ * A reader thread streams the topic files with {@link NtcirTopicStreamReader} and submits each formula to a pool of
+ * workers. The futures are kept in a bounded queue that the calling thread drains in order, so at most
+ * {@link #setQueueCapacity(int) queue capacity} formulae are held in memory and a slow output blocks the reader.
+ * <p>
+ * With a checkpoint file, the number of written records and the length of the output are saved every
+ * {@link #setCheckpointInterval(int) interval} records after the output is forced to disk. A resumed run truncates the
+ * output to the saved length, skips the saved number of formulae and appends the remaining ones; the inputs must be
+ * the same files in the same order.
+ * Usage: {@code BatchConverter [options] <input file or directory>...}, see {@link #main(String[])}.
+ */
+public class BatchConverter {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+    public static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 10000;
+    private static final String RECORDS = "records";
+    private static final String OFFSET = "offset";
+    private static final String USAGE = "Usage: BatchConverter [--output <file>] [--workers <n>] [--queue <n>]"
+            + " [--checkpoint <file> [--resume] [--checkpoint-interval <n>]] [--progress <seconds>]"
+            + " [--find-root-apply] [--no-restrict-length] [--fingerprints] <input file or directory>...";
+    private static final Future<String> END = new FutureTask<>(new Callable<String>() {
+        @Override
+        public String call() {
+            return null;
+        }
+    });
+
+    private final QueryGenerator generator;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private File checkpoint = null;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private PrintStream progress = null;
+    private long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+
+    /**
+     * @param generator thread-safe generator shared by all workers
+     */
+    public BatchConverter(QueryGenerator generator) {
+        this.generator = generator;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final List<File> inputs = new ArrayList<>();
+        File output = null;
+        boolean resume = false;
+        final GeneratorConfig.Builder config = GeneratorConfig.builder();
+        final BatchConverter converter;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        File checkpoint = null;
+        long progressSeconds = DEFAULT_PROGRESS_INTERVAL_MILLIS / 1000;
+        try {
+            int i = 0;
+            while (i < args.length) {
+                final String arg = args[i++];
+                if ("--output".equals(arg)) {
+                    output = new File(value(args, i++));
+                } else if ("--workers".equals(arg)) {
+                    workers = Integer.parseInt(value(args, i++));
+                } else if ("--queue".equals(arg)) {
+                    queueCapacity = Integer.parseInt(value(args, i++));
+                } else if ("--checkpoint".equals(arg)) {
+                    checkpoint = new File(value(args, i++));
+                } else if ("--checkpoint-interval".equals(arg)) {
+                    checkpointInterval = Integer.parseInt(value(args, i++));
+                } else if ("--resume".equals(arg)) {
+                    resume = true;
+                } else if ("--progress".equals(arg)) {
+                    progressSeconds = Long.parseLong(value(args, i++));
+                } else if ("--find-root-apply".equals(arg)) {
+                    config.setFindRootApply(true);
+                } else if ("--no-restrict-length".equals(arg)) {
+                    config.setRestrictLength(false);
+                } else if ("--fingerprints".equals(arg)) {
+                    config.setFingerprints(true);
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    inputs.addAll(XmlFiles.list(new File(arg)));
+                }
+            }
+            if (inputs.isEmpty() || (checkpoint != null || resume) && output == null) {
+                throw new IllegalArgumentException("Inputs missing or checkpoint without output file");
+            }
+            converter = new BatchConverter(new QueryGenerator(config.build())).setWorkers(workers)
+                    .setQueueCapacity(queueCapacity).setCheckpoint(checkpoint).setCheckpointInterval(checkpointInterval)
+                    .setProgress(System.err, TimeUnit.SECONDS.toMillis(progressSeconds));
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+        if (output == null) {
+            converter.convert(inputs, System.out);
+        } else {
+            converter.convert(inputs, output, resume);
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @param workers number of generator threads, at least 1
+     */
+    public BatchConverter setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive, was " + workers);
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity maximal number of formulae that are read but not yet written, at least 1
+     */
+    public BatchConverter setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be positive, was " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public File getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @param checkpoint properties file for {@link #convert(List, File, boolean)} or null to disable checkpoints
+     */
+    public BatchConverter setCheckpoint(File checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public BatchConverter setCheckpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("checkpoint interval must be positive, was " + checkpointInterval);
+        }
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    /**
+     * Prints the number of converted formulae and the throughput at the given interval and once at the end.
+     *
+     * @param progress       e.g. System.err, or null to disable the report
+     * @param intervalMillis time between two reports
+     */
+    public BatchConverter setProgress(PrintStream progress, long intervalMillis) {
+        this.progress = progress;
+        this.progressIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /**
+     * Converts the inputs to the stream without checkpoints; the stream is flushed but not closed.
+     *
+     * @return number of written records
+     */
+    public long convert(List<File> inputs, OutputStream output) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        final long count = run(inputs, writer, null, 0);
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Converts the inputs to the file. Without resume, the file is overwritten.
+     *
+     * @param resume continue after the records of the checkpoint, if the checkpoint file exists
+     * @return number of records in the output file
+     */
+    public long convert(List<File> inputs, File output, boolean resume) throws IOException {
+        long skip = 0;
+        long offset = 0;
+        if (resume && checkpoint != null && checkpoint.exists()) {
+            final Properties properties = new Properties();
+            try (InputStream is = new FileInputStream(checkpoint)) {
+                properties.load(is);
+            }
+            skip = Long.parseLong(properties.getProperty(RECORDS));
+            offset = Long.parseLong(properties.getProperty(OFFSET));
+            try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+                // drops the records written after the checkpoint
+                channel.truncate(offset);
+            }
+        }
+        try (FileOutputStream os = new FileOutputStream(output, offset > 0)) {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+            final long count = run(inputs, writer, os, skip);
+            writer.flush();
+            if (checkpoint != null) {
+                saveCheckpoint(os, count);
+            }
+            return count;
+        }
+    }
+
+    private long run(final List<File> inputs, Writer writer, FileOutputStream checkpointed, final long skip)
+            throws IOException {
+        final BlockingQueue<Future<String>> inFlight = new ArrayBlockingQueue<>(queueCapacity);
+        final AtomicReference<Exception> readError = new AtomicReference<>();
+        final ExecutorService pool = Executors.newFixedThreadPool(workers);
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(inputs, skip, pool, inFlight, readError);
+            }
+        }, "BatchConverter-reader");
+        reader.setDaemon(true);
+        final long start = System.nanoTime();
+        final long progressIntervalNanos = TimeUnit.MILLISECONDS.toNanos(progressIntervalMillis);
+        long nextReport = start + progressIntervalNanos;
+        long count = skip;
+        reader.start();
+        try {
+            for (Future<String> next = inFlight.take(); next != END; next = inFlight.take()) {
+                writer.write(next.get());
+                writer.write('\n');
+                count++;
+                if (checkpointed != null && checkpoint != null && count % checkpointInterval == 0) {
+                    writer.flush();
+                    saveCheckpoint(checkpointed, count);
+                }
+                if (progress != null && System.nanoTime() >= nextReport) {
+                    reportProgress(count, skip, start);
+                    nextReport = System.nanoTime() + progressIntervalNanos;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("Cannot convert formula " + (count + 1), e.getCause());
+        } finally {
+            reader.interrupt();
+            pool.shutdownNow();
+        }
+        if (readError.get() != null) {
+            throw new IOException("Cannot read the inputs", readError.get());
+        }
+        if (progress != null) {
+            reportProgress(count, skip, start);
+        }
+        return count;
+    }
+
+    /**
+     * Runs in the reader thread: submits the formulae after the first skip ones and ends the queue with END.
+     */
+    private void read(List<File> inputs, long skip, ExecutorService pool, BlockingQueue<Future<String>> inFlight,
+                      AtomicReference<Exception> readError) {
+        long skipped = 0;
+        try {
+            for (final File input : inputs) {
+                try (NtcirTopicStreamReader topics = new NtcirTopicStreamReader(input, null)) {
+                    for (final NtcirPattern pattern : topics) {
+                        if (skipped < skip) {
+                            skipped++;
+                        } else {
+                            inFlight.put(pool.submit(new ConvertTask(pattern)));
+                        }
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            return;
+        } catch (final Exception e) {
+            readError.set(e);
+        }
+        try {
+            inFlight.put(END);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void saveCheckpoint(FileOutputStream output, long count) throws IOException {
+        output.getChannel().force(false);
+        final Properties properties = new Properties();
+        properties.setProperty(RECORDS, Long.toString(count));
+        properties.setProperty(OFFSET, Long.toString(output.getChannel().position()));
+        final File temp = new File(checkpoint.getPath() + ".tmp");
+        try (OutputStream os = new FileOutputStream(temp)) {
+            properties.store(os, "BatchConverter checkpoint");
+        }
+        Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void reportProgress(long count, long skip, long start) {
+        final double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        progress.println(String.format(Locale.ROOT, "%d formulae (%d resumed), %.1f formulae/s", count, skip,
+                (count - skip) / seconds));
+    }
+
+    /**
+     * Appends the JSON string literal of the value.
+     */
+    static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Generates the query of one formula and formats the record.
+     */
+    private final class ConvertTask implements Callable<String> {
+        private final NtcirPattern pattern;
+
+        ConvertTask(NtcirPattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String call() {
+            final StringBuilder out = new StringBuilder();
+            out.append("{\"num\":");
+            appendJsonString(out, pattern.getNum());
+            out.append(",\"formulaID\":");
+            appendJsonString(out, pattern.getFormulaID());
+            try {
+                final String query = generator.generate(NonWhitespaceNodeList.getFirstChild(pattern.getMathMLNode()));
+                out.append(",\"query\":");
+                appendJsonString(out, query);
+            } catch (final QueryRejectedException e) {
+                out.append(",\"error\":");
+                appendJsonString(out, e.getMessage());
+            }
+            return out.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of the compile step of {@link QueryGenerator#compile(org.w3c.dom.Node)}.
+ * Holds the exact match predicate, the length constraints, the qvar map and the name of the query root, but no
+ * reference to the DOM. The pattern can be rendered by every generator whose configuration is compatible, i.e. that
+ * only differs in namespace, path to root, return format, the findRootApply layouts, addQvarMap or the admission
+ * policy. Instances are immutable and can be shared between threads.
+ */
+public final class CompiledPattern {
+    private final GenerationContext context;
+    private final String rootName;
+    private final QueryDialect dialect;
+    private final boolean restrictLength;
+    private final boolean fingerprints;
+    private final SelectivityStatistics selectivityStatistics;
+
+    CompiledPattern(GenerationContext context, String rootName, GeneratorConfig config) {
+        this.context = context;
+        this.rootName = rootName;
+        this.dialect = config.getDialect();
+        this.restrictLength = config.isRestrictLength();
+        this.fingerprints = config.isFingerprints();
+        this.selectivityStatistics = config.getSelectivityStatistics();
+    }
+
+    /**
+     * @param config the configuration of a generator
+     * @return true if the generator can render this pattern, i.e. the settings that influence the compile step match
+     */
+    public boolean isCompatible(GeneratorConfig config) {
+        return restrictLength == config.isRestrictLength()
+                && fingerprints == config.isFingerprints()
+                && selectivityStatistics == config.getSelectivityStatistics()
+                && dialect.equals(config.getDialect());
+    }
+
+    /**
+     * @return local name of the query root
+     */
+    public String getRootName() {
+        return rootName;
+    }
+
+    /**
+     * @return predicate on $x that tests names and texts of the pattern, e.g. {@code [*[1]/name() = 'plus']}
+     */
+    public String getExactMatchXQuery() {
+        return context.getExactMatchXQuery();
+    }
+
+    public String getLengthConstraint() {
+        return context.getLengthConstraint();
+    }
+
+    public String getQvarConstraint() {
+        return context.getQvarConstraint();
+    }
+
+    /**
+     * @return the locations of all qvars relative to $x by qvar name
+     */
+    public Map<String, List<String>> getQvar() {
+        final Map<String, List<String>> qvar = new LinkedHashMap<>();
+        for (final Map.Entry<String, ArrayList<String>> entry : context.getQvar().entrySet()) {
+            qvar.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(qvar);
+    }
+
+    GenerationContext getContext() {
+        return context;
+    }
+}
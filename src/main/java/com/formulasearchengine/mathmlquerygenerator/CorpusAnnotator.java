@@ -0,0 +1,212 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes fingerprint attributes onto every element of the math elements of a corpus.
+ * {@value #SIZE_ATTRIBUTE} holds the number of elements of the subtree, including the element itself, and
+ * {@value #HASH_ATTRIBUTE} a 64 bit hash of its structure: the local names and trimmed texts of all elements of the
+ * subtree in document order. Queries generated with {@link GeneratorConfig.Builder#setFingerprints(boolean)} compare
+ * these attributes instead of counting children and comparing string values.
+ * <p>
+ * Files are copied with StAX; only one math element at a time is held in memory.
+ * Usage: {@code CorpusAnnotator <input file or directory> <output file or directory>}
+ */
+public final class CorpusAnnotator {
+    /**
+     * Number of elements in the subtree of the element.
+     */
+    public static final String SIZE_ATTRIBUTE = "mqg-size";
+    /**
+     * Structural hash of the subtree of the element as hex string.
+     */
+    public static final String HASH_ATTRIBUTE = "mqg-hash";
+
+    private static final String MATH = "math";
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private CorpusAnnotator() {
+    }
+
+    public static void main(String[] args) throws IOException, XMLStreamException, ParserConfigurationException {
+        if (args.length != 2) {
+            System.err.println("Usage: CorpusAnnotator <input file or directory> <output file or directory>");
+            System.exit(1);
+        }
+        annotate(new File(args[0]), new File(args[1]));
+    }
+
+    /**
+     * Annotates a file or all xml files in a directory and its subdirectories. Directories are mirrored below the
+     * output directory.
+     *
+     * @param input  a file or directory
+     * @param output the output file, or the output directory if the input is a directory
+     */
+    public static void annotate(File input, File output)
+            throws IOException, XMLStreamException, ParserConfigurationException {
+        if (input.isDirectory() && !output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Cannot create directory " + output);
+        }
+        for (final File file : XmlFiles.list(input)) {
+            final File target = input.isDirectory()
+                    ? output.toPath().resolve(input.toPath().relativize(file.toPath()).toString()).toFile() : output;
+            final File directory = target.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+            try (InputStream is = new BufferedInputStream(new FileInputStream(file));
+                 OutputStream os = new BufferedOutputStream(new FileOutputStream(target))) {
+                annotate(is, os);
+            }
+        }
+    }
+
+    /**
+     * Copies the document and annotates all math elements; the streams are not closed.
+     */
+    public static void annotate(InputStream input, OutputStream output)
+            throws XMLStreamException, ParserConfigurationException {
+        final DocumentBuilder documentBuilder = XMLHelper.getDocumentBuilder(true);
+        final XMLStreamReader reader = StaxDomBuilder.createInputFactory().createXMLStreamReader(input);
+        final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+        try {
+            copy(reader, writer, documentBuilder);
+            writer.flush();
+        } finally {
+            writer.close();
+            reader.close();
+        }
+    }
+
+    /**
+     * Annotates the element and all elements of its subtree.
+     *
+     * @param element e.g. a math element
+     * @return the structural hash of the element
+     */
+    public static long annotate(Element element) {
+        int size = 1;
+        final String name = element.getLocalName() == null ? element.getNodeName() : element.getLocalName();
+        final Hasher hasher = HASH_FUNCTION.newHasher().putString(name, Charsets.UTF_8).putChar('\0');
+        final StringBuilder text = new StringBuilder();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                hasher.putLong(annotate((Element) child));
+                size += Integer.parseInt(((Element) child).getAttribute(SIZE_ATTRIBUTE));
+            } else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                text.append(child.getNodeValue());
+            }
+        }
+        final long hash = hasher.putChar('\0').putString(text.toString().trim(), Charsets.UTF_8).hash().asLong();
+        element.setAttributeNS(null, SIZE_ATTRIBUTE, Integer.toString(size));
+        element.setAttributeNS(null, HASH_ATTRIBUTE, Long.toHexString(hash));
+        return hash;
+    }
+
+    private static void copy(XMLStreamReader reader, XMLStreamWriter writer, DocumentBuilder documentBuilder)
+            throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (MATH.equals(reader.getLocalName())) {
+                        final Element math = StaxDomBuilder.readElement(reader, documentBuilder.newDocument());
+                        annotate(math);
+                        writeElement(math, writer);
+                    } else {
+                        writeStartElement(reader, writer);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    writer.writeEndDocument();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer)
+            throws XMLStreamException {
+        writer.writeStartElement(nonNull(reader.getPrefix()), reader.getLocalName(),
+                nonNull(reader.getNamespaceURI()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            writer.writeNamespace(nonNull(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            writer.writeAttribute(nonNull(reader.getAttributePrefix(i)), nonNull(reader.getAttributeNamespace(i)),
+                    reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+    }
+
+    private static void writeElement(Element element, XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement(nonNull(element.getPrefix()), element.getLocalName(),
+                nonNull(element.getNamespaceURI()));
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Attr attribute = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                writer.writeNamespace(XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getLocalName())
+                        ? "" : attribute.getLocalName(), attribute.getValue());
+            } else {
+                writer.writeAttribute(nonNull(attribute.getPrefix()), nonNull(attribute.getNamespaceURI()),
+                        attribute.getLocalName() == null ? attribute.getName() : attribute.getLocalName(),
+                        attribute.getValue());
+            }
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                writeElement((Element) child, writer);
+            } else if (child.getNodeType() == Node.TEXT_NODE) {
+                writer.writeCharacters(child.getNodeValue());
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,399 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes synthetic Content MathML corpora of arbitrary size for scale and load tests.
+ * <p>
+ * Each formula is a math element with the id {@value #ID_PREFIX}n and one apply tree drawn from a
+ * {@link CorpusModel}. The formulae are written with StAX as soon as they are drawn, so the memory does not depend on
+ * the corpus size. The output only depends on the model, the seed, the patterns and the plant rate; in particular,
+ * the same formulae are generated regardless of how they are split into files.
+ * <p>
+ * With patterns, a share of the formulae contains a planted match: a copy of the pattern whose qvars are replaced by
+ * random subtrees (the same subtree for every occurrence of a qvar), either as the whole formula or as an argument
+ * of its root. Planted matches are hits of the query of the pattern in every layout, with and without restrictLength,
+ * so benchmarks can check the recall of the generated queries. Random formulae may match as well.
+ * <p>
+ * Usage: {@code CorpusGenerator [options] <output file or directory>}, see {@link #main(String[])}.
+ */
+public final class CorpusGenerator {
+    public static final String MATHML_NAMESPACE = "http://www.w3.org/1998/Math/MathML";
+    public static final String ID_PREFIX = "synthetic.";
+    private static final String USAGE = "Usage: CorpusGenerator [--formulae <n>] [--seed <n>] [--per-file <n>]"
+            + " [--sample <file or directory>] [--max-depth <n>] [--patterns <topic file> [--plant-rate <0..1>]"
+            + " [--manifest <file>]] <output file or directory>";
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final String APPLY = "apply";
+
+    /**
+     * Receives the planted matches.
+     */
+    public interface PlantCallback {
+        /**
+         * @param formulaId the id of the math element that contains the match
+         * @param pattern   the planted pattern
+         */
+        void planted(String formulaId, NtcirPattern pattern);
+    }
+
+    private final CorpusModel model;
+    private final long seed;
+    private List<NtcirPattern> patterns = Collections.emptyList();
+    private List<PatternTree> trees = Collections.emptyList();
+    private double plantRate = 0;
+
+    /**
+     * @param model the distribution of the formulae
+     * @param seed  the seed of the random numbers; equal seeds generate equal corpora
+     */
+    public CorpusGenerator(CorpusModel model, long seed) {
+        this.model = model;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException, XMLStreamException {
+        long formulae = 1000;
+        long seed = 0;
+        int perFile = 0;
+        int maxDepth = CorpusModel.DEFAULT_MAX_DEPTH;
+        double plantRate = 0.01;
+        File sample = null;
+        File topics = null;
+        File manifest = null;
+        File output = null;
+        final CorpusModel.Builder model;
+        try {
+            int i = 0;
+            while (i < args.length) {
+                final String arg = args[i++];
+                if ("--formulae".equals(arg)) {
+                    formulae = Long.parseLong(value(args, i++));
+                } else if ("--seed".equals(arg)) {
+                    seed = Long.parseLong(value(args, i++));
+                } else if ("--per-file".equals(arg)) {
+                    perFile = Integer.parseInt(value(args, i++));
+                } else if ("--sample".equals(arg)) {
+                    sample = new File(value(args, i++));
+                } else if ("--max-depth".equals(arg)) {
+                    maxDepth = Integer.parseInt(value(args, i++));
+                } else if ("--patterns".equals(arg)) {
+                    topics = new File(value(args, i++));
+                } else if ("--plant-rate".equals(arg)) {
+                    plantRate = Double.parseDouble(value(args, i++));
+                } else if ("--manifest".equals(arg)) {
+                    manifest = new File(value(args, i++));
+                } else if (arg.startsWith("--") || output != null) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    output = new File(arg);
+                }
+            }
+            if (output == null || manifest != null && topics == null) {
+                throw new IllegalArgumentException("Output missing or manifest without patterns");
+            }
+            model = (sample == null ? CorpusModel.defaultsBuilder() : CorpusModel.builder()).setMaxDepth(maxDepth);
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+        if (sample != null) {
+            model.learn(sample);
+        }
+        final CorpusGenerator generator = new CorpusGenerator(model.build(), seed);
+        if (topics != null) {
+            try {
+                generator.setPatterns(new NtcirTopicReader(topics).setCompactPatterns(true).extractPatterns(),
+                        plantRate);
+            } catch (final Exception e) {
+                throw new IOException("Cannot read the patterns of " + topics, e);
+            }
+        }
+        final long start = System.nanoTime();
+        if (manifest == null) {
+            generator.write(output, formulae, perFile, null);
+        } else {
+            try (Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(manifest), StandardCharsets.UTF_8))) {
+                generator.write(output, formulae, perFile, new ManifestWriter(writer));
+            }
+        }
+        System.err.println(String.format(Locale.ROOT, "%d formulae in %.1f s", formulae,
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * Plants the patterns in turn into the given share of the formulae.
+     *
+     * @param patterns  patterns whose math elements are the parents of the main elements, e.g. from
+     *                  {@link NtcirTopicReader#extractPatterns()}
+     * @param plantRate probability that a formula contains a planted match
+     */
+    public CorpusGenerator setPatterns(List<NtcirPattern> patterns, double plantRate) {
+        if (plantRate < 0 || plantRate > 1) {
+            throw new IllegalArgumentException("plantRate must be between 0 and 1");
+        }
+        final List<NtcirPattern> plantable = new ArrayList<>();
+        final List<PatternTree> plantableTrees = new ArrayList<>();
+        for (final NtcirPattern pattern : patterns) {
+            final PatternTree tree = pattern.getPatternTree();
+            if (tree.getChildCount(0) > 0 && tree.getChildCount(tree.getFirstChild(0)) > 0) {
+                plantable.add(pattern);
+                plantableTrees.add(tree);
+            }
+        }
+        this.patterns = plantable;
+        this.trees = plantableTrees;
+        this.plantRate = plantRate;
+        return this;
+    }
+
+    /**
+     * Writes the formulae into one file or into numbered files of a directory.
+     *
+     * @param output   the output file, or the directory if perFile is positive
+     * @param count    number of formulae
+     * @param perFile  maximal number of formulae per file, or 0 for a single file
+     * @param callback receives the planted matches or null
+     * @return the number of planted matches
+     */
+    public long write(File output, long count, int perFile, PlantCallback callback)
+            throws IOException, XMLStreamException {
+        if (perFile <= 0) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                return write(out, count, callback);
+            }
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Cannot create directory " + output);
+        }
+        final Random random = new Random(seed);
+        long planted = 0;
+        for (long first = 0; first < count; first += perFile) {
+            final File file = new File(output, String.format(Locale.ROOT, "synthetic-%06d.xml", first / perFile));
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                planted = write(out, random, first, Math.min(perFile, count - first), planted, callback);
+            }
+        }
+        return planted;
+    }
+
+    /**
+     * Writes the formulae as one document with a root element; the stream is not closed.
+     *
+     * @return the number of planted matches
+     */
+    public long write(OutputStream output, long count, PlantCallback callback) throws XMLStreamException {
+        return write(output, new Random(seed), 0, count, 0, callback);
+    }
+
+    /**
+     * @param plantedBefore number of matches planted into the previous files, which selects the next pattern
+     * @return the number of matches planted into this and the previous files
+     */
+    private long write(OutputStream output, Random random, long first, long count, long plantedBefore,
+                       PlantCallback callback) throws XMLStreamException {
+        final XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(output, "UTF-8");
+        long planted = plantedBefore;
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeCharacters("\n");
+        writer.writeStartElement("root");
+        for (long n = first; n < first + count; n++) {
+            final String id = ID_PREFIX + n;
+            writer.writeCharacters("\n");
+            writer.writeStartElement("", "math", MATHML_NAMESPACE);
+            writer.writeDefaultNamespace(MATHML_NAMESPACE);
+            writer.writeAttribute("id", id);
+            if (!patterns.isEmpty() && random.nextDouble() < plantRate) {
+                final int index = (int) (planted++ % patterns.size());
+                writeWithPattern(writer, random, trees.get(index));
+                if (callback != null) {
+                    callback.planted(id, patterns.get(index));
+                }
+            } else {
+                writeApply(writer, random, 0);
+            }
+            writer.writeEndElement();
+        }
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+        return planted;
+    }
+
+    private void writeApply(XMLStreamWriter writer, Random random, int depth) throws XMLStreamException {
+        final CorpusModel.Symbol operator = model.nextOperator(random);
+        final int arity = operator.nextArity(random);
+        writer.writeStartElement(APPLY);
+        writeSymbol(writer, operator);
+        for (int i = 0; i < arity; i++) {
+            writeArgument(writer, random, depth + 1);
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeArgument(XMLStreamWriter writer, Random random, int depth) throws XMLStreamException {
+        if (random.nextDouble() < model.getApplyProbability(depth)) {
+            writeApply(writer, random, depth);
+        } else {
+            writeSymbol(writer, model.nextLeaf(random));
+        }
+    }
+
+    private static void writeSymbol(XMLStreamWriter writer, CorpusModel.Symbol symbol) throws XMLStreamException {
+        if (symbol.getText() == null) {
+            writer.writeEmptyElement(symbol.getLocalName());
+        } else {
+            writer.writeStartElement(symbol.getLocalName());
+            writer.writeCharacters(symbol.getText());
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * Writes the query root of the pattern either as the formula or as a random argument of a random root apply.
+     */
+    private void writeWithPattern(XMLStreamWriter writer, Random random, PatternTree tree)
+            throws XMLStreamException {
+        final int root = tree.getFirstChild(tree.getFirstChild(0));
+        final Map<String, Term> qvars = new HashMap<>();
+        if (random.nextBoolean()) {
+            writePattern(writer, random, tree, root, qvars, 0);
+            return;
+        }
+        final CorpusModel.Symbol operator = model.nextOperator(random);
+        final int arity = Math.max(1, operator.nextArity(random));
+        final int position = random.nextInt(arity);
+        writer.writeStartElement(APPLY);
+        writeSymbol(writer, operator);
+        for (int i = 0; i < arity; i++) {
+            if (i == position) {
+                writePattern(writer, random, tree, root, qvars, 1);
+            } else {
+                writeArgument(writer, random, 1);
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Copies the pattern element; every qvar is replaced by a random subtree that is drawn on its first occurrence
+     * and repeated verbatim, so that all occurrences have equal string values.
+     */
+    private void writePattern(XMLStreamWriter writer, Random random, PatternTree tree, int element,
+                              Map<String, Term> qvars, int depth) throws XMLStreamException {
+        if (tree.isQvar(element)) {
+            Term term = qvars.get(tree.getText(element));
+            if (term == null) {
+                term = nextTerm(random, Math.max(depth, 1));
+                qvars.put(tree.getText(element), term);
+            }
+            term.write(writer);
+            return;
+        }
+        if (tree.getChildCount(element) == 0 && tree.getText(element) == null) {
+            writer.writeEmptyElement(tree.getLocalName(element));
+            return;
+        }
+        writer.writeStartElement(tree.getLocalName(element));
+        if (tree.getText(element) != null) {
+            writer.writeCharacters(tree.getText(element));
+        }
+        for (int i = 0; i < tree.getChildCount(element); i++) {
+            writePattern(writer, random, tree, tree.getFirstChild(element) + i, qvars, depth + 1);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Draws an argument like {@link #writeArgument(XMLStreamWriter, Random, int)}, but keeps it in memory.
+     */
+    private Term nextTerm(Random random, int depth) {
+        if (random.nextDouble() < model.getApplyProbability(depth)) {
+            final CorpusModel.Symbol operator = model.nextOperator(random);
+            final int arity = operator.nextArity(random);
+            final List<Term> arguments = new ArrayList<>(arity);
+            for (int i = 0; i < arity; i++) {
+                arguments.add(nextTerm(random, depth + 1));
+            }
+            return new Term(operator, arguments);
+        }
+        return new Term(model.nextLeaf(random), null);
+    }
+
+    /**
+     * A generated subtree that replaces a qvar: a leaf or an apply element with operator and arguments.
+     */
+    private static final class Term {
+        private final CorpusModel.Symbol symbol;
+        private final List<Term> arguments;
+
+        Term(CorpusModel.Symbol symbol, List<Term> arguments) {
+            this.symbol = symbol;
+            this.arguments = arguments;
+        }
+
+        void write(XMLStreamWriter writer) throws XMLStreamException {
+            if (arguments == null) {
+                writeSymbol(writer, symbol);
+                return;
+            }
+            writer.writeStartElement(APPLY);
+            writeSymbol(writer, symbol);
+            for (final Term argument : arguments) {
+                argument.write(writer);
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * Writes the planted matches as tab separated lines of formula id, topic num and formula id of the pattern.
+     */
+    private static final class ManifestWriter implements PlantCallback {
+        private final Writer writer;
+
+        ManifestWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void planted(String formulaId, NtcirPattern pattern) {
+            try {
+                writer.write(formulaId + '\t' + pattern.getNum() + '\t' + pattern.getFormulaID() + '\n');
+            } catch (final IOException e) {
+                throw new IllegalStateException("Cannot write the manifest", e);
+            }
+        }
+    }
+}
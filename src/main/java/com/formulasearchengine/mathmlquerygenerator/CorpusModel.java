@@ -0,0 +1,404 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Immutable distribution of Content MathML apply trees for {@link CorpusGenerator}.
+ * <p>
+ * Every apply element consists of an operator, e.g. {@code <plus/>} or {@code <csymbol>superscript</csymbol>}, and
+ * a number of arguments. The operators are drawn by weight, and the number of arguments by the weights of the arities
+ * observed for the drawn operator. An argument at depth d (the root apply has depth 0) is an apply element with the
+ * apply probability of depth d and otherwise a leaf like {@code <ci>x</ci>}, drawn by weight; below the maximal depth
+ * all arguments are leaves. Elements are identified by local name and trimmed text; attributes are not modelled.
+ * <p>
+ * Use {@link #defaults()}, or {@link Builder#learn(File)} to estimate all weights from sample files.
+ */
+public final class CorpusModel {
+    public static final int DEFAULT_MAX_DEPTH = 8;
+    private static final XMLInputFactory INPUT_FACTORY = StaxDomBuilder.createInputFactory();
+    private static final String MATH = "math";
+    private static final String APPLY = "apply";
+
+    private final Weighted<Symbol> operators;
+    private final Weighted<Symbol> leaves;
+    private final double[] applyProbabilities;
+    private final int maxDepth;
+
+    private CorpusModel(Builder builder) {
+        operators = new Weighted<>();
+        for (final Map.Entry<Symbol, Map<Integer, Double>> operator : builder.operators.entrySet()) {
+            final Symbol symbol = new Symbol(operator.getKey().localName, operator.getKey().text);
+            double weight = 0;
+            for (final Map.Entry<Integer, Double> arity : operator.getValue().entrySet()) {
+                symbol.arities.add(arity.getKey(), arity.getValue());
+                weight += arity.getValue();
+            }
+            operators.add(symbol, weight);
+        }
+        leaves = new Weighted<>();
+        for (final Map.Entry<Symbol, Double> leaf : builder.leaves.entrySet()) {
+            leaves.add(leaf.getKey(), leaf.getValue());
+        }
+        applyProbabilities = builder.applyProbabilities;
+        maxDepth = builder.maxDepth;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a model of school algebra: arithmetic and relations, superscripts and elementary functions over
+     * Zipf-distributed single letter identifiers and small numbers
+     */
+    public static CorpusModel defaults() {
+        return defaultsBuilder().build();
+    }
+
+    /**
+     * @return a builder with the model of {@link #defaults()}, e.g. to change its maximum depth
+     */
+    public static Builder defaultsBuilder() {
+        final Builder builder = builder()
+                .addOperator("plus", null, 30, 2).addOperator("plus", null, 8, 3)
+                .addOperator("minus", null, 12, 2).addOperator("minus", null, 3, 1)
+                .addOperator("times", null, 20, 2).addOperator("times", null, 4, 3)
+                .addOperator("divide", null, 10, 2)
+                .addOperator("eq", null, 12, 2)
+                .addOperator("lt", null, 2, 2)
+                .addOperator("leq", null, 2, 2)
+                .addOperator("csymbol", "superscript", 15, 2)
+                .addOperator("csymbol", "subscript", 10, 2)
+                .addOperator("root", null, 3, 1)
+                .addOperator("sin", null, 3, 1)
+                .addOperator("cos", null, 3, 1)
+                .addOperator("exp", null, 2, 1)
+                .addOperator("ln", null, 2, 1)
+                .setApplyProbabilities(0.45, 0.35, 0.25, 0.15, 0.1);
+        final String identifiers = "xyzabcnkitmfgpqrsuvwjdehlo";
+        for (int i = 0; i < identifiers.length(); i++) {
+            builder.addLeaf("ci", identifiers.substring(i, i + 1), 100.0 / (i + 1));
+        }
+        for (int i = 0; i <= 10; i++) {
+            builder.addLeaf("cn", Integer.toString(i), 40.0 / (i + 1));
+        }
+        return builder;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param depth depth of an argument, 1 for the arguments of the root apply
+     * @return the probability that the argument is an apply element; the root is always an apply element
+     */
+    public double getApplyProbability(int depth) {
+        if (depth <= 0) {
+            return 1;
+        }
+        if (depth >= maxDepth || applyProbabilities.length == 0) {
+            return 0;
+        }
+        return applyProbabilities[Math.min(depth, applyProbabilities.length) - 1];
+    }
+
+    /**
+     * @return the operators with their weights, e.g. {@code plus} or {@code csymbol superscript}
+     */
+    public Map<String, Double> getOperatorWeights() {
+        return operators.toMap();
+    }
+
+    /**
+     * @return the leaves with their weights, e.g. {@code ci x}
+     */
+    public Map<String, Double> getLeafWeights() {
+        return leaves.toMap();
+    }
+
+    Symbol nextOperator(Random random) {
+        return operators.next(random);
+    }
+
+    Symbol nextLeaf(Random random) {
+        return leaves.next(random);
+    }
+
+    /**
+     * An element without element children. Operators also hold the weights of their arities.
+     */
+    static final class Symbol {
+        private final String localName;
+        private final String text;
+        private final Weighted<Integer> arities = new Weighted<>();
+
+        Symbol(String localName, String text) {
+            this.localName = localName;
+            this.text = text == null || text.isEmpty() ? null : text;
+        }
+
+        String getLocalName() {
+            return localName;
+        }
+
+        /**
+         * @return the text or null for empty elements
+         */
+        String getText() {
+            return text;
+        }
+
+        int nextArity(Random random) {
+            return arities.next(random);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Symbol)) {
+                return false;
+            }
+            final Symbol other = (Symbol) o;
+            return localName.equals(other.localName) && (text == null ? other.text == null : text.equals(other.text));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * localName.hashCode() + (text == null ? 0 : text.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return text == null ? localName : localName + " " + text;
+        }
+    }
+
+    /**
+     * Items drawn with probabilities proportional to their weights, by binary search in the cumulative weights.
+     */
+    private static final class Weighted<T> {
+        private final List<T> items = new ArrayList<>();
+        private double[] cumulative = new double[8];
+
+        void add(T item, double weight) {
+            if (items.size() == cumulative.length) {
+                cumulative = Arrays.copyOf(cumulative, 2 * cumulative.length);
+            }
+            cumulative[items.size()] = (items.isEmpty() ? 0 : cumulative[items.size() - 1]) + weight;
+            items.add(item);
+        }
+
+        T next(Random random) {
+            final double total = cumulative[items.size() - 1];
+            final int index = Arrays.binarySearch(cumulative, 0, items.size(), random.nextDouble() * total);
+            // a negative result encodes the insertion point, i.e. the first cumulative weight above the value
+            return items.get(index < 0 ? -index - 1 : index + 1 == items.size() ? index : index + 1);
+        }
+
+        Map<String, Double> toMap() {
+            final Map<String, Double> map = new LinkedHashMap<>();
+            for (int i = 0; i < items.size(); i++) {
+                map.put(items.get(i).toString(), cumulative[i] - (i == 0 ? 0 : cumulative[i - 1]));
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Mutable builder for {@link CorpusModel}. Weights of equal operators, arities and leaves are added up; the
+     * iteration order, and therefore the generated corpus, only depends on the order of the calls.
+     */
+    public static final class Builder {
+        private final Map<Symbol, Map<Integer, Double>> operators = new LinkedHashMap<>();
+        private final Map<Symbol, Double> leaves = new LinkedHashMap<>();
+        private double[] applyProbabilities = new double[0];
+        private int maxDepth = DEFAULT_MAX_DEPTH;
+
+        private Builder() {
+        }
+
+        /**
+         * @param localName local name of the operator element, e.g. plus or csymbol
+         * @param text      text of the operator element, e.g. superscript, or null
+         * @param weight    positive weight of the operator with this number of arguments
+         * @param arity     number of arguments
+         */
+        public Builder addOperator(String localName, String text, double weight, int arity) {
+            checkWeight(weight);
+            final Symbol symbol = new Symbol(localName, text);
+            Map<Integer, Double> arities = operators.get(symbol);
+            if (arities == null) {
+                arities = new LinkedHashMap<>();
+                operators.put(symbol, arities);
+            }
+            final Double previous = arities.get(arity);
+            arities.put(arity, previous == null ? weight : previous + weight);
+            return this;
+        }
+
+        /**
+         * @param localName local name of the leaf element, e.g. ci or cn
+         * @param text      text of the leaf element or null
+         * @param weight    positive weight of the leaf
+         */
+        public Builder addLeaf(String localName, String text, double weight) {
+            checkWeight(weight);
+            final Symbol symbol = new Symbol(localName, text);
+            final Double previous = leaves.get(symbol);
+            leaves.put(symbol, previous == null ? weight : previous + weight);
+            return this;
+        }
+
+        private static void checkWeight(double weight) {
+            if (!(weight > 0)) {
+                throw new IllegalArgumentException("Weights must be positive, was " + weight);
+            }
+        }
+
+        /**
+         * @param applyProbabilities the probability that an argument at depth 1, 2, ... is an apply element;
+         *                           the last value applies to all deeper arguments
+         */
+        public Builder setApplyProbabilities(double... applyProbabilities) {
+            this.applyProbabilities = applyProbabilities.clone();
+            return this;
+        }
+
+        /**
+         * @param maxDepth depth from which all arguments are leaves, at least 1
+         */
+        public Builder setMaxDepth(int maxDepth) {
+            if (maxDepth < 1) {
+                throw new IllegalArgumentException("The maximum depth must be at least 1, was " + maxDepth);
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Adds the operators, arities and leaves of all apply trees in the math elements of a sample file or of all
+         * xml files of a directory, and sets the apply probabilities to the observed fractions per depth.
+         * Apply trees nested in other elements than apply, e.g. in annotation-xml, are counted from depth 0 again.
+         */
+        public Builder learn(File sample) throws IOException, XMLStreamException {
+            final List<File> files = XmlFiles.list(sample);
+            final List<long[]> depths = new ArrayList<>();
+            for (final File file : files) {
+                try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+                    final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+                    try {
+                        learn(reader, depths);
+                    } finally {
+                        reader.close();
+                    }
+                }
+            }
+            final double[] probabilities = new double[depths.size()];
+            for (int i = 0; i < probabilities.length; i++) {
+                final long[] counts = depths.get(i);
+                probabilities[i] = counts[0] + counts[1] == 0 ? 0 : (double) counts[0] / (counts[0] + counts[1]);
+            }
+            return setApplyProbabilities(probabilities);
+        }
+
+        private void learn(XMLStreamReader reader, List<long[]> depths) throws XMLStreamException {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && MATH.equals(reader.getLocalName())) {
+                    final Document document = DocumentParser.getDocumentBuilder(DocumentParser.Mode.FAST).newDocument();
+                    learn(StaxDomBuilder.readElement(reader, document), depths);
+                }
+            }
+        }
+
+        /**
+         * @param depths per argument depth from 1, the number of apply arguments and of leaf arguments
+         */
+        private void learn(Element element, List<long[]> depths) {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    if (APPLY.equals(child.getLocalName())) {
+                        learnApply((Element) child, 0, depths);
+                    } else {
+                        learn((Element) child, depths);
+                    }
+                }
+            }
+        }
+
+        private void learnApply(Element apply, int depth, List<long[]> depths) {
+            final List<Element> children = new ArrayList<>();
+            for (Node child = apply.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    children.add((Element) child);
+                }
+            }
+            if (children.isEmpty()) {
+                return;
+            }
+            final Element operator = children.get(0);
+            // operators with structure, e.g. applied subscripts, are not modelled, but their arguments are
+            if (!hasElementChildren(operator)) {
+                addOperator(operator.getLocalName(), text(operator), 1, children.size() - 1);
+            }
+            while (depths.size() <= depth) {
+                depths.add(new long[2]);
+            }
+            for (final Element argument : children.subList(1, children.size())) {
+                if (APPLY.equals(argument.getLocalName())) {
+                    depths.get(depth)[0]++;
+                    learnApply(argument, depth + 1, depths);
+                } else {
+                    depths.get(depth)[1]++;
+                    addLeaf(argument.getLocalName(), text(argument), 1);
+                }
+            }
+        }
+
+        private static boolean hasElementChildren(Element element) {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String text(Element element) {
+            final StringBuilder text = new StringBuilder();
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.TEXT_NODE) {
+                    text.append(child.getNodeValue().trim());
+                }
+            }
+            return text.toString();
+        }
+
+        /**
+         * @throws IllegalStateException if no operator or no leaf was added
+         */
+        public CorpusModel build() {
+            if (operators.isEmpty() || leaves.isEmpty()) {
+                throw new IllegalStateException("The model needs at least one operator and one leaf");
+            }
+            return new CorpusModel(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * DB2 pureXML. The MathML namespace is the default element namespace, so all name tests are namespace-qualified
+ * steps that match XMLPATTERN indexes on {@code //*} or on single element names, and text tests compare
+ * {@code text()} directly.
+ * The queries iterate {@code db2-fn:xmlcolumn} by default; {@link #toXmlExists(String)} embeds a query that was
+ * generated with the pathToRoot {@value #PASSING_VARIABLE} into an SQL statement, so DB2 can combine it with
+ * relational predicates. DB2 has no map constructors, so the qvar map is not rendered, even with addQvarMap.
+ */
+public final class Db2Dialect extends NamedStepDialect {
+    /**
+     * pathToRoot for queries that are passed to {@link #toXmlExists(String)}.
+     */
+    public static final String PASSING_VARIABLE = "$m";
+
+    private final String table;
+    private final String column;
+
+    /**
+     * Uses the column math_mathml of the table math.
+     */
+    public Db2Dialect() {
+        this("math", "math_mathml");
+    }
+
+    /**
+     * @param table  the table that contains the formulae
+     * @param column the XML column of the formulae
+     */
+    public Db2Dialect(String table, String column) {
+        super("");
+        this.table = table;
+        this.column = column;
+    }
+
+    @Override
+    public String getNamespace() {
+        return GeneratorConfig.DEFAULT_NAMESPACE;
+    }
+
+    @Override
+    public String getPathToRoot() {
+        return "db2-fn:xmlcolumn(\"" + table + "." + column + "\")";
+    }
+
+    @Override
+    public String getReturnFormat() {
+        return GeneratorConfig.DEFAULT_RETURN_FORMAT;
+    }
+
+    /**
+     * @return false, DB2 pureXML implements XQuery 1.0 without map constructors
+     */
+    @Override
+    public boolean supportsMaps() {
+        return false;
+    }
+
+    /**
+     * Wraps a query into {@code SELECT * FROM table WHERE XMLEXISTS('query' PASSING column AS "m")}.
+     *
+     * @param query a query generated with this dialect and the pathToRoot {@value #PASSING_VARIABLE}
+     * @return the SQL statement
+     */
+    public String toXmlExists(String query) {
+        return "SELECT * FROM " + table + " WHERE XMLEXISTS('" + query.replace("'", "''") + "' PASSING "
+                + column + " AS \"m\")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Db2Dialect)) {
+            return false;
+        }
+        final Db2Dialect other = (Db2Dialect) o;
+        return table.equals(other.table) && column.equals(other.column);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * table.hashCode() + column.hashCode();
+    }
+}
@@ -0,0 +1,52 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * The original output of the generator: DB2 defaults with wildcard steps and {@code name()} comparisons.
+ * The queries do not depend on the namespace of the corpus, but cannot use element name indexes.
+ */
+public final class DefaultDialect implements QueryDialect {
+    public static final DefaultDialect INSTANCE = new DefaultDialect();
+
+    private DefaultDialect() {
+    }
+
+    @Override
+    public String getNamespace() {
+        return GeneratorConfig.DEFAULT_NAMESPACE;
+    }
+
+    @Override
+    public String getPathToRoot() {
+        return GeneratorConfig.DEFAULT_PATH_TO_ROOT;
+    }
+
+    @Override
+    public String getReturnFormat() {
+        return GeneratorConfig.DEFAULT_RETURN_FORMAT;
+    }
+
+    @Override
+    public String elementTest(String localName) {
+        return "*:" + localName;
+    }
+
+    @Override
+    public void appendChildNameTest(StringBuilder out, int position, String localName) {
+        out.append("*[").append(position).append("]/name() = '").append(localName).append('\'');
+    }
+
+    @Override
+    public String selfNameTest(String variable, String localName) {
+        return variable + "/name() = \"" + localName + "\"";
+    }
+
+    @Override
+    public void appendTextTest(StringBuilder out, String text) {
+        out.append("./text() = '").append(text).append('\'');
+    }
+
+    @Override
+    public boolean supportsMaps() {
+        return true;
+    }
+}
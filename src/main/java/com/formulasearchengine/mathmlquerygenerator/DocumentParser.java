@@ -0,0 +1,260 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.w3c.dom.Document;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DeclHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable, namespace aware DOM parsers for query and topic documents.
+ * <p>
+ * {@link Mode#DEFAULT} parses like {@code XMLHelper.getDocumentBuilder(true)}, but reads the XHTML plus MathML DTD
+ * from memory: the bundled {@code xhtml-math11-f.dtd} is flattened once per process into its element, attribute and
+ * general entity declarations. The flat DTD is still parsed for every document that references it.
+ * {@link Mode#FAST} does not load external DTDs at all; use it for documents without named entities.
+ * <p>
+ * No other external entity is ever loaded: every other DTD, external parameter entity and external general entity
+ * resolves to empty content, in both modes, so untrusted input cannot read local files or make network requests.
+ * Recoverable errors fail the parse like fatal ones, warnings are ignored.
+ * Builders are kept per thread and mode and must not be passed to other threads.
+ */
+public final class DocumentParser {
+    /**
+     * System id of the XHTML 1.1 plus MathML 2.0 DTD.
+     */
+    public static final String MATHML_DTD_SYSTEM_ID = "http://www.w3.org/Math/DTD/mathml2/xhtml-math11-f.dtd";
+    /**
+     * Public id of the XHTML 1.1 plus MathML 2.0 DTD.
+     */
+    public static final String MATHML_DTD_PUBLIC_ID = "-//W3C//DTD XHTML 1.1 plus MathML 2.0//EN";
+    private static final String DTD_RESOURCE = "xmlhelper/xhtml-math11-f.dtd";
+    private static final String DTD_FILE_NAME = "xhtml-math11-f.dtd";
+    private static final String DECLARATION_HANDLER = "http://xml.org/sax/properties/declaration-handler";
+    private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+    private static final String INCLUDE_IGNORABLE_WHITESPACE =
+            "http://apache.org/xml/features/dom/include-ignorable-whitespace";
+    private static final ErrorHandler ERROR_HANDLER = new ErrorHandler() {
+        @Override
+        public void warning(SAXParseException exception) {
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+    };
+    private static final EntityResolver CLASSPATH_RESOLVER = new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            if (!MATHML_DTD_PUBLIC_ID.equals(publicId) && (systemId == null || !systemId.endsWith(DTD_FILE_NAME))) {
+                // returning null would let the parser open the system id itself
+                return new InputSource(new StringReader(""));
+            }
+            final InputSource source = new InputSource(new ByteArrayInputStream(FlatDtd.DTD));
+            source.setSystemId(MATHML_DTD_SYSTEM_ID);
+            return source;
+        }
+    };
+    private static final ThreadLocal<DocumentBuilder[]> BUILDERS = new ThreadLocal<DocumentBuilder[]>() {
+        @Override
+        protected DocumentBuilder[] initialValue() {
+            return new DocumentBuilder[Mode.values().length];
+        }
+    };
+
+    /**
+     * How external DTDs are handled.
+     */
+    public enum Mode {
+        /**
+         * Loads the MathML DTD from the in-memory flat DTD; other external entities are empty.
+         */
+        DEFAULT,
+        /**
+         * Ignores external DTDs; references to entities they declare are left unexpanded and have no text.
+         */
+        FAST
+    }
+
+    private DocumentParser() {
+    }
+
+    /**
+     * @return the builder of the current thread for the mode; it must not be passed to other threads
+     */
+    public static DocumentBuilder getDocumentBuilder(Mode mode) {
+        final DocumentBuilder[] builders = BUILDERS.get();
+        DocumentBuilder builder = builders[mode.ordinal()];
+        if (builder == null) {
+            builder = newDocumentBuilder(mode);
+            builders[mode.ordinal()] = builder;
+        }
+        return builder;
+    }
+
+    private static DocumentBuilder newDocumentBuilder(Mode mode) {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setAttribute(INCLUDE_IGNORABLE_WHITESPACE, Boolean.FALSE);
+        final DocumentBuilder builder;
+        try {
+            if (mode == Mode.FAST) {
+                factory.setFeature(LOAD_EXTERNAL_DTD, false);
+            }
+            builder = factory.newDocumentBuilder();
+        } catch (final ParserConfigurationException e) {
+            throw new IllegalStateException("Cannot create document builder", e);
+        }
+        builder.setEntityResolver(CLASSPATH_RESOLVER);
+        builder.setErrorHandler(ERROR_HANDLER);
+        return builder;
+    }
+
+    public static Document parse(String xml) throws SAXException, IOException {
+        return parse(xml, Mode.DEFAULT);
+    }
+
+    public static Document parse(String xml, Mode mode) throws SAXException, IOException {
+        return getDocumentBuilder(mode).parse(new InputSource(new StringReader(xml)));
+    }
+
+    public static Document parse(InputStream input, Mode mode) throws SAXException, IOException {
+        return getDocumentBuilder(mode).parse(input);
+    }
+
+    public static Document parse(File file, Mode mode) throws SAXException, IOException {
+        return getDocumentBuilder(mode).parse(file);
+    }
+
+    /**
+     * Holds the flattened DTD; loaded on first use.
+     */
+    private static final class FlatDtd {
+        private static final byte[] DTD = compile();
+
+        private FlatDtd() {
+        }
+
+        private static byte[] compile() {
+            final StringBuilder out = new StringBuilder();
+            final DeclarationWriter writer = new DeclarationWriter(out);
+            final String document = "<!DOCTYPE html PUBLIC \"" + MATHML_DTD_PUBLIC_ID + "\" \""
+                    + MATHML_DTD_SYSTEM_ID + "\"><html/>";
+            try (InputStream dtd = DocumentParser.class.getResourceAsStream(DTD_RESOURCE)) {
+                if (dtd == null) {
+                    throw new IllegalStateException("Missing resource " + DTD_RESOURCE);
+                }
+                final byte[] source = readFully(dtd);
+                final SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                final SAXParser parser = factory.newSAXParser();
+                parser.setProperty(DECLARATION_HANDLER, writer);
+                final XMLReader reader = parser.getXMLReader();
+                reader.setEntityResolver(new EntityResolver() {
+                    @Override
+                    public InputSource resolveEntity(String publicId, String systemId) {
+                        final InputSource input = new InputSource(new ByteArrayInputStream(source));
+                        input.setSystemId(MATHML_DTD_SYSTEM_ID);
+                        return input;
+                    }
+                });
+                reader.parse(new InputSource(new StringReader(document)));
+            } catch (final ParserConfigurationException | SAXException | IOException e) {
+                throw new IllegalStateException("Cannot compile " + DTD_RESOURCE, e);
+            }
+            return out.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static byte[] readFully(InputStream input) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Writes the reported declarations as DTD; parameter entities are already expanded and therefore dropped. Optional
+     * CDATA attributes without a default do not change the parsed document and are dropped as well, which halves the
+     * size of the grammar.
+     */
+    private static final class DeclarationWriter implements DeclHandler {
+        private final StringBuilder out;
+
+        DeclarationWriter(StringBuilder out) {
+            this.out = out;
+        }
+
+        private void literal(String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '&' || c == '%' || c == '<') {
+                    out.append("&#").append((int) c).append(';');
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+
+        @Override
+        public void elementDecl(String name, String model) {
+            out.append("<!ELEMENT ").append(name).append(' ').append(model).append(">\n");
+        }
+
+        @Override
+        public void attributeDecl(String elementName, String attributeName, String type, String mode, String value) {
+            if ("CDATA".equals(type) && "#IMPLIED".equals(mode)) {
+                return;
+            }
+            out.append("<!ATTLIST ").append(elementName).append(' ').append(attributeName).append(' ').append(type);
+            if (mode != null) {
+                out.append(' ').append(mode);
+            }
+            if (value != null) {
+                out.append(' ');
+                literal(value);
+            }
+            out.append(">\n");
+        }
+
+        @Override
+        public void internalEntityDecl(String name, String value) {
+            if (!name.startsWith("%")) {
+                out.append("<!ENTITY ").append(name).append(' ');
+                literal(value);
+                out.append(">\n");
+            }
+        }
+
+        @Override
+        public void externalEntityDecl(String name, String publicId, String systemId) {
+            // the flat DTD declares no external general entities
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * A generated XQuery together with its estimated cost and the configuration it was rendered with, which differs from
+ * the configuration of the generator if the {@link AdmissionPolicy} applied fallbacks.
+ */
+public final class GeneratedQuery {
+    private final String query;
+    private final QueryCost cost;
+    private final GeneratorConfig config;
+    private final GenerationContext context;
+
+    GeneratedQuery(String query, QueryCost cost, GeneratorConfig config, GenerationContext context) {
+        this.query = query;
+        this.cost = cost;
+        this.config = config;
+        this.context = context;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public QueryCost getCost() {
+        return cost;
+    }
+
+    public GeneratorConfig getConfig() {
+        return config;
+    }
+
+    GenerationContext getContext() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+}
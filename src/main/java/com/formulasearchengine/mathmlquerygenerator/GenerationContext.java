@@ -0,0 +1,551 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import com.google.common.collect.Lists;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-call state of a query generation.
+ * Walks the main element once and collects the exact match predicate, the length constraints and the qvar
+ * locations. The main element is either a DOM node, which is walked in place without copying it, or an element of
+ * a {@link PatternTree}; both are read through the same {@link Cursor}. A new context is created for every
+ * generation, so generators that use it can be shared between threads.
+ * If selectivity statistics are given, the predicates of each level are ordered rarest-first and the rarest
+ * element of the pattern is recorded as anchor.
+ * With fingerprints, the length and qvar constraints use the attributes written by {@link CorpusAnnotator}: a single
+ * comparison of the subtree size of $x and hash equality for repeated qvars.
+ * The path from $x to the current node is kept as a stack of child positions, and the exact match predicate is
+ * written into a single buffer; only the ordering by selectivity needs separate buffers per child.
+ */
+final class GenerationContext {
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int INITIAL_DEPTH = 16;
+    private final boolean restrictLength;
+    private final SelectivityStatistics statistics;
+    private final boolean fingerprints;
+    private final QueryDialect dialect;
+    private final Map<String, ArrayList<String>> qvar = new LinkedHashMap<>();
+    private final StringBuilder lengthConstraint = new StringBuilder(INITIAL_CAPACITY);
+    private int[] path = new int[INITIAL_DEPTH];
+    private int depth = 0;
+    private String exactMatchXQuery = "";
+    private String lengthConstraintXQuery = "";
+    private String qvarConstraint = "";
+    private String qvarMapVariable = "";
+    private long minFrequency = Long.MAX_VALUE;
+    private String anchorName = null;
+    private String anchorText = null;
+    private String anchorPath = null;
+    private long anchorFrequency = Long.MAX_VALUE;
+    private int fixedSize = 0;
+    private int nodeCount = 0;
+    private int maxDepth = 0;
+    private int lengthConstraintCount = 0;
+    private int testCount = 0;
+    private final StringBuilder freeSize = new StringBuilder();
+
+    GenerationContext(GeneratorConfig config) {
+        this.restrictLength = config.isRestrictLength();
+        this.statistics = config.getSelectivityStatistics();
+        this.fingerprints = config.isFingerprints();
+        this.dialect = config.getDialect();
+    }
+
+    /**
+     * Generates all constraints for the given DOM element.
+     *
+     * @param mainElement the parent of the query root
+     * @return this context
+     */
+    GenerationContext generate(Node mainElement) {
+        return generate(new DomCursor(mainElement));
+    }
+
+    /**
+     * Generates all constraints for the given element of the tree.
+     *
+     * @param tree        the pattern
+     * @param mainElement index of the parent of the query root
+     * @return this context
+     */
+    GenerationContext generate(PatternTree tree, int mainElement) {
+        return generate(new TreeCursor(tree, mainElement));
+    }
+
+    private GenerationContext generate(Cursor mainElement) {
+        final StringBuilder exactMatch = new StringBuilder(INITIAL_CAPACITY);
+        generateSimpleConstraints(mainElement, true, exactMatch);
+        exactMatchXQuery = exactMatch.toString();
+        if (fingerprints && restrictLength) {
+            // the elements of the pattern plus the subtrees that are matched by qvars and annotations
+            lengthConstraintCount = 1;
+            lengthConstraint.append("$x/@").append(CorpusAnnotator.SIZE_ATTRIBUTE).append(" = ").append(fixedSize)
+                    .append(freeSize);
+        }
+        lengthConstraintXQuery = lengthConstraint.toString();
+        generateQvarConstraints();
+        return this;
+    }
+
+    String getExactMatchXQuery() {
+        return exactMatchXQuery;
+    }
+
+    String getLengthConstraint() {
+        return lengthConstraintXQuery;
+    }
+
+    String getQvarConstraint() {
+        return qvarConstraint;
+    }
+
+    String getQvarMapVariable() {
+        return qvarMapVariable;
+    }
+
+    Map<String, ArrayList<String>> getQvar() {
+        return qvar;
+    }
+
+    /**
+     * @return local name of the rarest element below the root or null if there are no statistics
+     */
+    String getAnchorName() {
+        return anchorName;
+    }
+
+    /**
+     * @return trimmed text of the anchor or null if the anchor has no text
+     */
+    String getAnchorText() {
+        return anchorText;
+    }
+
+    /**
+     * @return path from the root to the anchor, e.g. /*[2]/*[1]
+     */
+    String getAnchorPath() {
+        return anchorPath;
+    }
+
+    long getAnchorFrequency() {
+        return anchorFrequency;
+    }
+
+    /**
+     * @return number of elements of the pattern, including the root, qvars and annotations
+     */
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return distance from the root to its deepest descendant
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return number of conjuncts of the length constraint
+     */
+    int getLengthConstraintCount() {
+        return lengthConstraintCount;
+    }
+
+    /**
+     * @return number of name and text tests of the exact match predicate
+     */
+    int getTestCount() {
+        return testCount;
+    }
+
+    /**
+     * @return number of qvar equality tests, i.e. qvar occurrences that repeat an earlier name
+     */
+    int getQvarComparisonCount() {
+        int comparisons = 0;
+        for (final List<String> locations : qvar.values()) {
+            comparisons += locations.size() - 1;
+        }
+        return comparisons;
+    }
+
+    /**
+     * Appends the predicate for the children of the current element of the cursor to out. The cursor is at the same
+     * element again when the method returns.
+     */
+    private void generateSimpleConstraints(Cursor node, boolean isRoot, StringBuilder out) {
+        final int start = out.length();
+        int childElementIndex = 0;
+        boolean queryHasText = false;
+        final List<RankedConstraint> ranked = statistics == null ? null : new ArrayList<RankedConstraint>();
+        long nodeMinFrequency = Long.MAX_VALUE;
+        final String text = node.getText();
+        if (text != null) {
+            dialect.appendTextTest(out, text);
+            testCount++;
+        }
+        for (boolean hasChild = node.toFirstChild(); hasChild; hasChild = node.toNextSibling()) {
+            childElementIndex++;
+            final String localName = node.getLocalName();
+            nodeCount++;
+            if (!isRoot && depth >= maxDepth) {
+                maxDepth = depth + 1;
+            }
+            if (node.isQvar()
+                    || localName != null && XMLHelper.ANNOTATION_XML_PATTERN.matcher(localName).matches()) {
+                if (node.isQvar()) {
+                    addQvar(node.getText(), childElementIndex);
+                }
+                if (fingerprints) {
+                    appendPath(freeSize.append(" + $x"), childElementIndex).append("/@")
+                            .append(CorpusAnnotator.SIZE_ATTRIBUTE);
+                }
+                continue;
+            }
+            fixedSize++;
+            final StringBuilder constraintOut = ranked == null ? out : new StringBuilder();
+            if (ranked == null) {
+                if (queryHasText) {
+                    out.append(" and ");
+                } else {
+                    queryHasText = true;
+                }
+            }
+            long childFrequency = Long.MAX_VALUE;
+            if (!isRoot) {
+                dialect.appendChildNameTest(constraintOut, childElementIndex, localName);
+                testCount++;
+                if (statistics != null) {
+                    childFrequency = recordAnchor(localName, node.getText(), childElementIndex);
+                }
+            }
+            if (node.hasChildNodes()) {
+                if (!isRoot) {
+                    push(childElementIndex);
+                    constraintOut.append(" and *[").append(childElementIndex).append("]");
+                }
+                // the brackets are removed again if the child has no constraints
+                final int bracket = constraintOut.length();
+                constraintOut.append('[');
+                generateSimpleConstraints(node, false, constraintOut);
+                if (constraintOut.length() == bracket + 1) {
+                    constraintOut.setLength(bracket);
+                } else {
+                    constraintOut.append(']');
+                }
+                if (!isRoot) {
+                    depth--;
+                }
+                childFrequency = Math.min(childFrequency, minFrequency);
+            }
+            if (ranked != null) {
+                ranked.add(new RankedConstraint(constraintOut.toString(), childFrequency));
+                nodeMinFrequency = Math.min(nodeMinFrequency, childFrequency);
+            }
+        }
+        if (childElementIndex > 0) {
+            node.toParent();
+        }
+        if (ranked != null && !ranked.isEmpty()) {
+            appendRarestFirst(out, ranked, out.length() > start);
+        }
+        minFrequency = nodeMinFrequency;
+        if (!isRoot && restrictLength && !fingerprints) {
+            if (lengthConstraint.length() > 0) {
+                lengthConstraint.append("\n and ");
+            }
+            lengthConstraintCount++;
+            appendPath(lengthConstraint.append("fn:count($x"), 0).append("/*) = ").append(childElementIndex);
+        }
+    }
+
+    private void push(int position) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, 2 * depth);
+        }
+        path[depth++] = position;
+    }
+
+    /**
+     * Appends the path from $x to the current node, followed by the given child position if it is positive.
+     */
+    private StringBuilder appendPath(StringBuilder out, int childPosition) {
+        for (int i = 0; i < depth; i++) {
+            out.append("/*[").append(path[i]).append(']');
+        }
+        if (childPosition > 0) {
+            out.append("/*[").append(childPosition).append(']');
+        }
+        return out;
+    }
+
+    private long recordAnchor(String localName, String text, int childPosition) {
+        final long frequency = statistics.getFrequency(localName, text);
+        if (frequency < anchorFrequency) {
+            anchorFrequency = frequency;
+            anchorName = localName;
+            anchorText = text;
+            anchorPath = appendPath(new StringBuilder(), childPosition).toString();
+        }
+        return frequency;
+    }
+
+    private static void appendRarestFirst(StringBuilder out, List<RankedConstraint> ranked, boolean separate) {
+        // stable, so equally frequent constraints keep the document order
+        Collections.sort(ranked, new Comparator<RankedConstraint>() {
+            @Override
+            public int compare(RankedConstraint a, RankedConstraint b) {
+                return Long.compare(a.frequency, b.frequency);
+            }
+        });
+        for (int i = 0; i < ranked.size(); i++) {
+            if (i > 0 || separate) {
+                out.append(" and ");
+            }
+            out.append(ranked.get(i).constraint);
+        }
+    }
+
+    private void addQvar(String qvarName, int childElementIndex) {
+        final String location = appendPath(new StringBuilder(), childElementIndex).toString();
+        if (qvar.containsKey(qvarName)) {
+            qvar.get(qvarName).add(location);
+        } else {
+            qvar.put(qvarName, Lists.newArrayList(location));
+        }
+    }
+
+    /**
+     * Uses the qvar map to generate a XQuery string containing qvar constraints,
+     * and the qvar map variable which maps qvar names to their respective formula ID's in the result.
+     */
+    private void generateQvarConstraints() {
+        final StringBuilder qvarConstrBuilder = new StringBuilder();
+        final StringBuilder qvarMapStrBuilder = new StringBuilder();
+        final Iterator<Map.Entry<String, ArrayList<String>>> entryIterator = qvar.entrySet().iterator();
+        if (entryIterator.hasNext()) {
+            qvarMapStrBuilder.append("declare function local:qvarMap($x) {\n map {");
+
+            while (entryIterator.hasNext()) {
+                final Map.Entry<String, ArrayList<String>> currentEntry = entryIterator.next();
+
+                final Iterator<String> valueIterator = currentEntry.getValue().iterator();
+                final String firstValue = valueIterator.next();
+
+                qvarMapStrBuilder.append('"').append(currentEntry.getKey()).append('"')
+                        .append(" : (data($x").append(firstValue).append("/@xml:id)");
+
+                //check if there are additional values that we need to constrain
+                if (valueIterator.hasNext()) {
+                    if (qvarConstrBuilder.length() > 0) {
+                        //only add beginning and if it's an additional constraint in the aggregate qvar string
+                        qvarConstrBuilder.append("\n and ");
+                    }
+                    while (valueIterator.hasNext()) {
+                        //process second value onwards
+                        final String currentValue = valueIterator.next();
+                        qvarMapStrBuilder.append(",data($x").append(currentValue).append("/@xml-id)");
+                        //These constraints specify that the same qvars must refer to the same nodes,
+                        //using the XQuery "=" equality
+                        //This is equality based on: same text, same node names, and same children nodes
+                        qvarConstrBuilder.append("$x").append(firstValue);
+                        if (fingerprints) {
+                            qvarConstrBuilder.append("/@").append(CorpusAnnotator.HASH_ATTRIBUTE).append(" = $x")
+                                    .append(currentValue).append("/@").append(CorpusAnnotator.HASH_ATTRIBUTE);
+                        } else {
+                            qvarConstrBuilder.append(" = $x").append(currentValue);
+                        }
+                        if (valueIterator.hasNext()) {
+                            qvarConstrBuilder.append(" and ");
+                        }
+                    }
+                }
+                qvarMapStrBuilder.append(')');
+                if (entryIterator.hasNext()) {
+                    qvarMapStrBuilder.append(',');
+                }
+            }
+            qvarMapStrBuilder.append("}\n};");
+        }
+        qvarMapVariable = qvarMapStrBuilder.toString();
+        qvarConstraint = qvarConstrBuilder.toString();
+    }
+
+    /**
+     * Position in a pattern that moves over element children only. The element properties are those of
+     * {@link PatternTree}: local name, trimmed text or qvar name, and whether the element has any child nodes.
+     */
+    private abstract static class Cursor {
+        /**
+         * @return true if the cursor moved to the first element child, false if there is none
+         */
+        abstract boolean toFirstChild();
+
+        /**
+         * @return true if the cursor moved to the next element sibling, false if it stays at the last one
+         */
+        abstract boolean toNextSibling();
+
+        abstract void toParent();
+
+        abstract String getLocalName();
+
+        abstract String getText();
+
+        abstract boolean isQvar();
+
+        abstract boolean hasChildNodes();
+    }
+
+    /**
+     * Walks the DOM in place; texts are only computed for the elements that are visited.
+     */
+    private static final class DomCursor extends Cursor {
+        private Node current;
+
+        DomCursor(Node current) {
+            this.current = current;
+        }
+
+        private static Node elementFrom(Node node) {
+            Node element = node;
+            while (element != null && element.getNodeType() != Node.ELEMENT_NODE) {
+                element = element.getNextSibling();
+            }
+            return element;
+        }
+
+        @Override
+        boolean toFirstChild() {
+            final Node child = elementFrom(current.getFirstChild());
+            if (child == null) {
+                return false;
+            }
+            current = child;
+            return true;
+        }
+
+        @Override
+        boolean toNextSibling() {
+            final Node sibling = elementFrom(current.getNextSibling());
+            if (sibling == null) {
+                return false;
+            }
+            current = sibling;
+            return true;
+        }
+
+        @Override
+        void toParent() {
+            current = current.getParentNode();
+        }
+
+        @Override
+        String getLocalName() {
+            return current.getLocalName();
+        }
+
+        @Override
+        String getText() {
+            return isQvar() ? PatternTree.qvarName(current) : PatternTree.text(current);
+        }
+
+        @Override
+        boolean isQvar() {
+            return PatternTree.QVAR.equals(current.getNodeName());
+        }
+
+        @Override
+        boolean hasChildNodes() {
+            return current.hasChildNodes();
+        }
+    }
+
+    /**
+     * Walks a pattern tree; the parents of the current element are kept on a stack, since the tree only links
+     * elements to their children.
+     */
+    private static final class TreeCursor extends Cursor {
+        private final PatternTree tree;
+        private int current;
+        private int[] parents = new int[INITIAL_DEPTH];
+        private int depth = 0;
+
+        TreeCursor(PatternTree tree, int current) {
+            this.tree = tree;
+            this.current = current;
+        }
+
+        @Override
+        boolean toFirstChild() {
+            if (tree.getChildCount(current) == 0) {
+                return false;
+            }
+            if (depth == parents.length) {
+                parents = Arrays.copyOf(parents, 2 * depth);
+            }
+            parents[depth++] = current;
+            current = tree.getFirstChild(current);
+            return true;
+        }
+
+        @Override
+        boolean toNextSibling() {
+            final int parent = parents[depth - 1];
+            if (current + 1 >= tree.getFirstChild(parent) + tree.getChildCount(parent)) {
+                return false;
+            }
+            current++;
+            return true;
+        }
+
+        @Override
+        void toParent() {
+            current = parents[--depth];
+        }
+
+        @Override
+        String getLocalName() {
+            return tree.getLocalName(current);
+        }
+
+        @Override
+        String getText() {
+            return tree.getText(current);
+        }
+
+        @Override
+        boolean isQvar() {
+            return tree.isQvar(current);
+        }
+
+        @Override
+        boolean hasChildNodes() {
+            return tree.hasChildNodes(current);
+        }
+    }
+
+    /**
+     * Constraint of one child element together with the lowest frequency of its subtree.
+     */
+    private static final class RankedConstraint {
+        private final String constraint;
+        private final long frequency;
+
+        private RankedConstraint(String constraint, long frequency) {
+            this.constraint = constraint;
+            this.frequency = frequency;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Figures of a single query generation, reported to a {@link GenerationListener}.
+ * If the query was taken from a {@link QueryCache}, the pattern has not been traversed and only the wall time and the
+ * query length are set.
+ */
+public final class GenerationEvent {
+    private final long wallTimeNanos;
+    private final boolean cacheHit;
+    private final int nodeCount;
+    private final int maxDepth;
+    private final int qvarCount;
+    private final int qvarRepetitions;
+    private final int lengthConstraintCount;
+    private final int queryLength;
+
+    GenerationEvent(long wallTimeNanos, boolean cacheHit, int nodeCount, int maxDepth, int qvarCount,
+                    int qvarRepetitions, int lengthConstraintCount, int queryLength) {
+        this.wallTimeNanos = wallTimeNanos;
+        this.cacheHit = cacheHit;
+        this.nodeCount = nodeCount;
+        this.maxDepth = maxDepth;
+        this.qvarCount = qvarCount;
+        this.qvarRepetitions = qvarRepetitions;
+        this.lengthConstraintCount = lengthConstraintCount;
+        this.queryLength = queryLength;
+    }
+
+    /**
+     * @return time from the call of the generator until the query string was available
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * @return number of elements of the pattern, including the root, qvars and annotations
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return distance from the query root to its deepest descendant
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return number of distinct qvar names
+     */
+    public int getQvarCount() {
+        return qvarCount;
+    }
+
+    /**
+     * @return number of qvar occurrences that repeat an earlier name, i.e. the number of qvar equality tests
+     */
+    public int getQvarRepetitions() {
+        return qvarRepetitions;
+    }
+
+    public int getLengthConstraintCount() {
+        return lengthConstraintCount;
+    }
+
+    /**
+     * @return number of chars of the generated query
+     */
+    public int getQueryLength() {
+        return queryLength;
+    }
+
+    @Override
+    public String toString() {
+        return "GenerationEvent{wallTimeNanos=" + wallTimeNanos + ", cacheHit=" + cacheHit + ", nodeCount="
+                + nodeCount + ", maxDepth=" + maxDepth + ", qvarCount=" + qvarCount + ", qvarRepetitions="
+                + qvarRepetitions + ", lengthConstraintCount=" + lengthConstraintCount + ", queryLength="
+                + queryLength + "}";
+    }
+}
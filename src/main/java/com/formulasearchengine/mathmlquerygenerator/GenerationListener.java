@@ -0,0 +1,21 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.w3c.dom.Node;
+
+/**
+ * Receives one {@link GenerationEvent} per generated query.
+ * The listener is called in the generating thread after the query has been built. Generators that are shared between
+ * threads, e.g. {@link QueryGenerator}, call it concurrently, so implementations must be thread-safe and should return
+ * quickly. {@link NtcirTopicReader} calls it from the thread that extracts the patterns, also with a parallelism
+ * above 1. Without a registered listener the generators
+ * neither read the clock nor create events.
+ *
+ * @see GenerationMetrics
+ */
+public interface GenerationListener {
+    /**
+     * @param mainElement the parent of the query root
+     * @param event       the figures of the generation
+     */
+    void generated(Node mainElement, GenerationEvent event);
+}
@@ -0,0 +1,211 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.w3c.dom.Node;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory {@link GenerationListener} that aggregates counters and histograms of all generations.
+ * All updates are lock-free, so one instance can be shared by all generators of a process. The figures can be read
+ * directly or through JMX after {@link #register()}.
+ * <p>
+ * The counters are updated independently; a reader that runs concurrently with generations may see a generation in
+ * one counter and not yet in another. {@link #reset()} has the same limitation.
+ */
+public class GenerationMetrics implements GenerationListener, GenerationMetricsMXBean {
+    /**
+     * Object name used by {@link #register()}.
+     */
+    public static final String DEFAULT_OBJECT_NAME =
+            "com.formulasearchengine.mathmlquerygenerator:type=GenerationMetrics";
+
+    private final AtomicLong generationCount = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong wallTimeNanos = new AtomicLong();
+    private final AtomicLong maxWallTimeNanos = new AtomicLong();
+    private final AtomicLong nodeCount = new AtomicLong();
+    private final AtomicLong maxNodeCount = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final AtomicLong qvarRepetitions = new AtomicLong();
+    private final AtomicLong lengthConstraintCount = new AtomicLong();
+    private final AtomicLong queryLength = new AtomicLong();
+    private final AtomicLong maxQueryLength = new AtomicLong();
+    private final Log2Histogram wallTimeMicros = new Log2Histogram();
+    private final Log2Histogram queryLengths = new Log2Histogram();
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public void generated(Node mainElement, GenerationEvent event) {
+        generationCount.incrementAndGet();
+        wallTimeNanos.addAndGet(event.getWallTimeNanos());
+        updateMax(maxWallTimeNanos, event.getWallTimeNanos());
+        wallTimeMicros.record(toMicros(event.getWallTimeNanos()));
+        queryLength.addAndGet(event.getQueryLength());
+        updateMax(maxQueryLength, event.getQueryLength());
+        queryLengths.record(event.getQueryLength());
+        if (event.isCacheHit()) {
+            cacheHitCount.incrementAndGet();
+            return;
+        }
+        nodeCount.addAndGet(event.getNodeCount());
+        updateMax(maxNodeCount, event.getNodeCount());
+        updateMax(maxDepth, event.getMaxDepth());
+        qvarRepetitions.addAndGet(event.getQvarRepetitions());
+        lengthConstraintCount.addAndGet(event.getLengthConstraintCount());
+    }
+
+    /**
+     * Registers this instance at the platform MBean server under {@value #DEFAULT_OBJECT_NAME}.
+     *
+     * @return the object name
+     */
+    public ObjectName register() throws JMException {
+        return register(new ObjectName(DEFAULT_OBJECT_NAME));
+    }
+
+    /**
+     * Registers this instance at the platform MBean server.
+     *
+     * @param name the object name, must not be registered yet
+     * @return the object name
+     */
+    public ObjectName register(ObjectName name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * @param quantile e.g. 0.99
+     * @return upper bound of the wall time quantile in microseconds
+     */
+    public long getWallTimeMicros(double quantile) {
+        return wallTimeMicros.getQuantile(quantile);
+    }
+
+    /**
+     * @param quantile e.g. 0.99
+     * @return upper bound of the query length quantile in chars
+     */
+    public long getQueryLength(double quantile) {
+        return queryLengths.getQuantile(quantile);
+    }
+
+    @Override
+    public long getGenerationCount() {
+        return generationCount.get();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    @Override
+    public double getMeanWallTimeMicros() {
+        final long count = generationCount.get();
+        return count == 0 ? 0 : wallTimeNanos.get() / 1000.0 / count;
+    }
+
+    @Override
+    public long getMaxWallTimeMicros() {
+        return toMicros(maxWallTimeNanos.get());
+    }
+
+    @Override
+    public long getWallTimeMicros50() {
+        return getWallTimeMicros(0.5);
+    }
+
+    @Override
+    public long getWallTimeMicros99() {
+        return getWallTimeMicros(0.99);
+    }
+
+    @Override
+    public long getWallTimeMicros999() {
+        return getWallTimeMicros(0.999);
+    }
+
+    /**
+     * @return total number of traversed pattern elements
+     */
+    @Override
+    public long getNodeCount() {
+        return nodeCount.get();
+    }
+
+    @Override
+    public long getMaxNodeCount() {
+        return maxNodeCount.get();
+    }
+
+    @Override
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * @return total number of qvar equality tests
+     */
+    @Override
+    public long getQvarRepetitions() {
+        return qvarRepetitions.get();
+    }
+
+    /**
+     * @return total number of length constraint conjuncts
+     */
+    @Override
+    public long getLengthConstraintCount() {
+        return lengthConstraintCount.get();
+    }
+
+    @Override
+    public double getMeanQueryLength() {
+        final long count = generationCount.get();
+        return count == 0 ? 0 : (double) queryLength.get() / count;
+    }
+
+    @Override
+    public long getMaxQueryLength() {
+        return maxQueryLength.get();
+    }
+
+    @Override
+    public long getQueryLength99() {
+        return getQueryLength(0.99);
+    }
+
+    @Override
+    public void reset() {
+        generationCount.set(0);
+        cacheHitCount.set(0);
+        wallTimeNanos.set(0);
+        maxWallTimeNanos.set(0);
+        nodeCount.set(0);
+        maxNodeCount.set(0);
+        maxDepth.set(0);
+        qvarRepetitions.set(0);
+        lengthConstraintCount.set(0);
+        queryLength.set(0);
+        maxQueryLength.set(0);
+        wallTimeMicros.reset();
+        queryLengths.reset();
+    }
+}
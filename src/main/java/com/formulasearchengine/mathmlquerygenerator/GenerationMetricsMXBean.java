@@ -0,0 +1,38 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Management interface of {@link GenerationMetrics}. Times are in microseconds, lengths in chars.
+ */
+public interface GenerationMetricsMXBean {
+    long getGenerationCount();
+
+    long getCacheHitCount();
+
+    double getMeanWallTimeMicros();
+
+    long getMaxWallTimeMicros();
+
+    long getWallTimeMicros50();
+
+    long getWallTimeMicros99();
+
+    long getWallTimeMicros999();
+
+    long getNodeCount();
+
+    long getMaxNodeCount();
+
+    long getMaxDepth();
+
+    long getQvarRepetitions();
+
+    long getLengthConstraintCount();
+
+    double getMeanQueryLength();
+
+    long getMaxQueryLength();
+
+    long getQueryLength99();
+
+    void reset();
+}
@@ -0,0 +1,357 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Immutable settings for {@link QueryGenerator}.
+ * The defaults are the same as the defaults of {@link XQueryGenerator}. Use {@link #builder()} or
+ * {@link #toBuilder()} to create modified copies.
+ */
+public final class GeneratorConfig {
+    public static final String DEFAULT_NAMESPACE =
+            "declare default element namespace \"http://www.w3.org/1998/Math/MathML\";";
+    public static final String DEFAULT_PATH_TO_ROOT = "db2-fn:xmlcolumn(\"math.math_mathml\")";
+    public static final String DEFAULT_RETURN_FORMAT = "data($m/*[1]/@alttext)";
+    public static final GeneratorConfig DEFAULT = builder().build();
+
+    private final QueryDialect dialect;
+    private final String namespace;
+    private final String pathToRoot;
+    private final String returnFormat;
+    private final boolean restrictLength;
+    private final boolean findRootApply;
+    private final boolean flatRootApply;
+    private final boolean addQvarMap;
+    private final boolean fingerprints;
+    private final SelectivityStatistics selectivityStatistics;
+    private final AdmissionPolicy admissionPolicy;
+    private final int limit;
+    private final int offset;
+    private final String orderBy;
+
+    private GeneratorConfig(Builder builder) {
+        dialect = builder.dialect;
+        namespace = builder.namespace;
+        pathToRoot = builder.pathToRoot;
+        returnFormat = builder.returnFormat;
+        restrictLength = builder.restrictLength;
+        findRootApply = builder.findRootApply;
+        flatRootApply = builder.flatRootApply;
+        addQvarMap = builder.addQvarMap;
+        fingerprints = builder.fingerprints;
+        selectivityStatistics = builder.selectivityStatistics;
+        admissionPolicy = builder.admissionPolicy;
+        limit = builder.limit;
+        offset = builder.offset;
+        orderBy = builder.orderBy;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder initialized with the values of this configuration
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .setDialect(dialect)
+                .setNamespace(namespace)
+                .setPathToRoot(pathToRoot)
+                .setReturnFormat(returnFormat)
+                .setRestrictLength(restrictLength)
+                .setFindRootApply(findRootApply)
+                .setFlatRootApply(flatRootApply)
+                .setAddQvarMap(addQvarMap)
+                .setFingerprints(fingerprints)
+                .setSelectivityStatistics(selectivityStatistics)
+                .setAdmissionPolicy(admissionPolicy)
+                .setLimit(limit)
+                .setOffset(offset)
+                .setOrderBy(orderBy);
+    }
+
+    public QueryDialect getDialect() {
+        return dialect;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getPathToRoot() {
+        return pathToRoot;
+    }
+
+    public String getReturnFormat() {
+        return returnFormat;
+    }
+
+    public boolean isRestrictLength() {
+        return restrictLength;
+    }
+
+    public boolean isFindRootApply() {
+        return findRootApply;
+    }
+
+    public boolean isFlatRootApply() {
+        return flatRootApply;
+    }
+
+    public boolean isAddQvarMap() {
+        return addQvarMap;
+    }
+
+    public boolean isFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * @return the statistics used to choose the anchor and the predicate order or null
+     */
+    public SelectivityStatistics getSelectivityStatistics() {
+        return selectivityStatistics;
+    }
+
+    /**
+     * @return the budget for the query cost or null
+     */
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * @return the maximal number of hits or 0 for all hits
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of hits that are skipped
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the order spec of the hits or the empty string for the natural order of the layout
+     */
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GeneratorConfig)) {
+            return false;
+        }
+        final GeneratorConfig other = (GeneratorConfig) o;
+        return restrictLength == other.restrictLength
+                && findRootApply == other.findRootApply
+                && flatRootApply == other.flatRootApply
+                && addQvarMap == other.addQvarMap
+                && fingerprints == other.fingerprints
+                && limit == other.limit
+                && offset == other.offset
+                && selectivityStatistics == other.selectivityStatistics
+                && (admissionPolicy == null
+                ? other.admissionPolicy == null : admissionPolicy.equals(other.admissionPolicy))
+                && dialect.equals(other.dialect)
+                && namespace.equals(other.namespace)
+                && pathToRoot.equals(other.pathToRoot)
+                && returnFormat.equals(other.returnFormat)
+                && orderBy.equals(other.orderBy);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = namespace.hashCode();
+        h = 31 * h + pathToRoot.hashCode();
+        h = 31 * h + returnFormat.hashCode();
+        h = 31 * h + (restrictLength ? 1 : 0);
+        h = 31 * h + (findRootApply ? 1 : 0);
+        h = 31 * h + (flatRootApply ? 1 : 0);
+        h = 31 * h + (addQvarMap ? 1 : 0);
+        h = 31 * h + (fingerprints ? 1 : 0);
+        h = 31 * h + System.identityHashCode(selectivityStatistics);
+        h = 31 * h + dialect.hashCode();
+        h = 31 * h + (admissionPolicy == null ? 0 : admissionPolicy.hashCode());
+        h = 31 * h + limit;
+        h = 31 * h + offset;
+        h = 31 * h + orderBy.hashCode();
+        return h;
+    }
+
+    /**
+     * Mutable builder for {@link GeneratorConfig}. See {@link XQueryGenerator} for the meaning of the settings.
+     */
+    public static final class Builder {
+        private QueryDialect dialect = DefaultDialect.INSTANCE;
+        private String namespace = DEFAULT_NAMESPACE;
+        private String pathToRoot = DEFAULT_PATH_TO_ROOT;
+        private String returnFormat = DEFAULT_RETURN_FORMAT;
+        private boolean restrictLength = true;
+        private boolean findRootApply = false;
+        private boolean flatRootApply = false;
+        private boolean addQvarMap = true;
+        private boolean fingerprints = false;
+        private SelectivityStatistics selectivityStatistics = null;
+        private AdmissionPolicy admissionPolicy = null;
+        private int limit = 0;
+        private int offset = 0;
+        private String orderBy = "";
+
+        private Builder() {
+        }
+
+        /**
+         * Selects the dialect and resets namespace, pathToRoot and returnFormat to its defaults.
+         * Set these values after the dialect to override them.
+         *
+         * @param dialect the dialect, {@link DefaultDialect#INSTANCE} by default
+         */
+        public Builder setDialect(QueryDialect dialect) {
+            this.dialect = dialect;
+            namespace = dialect.getNamespace();
+            pathToRoot = dialect.getPathToRoot();
+            returnFormat = dialect.getReturnFormat();
+            return this;
+        }
+
+        public Builder setNamespace(String namespace) {
+            this.namespace = namespace;
+            return this;
+        }
+
+        public Builder setPathToRoot(String pathToRoot) {
+            this.pathToRoot = pathToRoot;
+            return this;
+        }
+
+        public Builder setReturnFormat(String returnFormat) {
+            this.returnFormat = returnFormat;
+            return this;
+        }
+
+        public Builder setRestrictLength(boolean restrictLength) {
+            this.restrictLength = restrictLength;
+            return this;
+        }
+
+        public Builder setFindRootApply(boolean findRootApply) {
+            this.findRootApply = findRootApply;
+            return this;
+        }
+
+        /**
+         * Selects how findRootApply computes $rootApply and $depth. If set, the query loops through all apply
+         * elements and derives both variables from the ancestor axis instead of recursing through the documents
+         * with local:compareApply. Both forms consider $m itself and return the same hits, the flat form in
+         * document order and the recursive form in post-order. Has no effect unless findRootApply is set.
+         * <p>
+         * One difference remains with the {@link DefaultDialect}: the recursive form recognizes apply elements by
+         * {@code name() = "apply"}, i.e. only without a prefix, while the flat form selects {@code *:apply} so that
+         * engines can use their name index. For a document that uses a prefix such as {@code m:apply}, the flat form
+         * can therefore report hits and root applies that the recursive form skips. The named step dialects use the
+         * same test in both forms.
+         *
+         * @param flatRootApply true to generate the flat form
+         */
+        public Builder setFlatRootApply(boolean flatRootApply) {
+            this.flatRootApply = flatRootApply;
+            return this;
+        }
+
+        public Builder setAddQvarMap(boolean addQvarMap) {
+            this.addQvarMap = addQvarMap;
+            return this;
+        }
+
+        /**
+         * Uses the attributes written by {@link CorpusAnnotator} for the constraints. The length constraints become
+         * a single comparison of the subtree size of $x, repeated qvars are compared by their structural hashes
+         * instead of their string values. Only annotated corpora can be queried this way. Empty elements of the
+         * pattern then only match empty elements, and qvars match subtrees with equal names and trimmed texts
+         * regardless of whitespace.
+         *
+         * @param fingerprints true to generate fingerprint constraints
+         */
+        public Builder setFingerprints(boolean fingerprints) {
+            this.fingerprints = fingerprints;
+            return this;
+        }
+
+        /**
+         * Enables the selectivity optimization. The default layout then anchors the loop on the rarest element of
+         * the pattern instead of the root, and the predicates of each level are ordered rarest-first.
+         * Statistics are compared by identity.
+         *
+         * @param selectivityStatistics the statistics of the corpus or null to disable the optimization
+         */
+        public Builder setSelectivityStatistics(SelectivityStatistics selectivityStatistics) {
+            this.selectivityStatistics = selectivityStatistics;
+            return this;
+        }
+
+        /**
+         * Limits the {@link QueryCost} of the generated queries. Patterns above the budget are generated with the
+         * fallback settings of the policy or rejected with a {@link QueryRejectedException}.
+         *
+         * @param admissionPolicy the budget or null to admit all patterns
+         */
+        public Builder setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+            this.admissionPolicy = admissionPolicy;
+            return this;
+        }
+
+        /**
+         * Returns at most limit hits. The hits of the query body are wrapped in {@code fn:subsequence}, which lets
+         * the engine stop the evaluation as soon as offset plus limit hits are found, unless an order is given.
+         * Batch queries are not limited.
+         *
+         * @param limit the maximal number of hits, 0 for all hits
+         */
+        public Builder setLimit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("limit must not be negative");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * Skips the first hits, e.g. for the second page of a result list. Batch queries are not paged.
+         *
+         * @param offset the number of hits to skip
+         */
+        public Builder setOffset(int offset) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("offset must not be negative");
+            }
+            this.offset = offset;
+            return this;
+        }
+
+        /**
+         * Orders the hits before the limit and offset are applied. The value is used as order spec of an
+         * {@code order by} clause and may refer to $m and $x, with findRootApply also to $rootApply and $depth, e.g.
+         * {@code $depth} to return the hits closest to the root apply first. The main loops are then merged into one
+         * FLWOR expression, so the order is global. The recursive local:compareApply function cannot sort its
+         * results, therefore findRootApply always generates the flat form when an order is given. Batch queries are
+         * not ordered.
+         *
+         * @param orderBy an order spec like {@code $depth descending} or the empty string for the natural order
+         */
+        public Builder setOrderBy(String orderBy) {
+            this.orderBy = orderBy == null ? "" : orderBy;
+            return this;
+        }
+
+        public GeneratorConfig build() {
+            return new GeneratorConfig(this);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Suggests the indexes for a query workload.
+ * The advisor walks the patterns the same way the generator does and records which predicates their queries contain:
+ * text comparisons per element name, qvar comparisons and length constraints. Each index that can answer one kind of
+ * predicate is recommended together with the number of patterns that contain it, most useful first.
+ * <p>
+ * DB2 gets one {@code XMLPATTERN} value index per element name with text. BaseX builds one text and one attribute
+ * index per database, restricted to the relevant names with TEXTINCLUDE and ATTRINCLUDE. Indexes on the qvar and
+ * length constraints need fingerprints, see {@link CorpusAnnotator}; without them, qvars are compared by string
+ * value and the length constraints count children, neither of which an index can answer.
+ * <p>
+ * Usage: {@code IndexAdvisor <topic file> [fingerprints]}
+ */
+public class IndexAdvisor {
+    private static final String MATHML_NAMESPACE = "http://www.w3.org/1998/Math/MathML";
+    private static final int DB2_TEXT_LENGTH = 256;
+
+    private final String table;
+    private final String column;
+    private final GeneratorConfig config;
+    private final Map<String, Integer> textPatterns = new TreeMap<>();
+    private int patternCount = 0;
+    private int anyTextPatterns = 0;
+    private int qvarPatterns = 0;
+    private int lengthPatterns = 0;
+
+    /**
+     * Advises for the table math with the column math_mathml and the default generator settings.
+     */
+    public IndexAdvisor() {
+        this("math", "math_mathml", GeneratorConfig.DEFAULT);
+    }
+
+    /**
+     * @param table  the DB2 table that contains the formulae
+     * @param column the XML column of the formulae
+     * @param config the settings the queries are generated with; restrictLength and fingerprints are considered
+     */
+    public IndexAdvisor(String table, String column, GeneratorConfig config) {
+        this.table = table;
+        this.column = column;
+        this.config = config;
+    }
+
+    public static void main(String[] args)
+            throws IOException, SAXException, ParserConfigurationException, XPathExpressionException {
+        if (args.length < 1) {
+            System.err.println("Usage: IndexAdvisor <topic file> [fingerprints]");
+            System.exit(1);
+        }
+        final boolean fingerprints = args.length > 1 && "fingerprints".equals(args[1]);
+        final IndexAdvisor advisor = new IndexAdvisor("math", "math_mathml",
+                GeneratorConfig.builder().setFingerprints(fingerprints).build());
+        advisor.addAll(new NtcirTopicReader(new File(args[0])).extractPatterns());
+        for (final IndexRecommendation recommendation : advisor.recommend()) {
+            System.out.println(recommendation);
+            System.out.println();
+        }
+    }
+
+    public IndexAdvisor addAll(List<NtcirPattern> patterns) {
+        for (final NtcirPattern pattern : patterns) {
+            add(NonWhitespaceNodeList.getFirstChild(pattern.getMathMLNode()));
+        }
+        return this;
+    }
+
+    /**
+     * Adds a pattern to the workload.
+     *
+     * @param mainElement the parent of the query root, as passed to {@link QueryGenerator#generate(Node)}
+     * @return this advisor
+     */
+    public IndexAdvisor add(Node mainElement) {
+        final Set<String> textNames = new TreeSet<>();
+        final Map<String, Integer> qvars = new HashMap<>();
+        final boolean hasChildren = analyse(mainElement, textNames, qvars);
+        patternCount++;
+        for (final String name : textNames) {
+            final Integer count = textPatterns.get(name);
+            textPatterns.put(name, count == null ? 1 : count + 1);
+        }
+        if (!textNames.isEmpty()) {
+            anyTextPatterns++;
+        }
+        for (final int occurrences : qvars.values()) {
+            if (occurrences > 1) {
+                qvarPatterns++;
+                break;
+            }
+        }
+        if (hasChildren && config.isRestrictLength()) {
+            lengthPatterns++;
+        }
+        return this;
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * @return the recommendations for all targets, the most useful first
+     */
+    public List<IndexRecommendation> recommend() {
+        final List<IndexRecommendation> result = new ArrayList<>();
+        result.addAll(recommend(IndexRecommendation.Target.DB2));
+        result.addAll(recommend(IndexRecommendation.Target.BASEX));
+        sort(result);
+        return result;
+    }
+
+    /**
+     * @return the recommendations for the target, the most useful first
+     */
+    public List<IndexRecommendation> recommend(IndexRecommendation.Target target) {
+        final List<IndexRecommendation> result = new ArrayList<>();
+        if (target == IndexRecommendation.Target.DB2) {
+            for (final Map.Entry<String, Integer> entry : textPatterns.entrySet()) {
+                result.add(db2Index(entry.getKey() + "_text", "//" + entry.getKey() + "/text()",
+                        "VARCHAR(" + DB2_TEXT_LENGTH + ")", "text comparisons on " + entry.getKey(),
+                        entry.getValue()));
+            }
+            if (config.isFingerprints()) {
+                if (qvarPatterns > 0) {
+                    result.add(db2Index("hash", "//@" + CorpusAnnotator.HASH_ATTRIBUTE, "VARCHAR(16)",
+                            "qvar hash comparisons", qvarPatterns));
+                }
+                if (lengthPatterns > 0) {
+                    result.add(db2Index("size", "//@" + CorpusAnnotator.SIZE_ATTRIBUTE, "DOUBLE",
+                            "subtree size comparisons", lengthPatterns));
+                }
+            }
+        } else {
+            if (anyTextPatterns > 0) {
+                result.add(new IndexRecommendation(target, "SET TEXTINCLUDE " + join(textPatterns.keySet())
+                        + "\nCREATE INDEX text", "text comparisons on " + join(textPatterns.keySet()),
+                        anyTextPatterns, patternCount));
+            }
+            final List<String> attributes = new ArrayList<>();
+            int attributePatterns = 0;
+            if (config.isFingerprints() && qvarPatterns > 0) {
+                attributes.add(CorpusAnnotator.HASH_ATTRIBUTE);
+                attributePatterns = qvarPatterns;
+            }
+            if (config.isFingerprints() && lengthPatterns > 0) {
+                attributes.add(CorpusAnnotator.SIZE_ATTRIBUTE);
+                attributePatterns = Math.max(attributePatterns, lengthPatterns);
+            }
+            if (!attributes.isEmpty()) {
+                result.add(new IndexRecommendation(target, "SET ATTRINCLUDE " + join(attributes)
+                        + "\nCREATE INDEX attribute", "fingerprint comparisons on " + join(attributes),
+                        attributePatterns, patternCount));
+            }
+        }
+        sort(result);
+        return result;
+    }
+
+    /**
+     * Walks the pattern like {@link GenerationContext}: qvars and annotation-xml subtrees are not part of the
+     * exact match.
+     *
+     * @return true if the pattern root has child nodes, i.e. the query has length constraints
+     */
+    private static boolean analyse(Node mainElement, Set<String> textNames, Map<String, Integer> qvars) {
+        final Node root = NonWhitespaceNodeList.getFirstChild(mainElement);
+        if (root == null) {
+            return false;
+        }
+        collect(root, textNames, qvars);
+        return root.hasChildNodes();
+    }
+
+    private static void collect(Node node, Set<String> textNames, Map<String, Integer> qvars) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                if ("mws:qvar".equals(child.getNodeName())) {
+                    String name = child.getTextContent();
+                    if (name.isEmpty()) {
+                        name = child.getAttributes().getNamedItem("name").getTextContent();
+                    }
+                    final Integer count = qvars.get(name);
+                    qvars.put(name, count == null ? 1 : count + 1);
+                } else if (child.getLocalName() == null
+                        || !XMLHelper.ANNOTATION_XML_PATTERN.matcher(child.getLocalName()).matches()) {
+                    collect(child, textNames, qvars);
+                }
+            } else if (child.getNodeType() == Node.TEXT_NODE && !child.getNodeValue().trim().isEmpty()) {
+                textNames.add(node.getLocalName() == null ? node.getNodeName() : node.getLocalName());
+            }
+        }
+    }
+
+    private IndexRecommendation db2Index(String suffix, String xmlPattern, String sqlType, String description,
+                                         int count) {
+        final String statement = "CREATE INDEX " + table + "_" + column + "_" + suffix.replace('-', '_')
+                + " ON " + table + "(" + column + ") GENERATE KEY USING XMLPATTERN "
+                + "'declare default element namespace \"" + MATHML_NAMESPACE + "\"; " + xmlPattern + "' AS SQL "
+                + sqlType;
+        return new IndexRecommendation(IndexRecommendation.Target.DB2, statement, description, count, patternCount);
+    }
+
+    private static String join(Iterable<String> values) {
+        final StringBuilder out = new StringBuilder();
+        for (final String value : values) {
+            out.append(out.length() == 0 ? "" : ",").append(value);
+        }
+        return out.toString();
+    }
+
+    private static void sort(List<IndexRecommendation> recommendations) {
+        // stable, so equally useful indexes keep the order of the targets and names
+        Collections.sort(recommendations, new Comparator<IndexRecommendation>() {
+            @Override
+            public int compare(IndexRecommendation a, IndexRecommendation b) {
+                return Integer.compare(b.getPatternCount(), a.getPatternCount());
+            }
+        });
+    }
+}
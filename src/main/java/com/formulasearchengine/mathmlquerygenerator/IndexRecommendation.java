@@ -0,0 +1,69 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * An index suggested by {@link IndexAdvisor}, together with the number of analysed patterns whose queries can use it.
+ */
+public final class IndexRecommendation {
+    /**
+     * The database the statement is written for.
+     */
+    public enum Target {
+        DB2, BASEX
+    }
+
+    private final Target target;
+    private final String statement;
+    private final String description;
+    private final int patternCount;
+    private final int totalPatterns;
+
+    IndexRecommendation(Target target, String statement, String description, int patternCount, int totalPatterns) {
+        this.target = target;
+        this.statement = statement;
+        this.description = description;
+        this.patternCount = patternCount;
+        this.totalPatterns = totalPatterns;
+    }
+
+    public Target getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the DDL statement or command, e.g. {@code CREATE INDEX ... GENERATE KEY USING XMLPATTERN ...}
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return what the index is used for
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the number of patterns that contain a predicate the index can answer
+     */
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * @return the number of analysed patterns
+     */
+    public int getTotalPatterns() {
+        return totalPatterns;
+    }
+
+    /**
+     * @return the statement preceded by a comment with the description and the estimate
+     */
+    @Override
+    public String toString() {
+        final String comment = target == Target.DB2 ? "-- " : "# ";
+        return comment + description + ", helps " + patternCount + " of " + totalPatterns + " patterns\n"
+                + statement;
+    }
+}
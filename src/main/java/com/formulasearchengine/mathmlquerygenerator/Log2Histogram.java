@@ -0,0 +1,47 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative longs with power-of-two buckets.
+ * Bucket i counts the values with i significant bits, i.e. [2^(i-1), 2^i); bucket 0 counts zeros.
+ * Percentiles are therefore reported as the upper bound of a bucket, which is at most twice the exact value.
+ */
+final class Log2Histogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long value) {
+        counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(Math.max(0, value)));
+    }
+
+    /**
+     * @param quantile e.g. 0.99
+     * @return the upper bound of the bucket that contains the quantile, 0 if nothing was recorded
+     */
+    long getQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+}
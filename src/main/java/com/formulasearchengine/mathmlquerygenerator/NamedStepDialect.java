@@ -0,0 +1,37 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Base of the dialects that test element names with namespace-qualified steps like {@code self::m:apply} and texts
+ * with {@code text() = 'literal'}, which engines can answer from their element name and text indexes.
+ */
+abstract class NamedStepDialect implements QueryDialect {
+    private final String prefix;
+
+    /**
+     * @param prefix the prefix of the MathML namespace including the colon, or empty if it is the default element
+     *               namespace
+     */
+    NamedStepDialect(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public String elementTest(String localName) {
+        return prefix + localName;
+    }
+
+    @Override
+    public void appendChildNameTest(StringBuilder out, int position, String localName) {
+        out.append("*[").append(position).append("][self::").append(prefix).append(localName).append(']');
+    }
+
+    @Override
+    public String selfNameTest(String variable, String localName) {
+        return "exists(" + variable + "/self::" + prefix + localName + ")";
+    }
+
+    @Override
+    public void appendTextTest(StringBuilder out, String text) {
+        XQueryLiterals.appendStringLiteral(out.append("text() = "), text);
+    }
+}
@@ -10,6 +10,7 @@ public class NtcirPattern {
     private final String formulaID;
     private final String xQueryExpression;
     private final Node mathMLNode;
+    private final PatternTree patternTree;
 
     /**
      * @param num
@@ -22,6 +23,23 @@ public class NtcirPattern {
         this.formulaID = formulaID;
         this.xQueryExpression = xQueryExpression;
         this.mathMLNode = mathMLNode;
+        this.patternTree = null;
+    }
+
+    /**
+     * Creates a pattern that does not reference the topic document.
+     *
+     * @param num
+     * @param formulaID
+     * @param xQueryExpression
+     * @param patternTree the math element as tree
+     */
+    public NtcirPattern(String num, String formulaID, String xQueryExpression, PatternTree patternTree) {
+        this.num = num;
+        this.formulaID = formulaID;
+        this.xQueryExpression = xQueryExpression;
+        this.mathMLNode = null;
+        this.patternTree = patternTree;
     }
 
     public final String getNum() {
@@ -36,7 +54,23 @@ public class NtcirPattern {
         return xQueryExpression;
     }
 
+    /**
+     * @return the math element; for patterns created from a tree, a new document is built on every call
+     */
     public final Node getMathMLNode() {
+        if (mathMLNode == null) {
+            return patternTree.toDocument().getDocumentElement();
+        }
         return mathMLNode;
     }
+
+    /**
+     * @return the math element as tree; for patterns created from a DOM node, the tree is built on every call
+     */
+    public final PatternTree getPatternTree() {
+        if (patternTree == null) {
+            return PatternTree.of(mathMLNode);
+        }
+        return patternTree;
+    }
 }
@@ -7,7 +7,6 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
@@ -16,7 +15,12 @@ import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by Moritz on 08.11.2014.
@@ -29,18 +33,19 @@ public class NtcirTopicReader {
     private final Document topics;
     private final List<NtcirPattern> patterns = new ArrayList<>();
     private final XQueryGenerator queryGenerator;
+    private int parallelism = 1;
+    private boolean compactPatterns = false;
 
     public NtcirTopicReader(Document topics) {
         this.topics = topics;
         queryGenerator = new XQueryGenerator(topics);
     }
 
+    /**
+     * Parses the topic file with the reusable builder of {@link DocumentParser}.
+     */
     public NtcirTopicReader(File topicFile) throws ParserConfigurationException, IOException, SAXException {
-        DocumentBuilder documentBuilder = XMLHelper.getDocumentBuilder(true);
-        topics = documentBuilder.parse(topicFile);
-
-        //TODO: Find out how this code duplication can be avoided in Java.
-        queryGenerator = new XQueryGenerator(topics);
+        this(DocumentParser.parse(topicFile, DocumentParser.Mode.DEFAULT));
     }
 
     public NtcirTopicReader(Document topics, String namespace, String pathToRoot, String returnFormat, boolean restrictLength) {
@@ -69,6 +74,16 @@ public class NtcirTopicReader {
         return this;
     }
 
+    public final NtcirTopicReader setFlatRootApply(boolean flatRootApply) {
+        queryGenerator.setFlatRootApply(flatRootApply);
+        return this;
+    }
+
+    public final NtcirTopicReader setFingerprints(boolean fingerprints) {
+        queryGenerator.setFingerprints(fingerprints);
+        return this;
+    }
+
     public final NtcirTopicReader setRestrictLength(boolean restrictLength) {
         queryGenerator.setRestrictLength(restrictLength);
         return this;
@@ -79,6 +94,81 @@ public class NtcirTopicReader {
         return this;
     }
 
+    /**
+     * Limits the number of hits of every generated query, see {@link XQueryGenerator#setLimit(int)}.
+     */
+    public final NtcirTopicReader setLimit(int limit) {
+        queryGenerator.setLimit(limit);
+        return this;
+    }
+
+    public final NtcirTopicReader setOffset(int offset) {
+        queryGenerator.setOffset(offset);
+        return this;
+    }
+
+    public final NtcirTopicReader setOrderBy(String orderBy) {
+        queryGenerator.setOrderBy(orderBy);
+        return this;
+    }
+
+    /**
+     * Limits the cost of the generated queries; {@link #extractPatterns()} throws a {@link QueryRejectedException}
+     * for the first pattern that the policy rejects.
+     */
+    public final NtcirTopicReader setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        queryGenerator.setAdmissionPolicy(admissionPolicy);
+        return this;
+    }
+
+    public final NtcirTopicReader setQueryCache(QueryCache queryCache) {
+        queryGenerator.setQueryCache(queryCache);
+        return this;
+    }
+
+    /**
+     * Reports every generated pattern to the listener. The listener is always called from the thread that calls
+     * {@link #extractPatterns()}; with a parallelism above 1 the events of the generated queries arrive after all
+     * queries have been generated.
+     */
+    public final NtcirTopicReader setGenerationListener(GenerationListener generationListener) {
+        queryGenerator.setGenerationListener(generationListener);
+        return this;
+    }
+
+    public final boolean isCompactPatterns() {
+        return compactPatterns;
+    }
+
+    /**
+     * Stores the formulae of the extracted patterns as {@link PatternTree}, so that the patterns do not keep the
+     * topic document alive. {@link NtcirPattern#getMathMLNode()} then converts the tree back to DOM on demand.
+     *
+     * @param compactPatterns true to store pattern trees instead of DOM nodes
+     */
+    public final NtcirTopicReader setCompactPatterns(boolean compactPatterns) {
+        this.compactPatterns = compactPatterns;
+        return this;
+    }
+
+    public final int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads used by {@link #extractPatterns()}.
+     * With a parallelism of 1 (the default) all topics are processed in the calling thread.
+     *
+     * @param parallelism number of worker threads, at least 1
+     */
+    public final NtcirTopicReader setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive, was " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
     /**
      * Splits the given NTCIR query file into individual queries, converts each query into an XQuery using
      * XQueryGenerator, and returns the result as a list of NtcirPatterns for each individual query.
@@ -88,22 +178,209 @@ public class NtcirTopicReader {
      *                                  +
      */
     public final List<NtcirPattern> extractPatterns() throws XPathExpressionException {
+        final List<TopicFormula> formulae = readFormulae();
+        if (parallelism > 1) {
+            return extractPatternsParallel(formulae);
+        }
+        for (final TopicFormula formula : formulae) {
+            queryGenerator.setMainElement(NonWhitespaceNodeList.getFirstChild(formula.mathMLNode));
+            patterns.add(newPattern(formula, queryGenerator.toString(), compactPatterns));
+        }
+        return patterns;
+    }
+
+    /**
+     * Generates one XQuery for all formulae of the topics that scans the corpus only once.
+     * Each hit is tagged with the topic num and the formula id, see {@link QueryGenerator#generateBatch(List)}.
+     *
+     * @return XQuery as string
+     * @throws XPathExpressionException Thrown if xpaths fail to compile or fail to evaluate
+     */
+    public final String extractBatchQuery() throws XPathExpressionException {
+        if (patterns.isEmpty()) {
+            extractPatterns();
+        }
+        return new QueryGenerator(queryGenerator.getConfig()).generateBatch(patterns);
+    }
+
+    /**
+     * Collects the num, id and math element of every formula in document order.
+     */
+    private List<TopicFormula> readFormulae() throws XPathExpressionException {
         final XPath xpath = XMLHelper.namespaceAwareXpath("t", NS_NII);
         final XPathExpression xNum = xpath.compile("./t:num");
         final XPathExpression xFormula = xpath.compile("./t:query/t:formula");
-        final NonWhitespaceNodeList topicList = new NonWhitespaceNodeList(
-                topics.getElementsByTagNameNS(NS_NII, "topic"));
-        for (final Node node : topicList) {
+        final List<TopicFormula> result = new ArrayList<>();
+        for (final Node node : new NonWhitespaceNodeList(topics.getElementsByTagNameNS(NS_NII, "topic"))) {
             final String num = xNum.evaluate(node);
             final NonWhitespaceNodeList formulae = new NonWhitespaceNodeList((NodeList)
                     xFormula.evaluate(node, XPathConstants.NODESET));
             for (final Node formula : formulae) {
                 final String id = formula.getAttributes().getNamedItem("id").getTextContent();
-                final Node mathMLNode = NonWhitespaceNodeList.getFirstChild(formula);
-                queryGenerator.setMainElement(NonWhitespaceNodeList.getFirstChild(mathMLNode));
-                patterns.add(new NtcirPattern(num, id, queryGenerator.toString(), mathMLNode));
+                result.add(new TopicFormula(num, id, NonWhitespaceNodeList.getFirstChild(formula)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The DOM is not thread-safe (Xerces expands deferred nodes on first access), so the calling thread copies every
+     * main element into a {@link PatternTree} in a single pass. The ForkJoinPool derives the cache keys from the trees,
+     * the calling thread answers the cache hits, and the pool generates the misses, once per distinct key. The calling
+     * thread then fills the cache and informs the listener with the DOM main elements, like
+     * {@link QueryGenerator#generate(Node)} does; repeated formulae are reported as cache hits.
+     */
+    private List<NtcirPattern> extractPatternsParallel(List<TopicFormula> formulae) {
+        final QueryCache queryCache = queryGenerator.getQueryCache();
+        final GenerationListener listener = queryGenerator.getGenerationListener();
+        final QueryGenerator generator = new QueryGenerator(queryGenerator.getConfig());
+        final int size = formulae.size();
+        final Node[] mainElements = new Node[size];
+        final PatternTree[] trees = new PatternTree[size];
+        final long[] nanos = listener == null ? null : new long[size];
+        final List<Integer> present = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            final long start = nanos == null ? 0 : System.nanoTime();
+            mainElements[i] = NonWhitespaceNodeList.getFirstChild(formulae.get(i).mathMLNode);
+            if (mainElements[i] != null) {
+                trees[i] = PatternTree.ofPattern(mainElements[i]);
+                present.add(i);
+            }
+            if (nanos != null) {
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            final String[] queries = new String[size];
+            final QueryCacheKey[] keys = new QueryCacheKey[size];
+            final List<Integer> misses;
+            final int[] duplicateOf = new int[size];
+            Arrays.fill(duplicateOf, -1);
+            if (queryCache == null) {
+                misses = present;
+            } else {
+                pool.invoke(new GenerateTask(present, 0, present.size(), threshold(present.size()), generator, trees,
+                        keys, null, nanos));
+                misses = new ArrayList<>();
+                // formulae whose key equals that of an earlier miss are hits once the earlier one is generated
+                final Map<QueryCacheKey, Integer> pending = new HashMap<>();
+                for (final int i : present) {
+                    final long start = nanos == null ? 0 : System.nanoTime();
+                    queries[i] = queryCache.get(keys[i]);
+                    if (queries[i] == null && pending.containsKey(keys[i])) {
+                        duplicateOf[i] = pending.get(keys[i]);
+                    } else if (queries[i] == null) {
+                        pending.put(keys[i], i);
+                        misses.add(i);
+                    }
+                    if (nanos != null) {
+                        nanos[i] += System.nanoTime() - start;
+                    }
+                }
+            }
+            final GeneratedQuery[] generated = new GeneratedQuery[size];
+            pool.invoke(new GenerateTask(misses, 0, misses.size(), threshold(misses.size()), generator, trees, null,
+                    generated, nanos));
+            for (final int i : present) {
+                if (generated[i] != null) {
+                    queries[i] = generated[i].getQuery();
+                    if (queryCache != null) {
+                        queryCache.put(keys[i], queries[i]);
+                    }
+                } else if (duplicateOf[i] >= 0) {
+                    queries[i] = queries[duplicateOf[i]];
+                }
+                if (listener != null) {
+                    listener.generated(mainElements[i], generated[i] != null
+                            ? QueryGenerator.newEvent(nanos[i], generated[i])
+                            : QueryGenerator.newCacheHitEvent(nanos[i], queries[i]));
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                patterns.add(newPattern(formulae.get(i), queries[i], compactPatterns));
             }
+        } finally {
+            pool.shutdown();
         }
         return patterns;
     }
+
+    /**
+     * About four leaf tasks per worker: fewer leave workers idle when the formulae of one range are larger than the
+     * others, many more only add fork/join overhead for the small tasks of a topic file.
+     */
+    private int threshold(int tasks) {
+        return Math.max(1, tasks / (4 * parallelism));
+    }
+
+    private static NtcirPattern newPattern(TopicFormula formula, String query, boolean compact) {
+        if (compact) {
+            return new NtcirPattern(formula.num, formula.id, query, PatternTree.of(formula.mathMLNode));
+        }
+        return new NtcirPattern(formula.num, formula.id, query, formula.mathMLNode);
+    }
+
+    private static final class TopicFormula {
+        private final String num;
+        private final String id;
+        private final Node mathMLNode;
+
+        TopicFormula(String num, String id, Node mathMLNode) {
+            this.num = num;
+            this.id = id;
+            this.mathMLNode = mathMLNode;
+        }
+    }
+
+    /**
+     * Computes the cache keys (if keys is not null) or the queries of the formulae indices[from, to). Ranges larger
+     * than the threshold are split in halves. If nanos is not null, the time spent on a formula is added to it.
+     */
+    private static final class GenerateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Integer> indices;
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final QueryGenerator generator;
+        private final PatternTree[] trees;
+        private final QueryCacheKey[] keys;
+        private final GeneratedQuery[] generated;
+        private final long[] nanos;
+
+        GenerateTask(List<Integer> indices, int from, int to, int threshold, QueryGenerator generator,
+                     PatternTree[] trees, QueryCacheKey[] keys, GeneratedQuery[] generated, long[] nanos) {
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.generator = generator;
+            this.trees = trees;
+            this.keys = keys;
+            this.generated = generated;
+            this.nanos = nanos;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new GenerateTask(indices, from, middle, threshold, generator, trees, keys, generated, nanos),
+                        new GenerateTask(indices, middle, to, threshold, generator, trees, keys, generated, nanos));
+                return;
+            }
+            for (final int i : indices.subList(from, to)) {
+                final long start = nanos == null ? 0 : System.nanoTime();
+                if (keys != null) {
+                    keys[i] = new QueryCacheKey(trees[i], generator.getConfig());
+                } else {
+                    generated[i] = generator.generateUnobserved(trees[i]);
+                }
+                if (nanos != null) {
+                    nanos[i] += System.nanoTime() - start;
+                }
+            }
+        }
+    }
 }
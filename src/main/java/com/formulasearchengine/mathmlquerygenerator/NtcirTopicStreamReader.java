@@ -0,0 +1,146 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming variant of {@link NtcirTopicReader}.
+ * Scans the topic file with StAX and only builds a small DOM for each formula element once it is reached.
+ * The patterns are produced lazily, so memory use is bounded by the largest formula rather than by the file size.
+ * Each returned {@link NtcirPattern} references the math node of its own tiny document.
+ * Unlike {@link NtcirTopicReader}, DTDs are not processed: only the predefined XML entities and character references
+ * are expanded, any other entity reference makes the reader fail with an {@link XMLStreamException}.
+ * Instances are not thread-safe.
+ */
+public class NtcirTopicStreamReader implements Iterator<NtcirPattern>, Iterable<NtcirPattern>, Closeable {
+    private static final XMLInputFactory INPUT_FACTORY = StaxDomBuilder.createInputFactory();
+    private final XMLStreamReader reader;
+    private final InputStream inputStream;
+    private final QueryGenerator generator;
+    private final DocumentBuilder documentBuilder;
+    private String num = "";
+    private boolean inQuery = false;
+    private NtcirPattern next = null;
+
+    /**
+     * @param topicFile file in the NTCIR topic format
+     * @param generator generator used to convert the formulae, or null to only extract them
+     */
+    public NtcirTopicStreamReader(File topicFile, QueryGenerator generator)
+            throws IOException, XMLStreamException, ParserConfigurationException {
+        this(new FileInputStream(topicFile), generator);
+    }
+
+    /**
+     * @param inputStream stream in the NTCIR topic format, closed by {@link #close()} or if construction fails
+     * @param generator   generator used to convert the formulae, or null to only extract them
+     */
+    public NtcirTopicStreamReader(InputStream inputStream, QueryGenerator generator)
+            throws IOException, XMLStreamException, ParserConfigurationException {
+        this.inputStream = inputStream;
+        this.generator = generator;
+        boolean opened = false;
+        try {
+            this.reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+            this.documentBuilder = XMLHelper.getDocumentBuilder(true);
+            opened = true;
+        } finally {
+            if (!opened) {
+                inputStream.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readNext();
+            } catch (final XMLStreamException e) {
+                throw new IllegalStateException("Cannot read topic stream", e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public NtcirPattern next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final NtcirPattern result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * @return this reader; it can only be iterated once
+     */
+    @Override
+    public Iterator<NtcirPattern> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (final XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private NtcirPattern readNext() throws XMLStreamException {
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && NtcirTopicReader.NS_NII.equals(reader.getNamespaceURI())) {
+                final String name = reader.getLocalName();
+                if ("topic".equals(name)) {
+                    num = "";
+                } else if ("num".equals(name)) {
+                    num = reader.getElementText();
+                } else if ("query".equals(name)) {
+                    inQuery = true;
+                } else if ("formula".equals(name) && inQuery) {
+                    return readFormula();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "query".equals(reader.getLocalName())
+                    && NtcirTopicReader.NS_NII.equals(reader.getNamespaceURI())) {
+                inQuery = false;
+            }
+        }
+        return null;
+    }
+
+    private NtcirPattern readFormula() throws XMLStreamException {
+        final String id = reader.getAttributeValue(null, "id");
+        final Element formula = StaxDomBuilder.readElement(reader, documentBuilder.newDocument());
+        final Node mathMLNode = NonWhitespaceNodeList.getFirstChild(formula);
+        final String query = generator == null
+                ? null : generator.generate(NonWhitespaceNodeList.getFirstChild(mathMLNode));
+        return new NtcirPattern(num, id, query, mathMLNode);
+    }
+}
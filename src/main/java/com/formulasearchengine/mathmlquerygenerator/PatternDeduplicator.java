@@ -0,0 +1,259 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Groups patterns, e.g. from {@link NtcirTopicReader#extractPatterns()}, so that every distinct query is executed
+ * once.
+ * <p>
+ * Two patterns are equivalent if their canonical forms are equal: the local names of the elements, the trimmed texts,
+ * whether an element has child nodes, and the qvars numbered in order of their first occurrence. This is everything
+ * the generator looks at, so equivalent patterns generate the same query up to the qvar names.
+ * <p>
+ * A group is subsumed by a broader group if every hit of its pattern is also a hit of the broader pattern at the same
+ * $x, e.g. {@code c^2} by {@code ?x^2}. The broader pattern has the same structure from the root, but may have qvars
+ * in place of whole subtrees and, without restrictLength, fewer children. The test is conservative: a repeated qvar
+ * of the broader pattern only subsumes repetitions of one qvar in the narrower pattern, not equal subtrees. Patterns
+ * that only occur inside another pattern are not subsumed, since their hits are not hits of the other pattern.
+ */
+public final class PatternDeduplicator {
+    private final GeneratorConfig config;
+
+    /**
+     * @param config only restrictLength, fingerprints and findRootApply are used
+     */
+    public PatternDeduplicator(GeneratorConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Groups the patterns and links every subsumed group to a broader group that is not subsumed itself.
+     *
+     * @param patterns the patterns; their math elements are the parents of the main elements
+     * @return the groups in the order of their first pattern
+     */
+    public List<PatternGroup> group(List<NtcirPattern> patterns) {
+        final Map<String, PatternGroup> groups = new LinkedHashMap<>();
+        final Map<PatternGroup, PatternTree> trees = new HashMap<>();
+        for (final NtcirPattern pattern : patterns) {
+            final PatternTree tree = pattern.getPatternTree();
+            final String canonicalForm = tree.getChildCount(0) == 0 ? "" : canonicalize(tree, tree.getFirstChild(0));
+            PatternGroup group = groups.get(canonicalForm);
+            if (group == null) {
+                group = new PatternGroup(canonicalForm, config);
+                groups.put(canonicalForm, group);
+                trees.put(group, tree);
+            }
+            group.add(pattern);
+        }
+        final List<PatternGroup> result = new ArrayList<>(groups.values());
+        final Map<String, List<PatternGroup>> buckets = new HashMap<>();
+        for (final PatternGroup group : result) {
+            final String key = rootKey(trees.get(group));
+            if (key != null) {
+                List<PatternGroup> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    buckets.put(key, bucket);
+                }
+                bucket.add(group);
+            }
+        }
+        final Map<PatternGroup, List<PatternGroup>> broader = new HashMap<>();
+        for (final PatternGroup narrow : result) {
+            final List<PatternGroup> candidates = new ArrayList<>();
+            final PatternTree specific = trees.get(narrow);
+            final String key = rootKey(specific);
+            if (key != null) {
+                for (final PatternGroup wide : buckets.get(key)) {
+                    final PatternTree general = trees.get(wide);
+                    if (wide != narrow && subsumes(general, specific) && !subsumes(specific, general)) {
+                        candidates.add(wide);
+                    }
+                }
+            }
+            broader.put(narrow, candidates);
+        }
+        for (final PatternGroup narrow : result) {
+            for (final PatternGroup wide : broader.get(narrow)) {
+                // usually one of the candidates is not subsumed itself; otherwise the group is executed on its own
+                if (broader.get(wide).isEmpty()) {
+                    narrow.setBroader(wide);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Assigns the hits of the executed groups to all patterns. The hits of subsumed groups are filtered from the hits
+     * of their broader group.
+     *
+     * @param groups the groups as returned by {@link #group(List)}
+     * @param hits   the hits of the query of every group that is not subsumed, e.g. with the return format $x
+     * @return the hits of every pattern, in the order of the groups
+     * @throws IllegalArgumentException if the hits of a group that is not subsumed are missing
+     */
+    public static Map<NtcirPattern, List<Node>> fanOut(List<PatternGroup> groups, Map<PatternGroup, List<Node>> hits) {
+        final Map<NtcirPattern, List<Node>> result = new LinkedHashMap<>();
+        for (final PatternGroup group : groups) {
+            final PatternGroup executed = group.isSubsumed() ? group.getBroader() : group;
+            final List<Node> executedHits = hits.get(executed);
+            if (executedHits == null) {
+                throw new IllegalArgumentException("No hits for " + executed);
+            }
+            final List<Node> groupHits = group.isSubsumed() ? group.filter(executedHits) : executedHits;
+            for (final NtcirPattern pattern : group.getPatterns()) {
+                result.put(pattern, groupHits);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Serializes the children of the main element like {@link QueryCacheKey#canonicalize(Node, boolean)} with
+     * normalized qvars.
+     *
+     * @param tree        the pattern
+     * @param mainElement index of the main element in the tree
+     * @return the canonical form
+     */
+    static String canonicalize(PatternTree tree, int mainElement) {
+        final StringBuilder sb = new StringBuilder();
+        appendCanonical(sb, tree, mainElement, new HashMap<String, Integer>());
+        return sb.toString();
+    }
+
+    private static void appendCanonical(StringBuilder sb, PatternTree tree, int element,
+                                        Map<String, Integer> qvarIndices) {
+        for (int i = 0; i < tree.getChildCount(element); i++) {
+            final int child = tree.getFirstChild(element) + i;
+            if (tree.isQvar(child)) {
+                Integer index = qvarIndices.get(tree.getText(child));
+                if (index == null) {
+                    index = qvarIndices.size();
+                    qvarIndices.put(tree.getText(child), index);
+                }
+                sb.append('?').append(index).append('?');
+            } else if (isAnnotation(tree, child)) {
+                sb.append("<#>");
+            } else {
+                sb.append('<').append(tree.getLocalName(child));
+                if (tree.hasChildNodes(child)) {
+                    if (tree.getText(child) != null) {
+                        sb.append('\'').append(tree.getText(child).replace("'", "''")).append('\'');
+                    }
+                    appendCanonical(sb, tree, child, qvarIndices);
+                    sb.append('>');
+                } else {
+                    sb.append("/>");
+                }
+            }
+        }
+    }
+
+    private static boolean isAnnotation(PatternTree tree, int element) {
+        return tree.getLocalName(element) != null
+                && XMLHelper.ANNOTATION_XML_PATTERN.matcher(tree.getLocalName(element)).matches();
+    }
+
+    /**
+     * Patterns can only subsume each other if their main elements have the same number of children with the same
+     * local names, see {@link #subsumes(PatternTree, PatternTree)}. The child counts of the roots are not part of
+     * the key, since a root without child nodes, or a shorter one without restrictLength, is broader.
+     *
+     * @param tree a pattern whose math element is the root of the tree
+     * @return the number and names of the roots, or null if the pattern neither subsumes nor is subsumed
+     */
+    private static String rootKey(PatternTree tree) {
+        if (tree.getChildCount(0) == 0) {
+            return null;
+        }
+        final int mainElement = tree.getFirstChild(0);
+        final StringBuilder sb = new StringBuilder().append(tree.getChildCount(mainElement));
+        for (int i = 0; i < tree.getChildCount(mainElement); i++) {
+            final int root = tree.getFirstChild(mainElement) + i;
+            if (tree.isQvar(root) || isAnnotation(tree, root)) {
+                return null;
+            }
+            sb.append('<').append(tree.getLocalName(root));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param general  a pattern whose math element is the root of the tree
+     * @param specific another pattern whose math element is the root of the tree
+     * @return true if every hit of specific is a hit of general
+     */
+    boolean subsumes(PatternTree general, PatternTree specific) {
+        final int generalMain = general.getFirstChild(0);
+        final int specificMain = specific.getFirstChild(0);
+        if (general.getChildCount(0) == 0 || specific.getChildCount(0) == 0
+                || general.getChildCount(generalMain) != specific.getChildCount(specificMain)) {
+            return false;
+        }
+        final Map<String, String> bindings = new HashMap<>();
+        for (int i = 0; i < general.getChildCount(generalMain); i++) {
+            final int g = general.getFirstChild(generalMain) + i;
+            final int s = specific.getFirstChild(specificMain) + i;
+            if (general.isQvar(g) || specific.isQvar(s) || isAnnotation(general, g) || isAnnotation(specific, s)
+                    || !Objects.equals(general.getLocalName(g), specific.getLocalName(s))
+                    || !implies(general, g, specific, s, bindings)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether the constraints of the specific element imply those of the general element with the same name.
+     *
+     * @param bindings the qvar of the specific pattern that every qvar of the general pattern was bound to, or the
+     *                 empty string if it was bound to another subtree
+     */
+    private boolean implies(PatternTree general, int g, PatternTree specific, int s, Map<String, String> bindings) {
+        if (!general.hasChildNodes(g)) {
+            // with fingerprints, elements without child nodes only match empty elements
+            return !config.isFingerprints() || !specific.hasChildNodes(s);
+        }
+        if (!specific.hasChildNodes(s)) {
+            return false;
+        }
+        if (general.getText(g) != null && !general.getText(g).equals(specific.getText(s))) {
+            return false;
+        }
+        final int count = general.getChildCount(g);
+        if (config.isRestrictLength() ? count != specific.getChildCount(s) : count > specific.getChildCount(s)) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            final int gChild = general.getFirstChild(g) + i;
+            final int sChild = specific.getFirstChild(s) + i;
+            if (general.isQvar(gChild)) {
+                final String bound = specific.isQvar(sChild) ? specific.getText(sChild) : "";
+                final String previous = bindings.put(general.getText(gChild), bound);
+                // a repeated qvar requires equal string values, which only a repeated qvar guarantees
+                if (previous != null && (previous.isEmpty() || !previous.equals(bound))) {
+                    return false;
+                }
+            } else if (!isAnnotation(general, gChild)) {
+                if (specific.isQvar(sChild) || isAnnotation(specific, sChild)
+                        || !Objects.equals(general.getLocalName(gChild), specific.getLocalName(sChild))
+                        || !implies(general, gChild, specific, sChild, bindings)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Patterns that generate the same query up to the names of their qvars, as found by {@link PatternDeduplicator}.
+ * Only the query of the representative has to be executed. If the group is subsumed by a broader group, its hits
+ * are a subset of the hits of the broader group and can be selected from them with {@link #filter(List)} instead.
+ * Instances are not thread-safe.
+ */
+public final class PatternGroup {
+    private final String canonicalForm;
+    private final GeneratorConfig config;
+    private final List<NtcirPattern> patterns = new ArrayList<>();
+    private final List<PatternGroup> narrower = new ArrayList<>();
+    private PatternGroup broader = null;
+    private PatternMatcher matcher = null;
+
+    PatternGroup(String canonicalForm, GeneratorConfig config) {
+        this.canonicalForm = canonicalForm;
+        this.config = config;
+    }
+
+    void add(NtcirPattern pattern) {
+        patterns.add(pattern);
+    }
+
+    void setBroader(PatternGroup broader) {
+        this.broader = broader;
+        broader.narrower.add(this);
+    }
+
+    /**
+     * @return the structure of the patterns with qvars numbered in order of their first occurrence
+     */
+    public String getCanonicalForm() {
+        return canonicalForm;
+    }
+
+    /**
+     * @return the first pattern of the group, whose query stands for all patterns of the group. With the qvar map,
+     * the map of its hits uses the qvar names of this pattern.
+     */
+    public NtcirPattern getRepresentative() {
+        return patterns.get(0);
+    }
+
+    /**
+     * @return all patterns of the group in input order
+     */
+    public List<NtcirPattern> getPatterns() {
+        return Collections.unmodifiableList(patterns);
+    }
+
+    /**
+     * @return true if the query of this group need not be executed, because the broader group returns all its hits
+     */
+    public boolean isSubsumed() {
+        return broader != null;
+    }
+
+    /**
+     * @return the group whose hits include all hits of this group or null; the broader group is never subsumed itself
+     */
+    public PatternGroup getBroader() {
+        return broader;
+    }
+
+    /**
+     * @return the groups that are subsumed by this group
+     */
+    public List<PatternGroup> getNarrower() {
+        return Collections.unmodifiableList(narrower);
+    }
+
+    /**
+     * Selects the hits of this group from the hits of the broader group.
+     *
+     * @param hits the elements bound to $x by the query of the broader group, e.g. with the return format $x
+     * @return the hits that match the representative of this group, in the given order
+     */
+    public List<Node> filter(List<Node> hits) {
+        if (matcher == null) {
+            final Node math = getRepresentative().getMathMLNode();
+            matcher = PatternMatcher.compile(NonWhitespaceNodeList.getFirstChild(math), config);
+        }
+        final List<Node> result = new ArrayList<>();
+        for (final Node hit : hits) {
+            if (matcher.matches(hit)) {
+                result.add(hit);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return canonicalForm;
+    }
+}
@@ -0,0 +1,397 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a MathML query directly in Java, without an XQuery engine.
+ * The query is compiled into a flat tree-pattern program with the same semantics as the XQuery of
+ * {@link QueryGenerator} for the same settings:
+ * <ul>
+ * <li>every query element is compared by its local name with the qualified name of the candidate element
+ * at the same child position,</li>
+ * <li>the trimmed text of a query element must equal one text node of the candidate element,</li>
+ * <li>with restrictLength, every query element with child nodes requires the same number of child elements,</li>
+ * <li>all occurrences of a qvar must have equal string values.</li>
+ * </ul>
+ * With findRootApply the candidates are all apply elements in post order, as in the recursive layout;
+ * otherwise they are all descendants named like the query root, in document order.
+ * Instances are immutable and thread-safe.
+ */
+public final class PatternMatcher {
+    private static final String MATH = "math";
+    private static final String APPLY = "apply";
+    private static final int NONE = -1;
+
+    /**
+     * Receives the matching elements.
+     */
+    public interface MatchCallback {
+        /**
+         * @param hit the element that corresponds to the query root, i.e. $x in the XQuery
+         */
+        void onMatch(Node hit);
+    }
+
+    private final boolean findRootApply;
+    private final String rootName;
+    // the program, one entry per query node in pre-order; node 0 is the query root
+    private final String[] names;
+    private final String[] texts;
+    private final int[] positions;
+    private final int[] childCounts;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final boolean[] qvar;
+    private final int[][] qvarGroups;
+
+    private PatternMatcher(Compiler compiler, boolean findRootApply) {
+        this.findRootApply = findRootApply;
+        this.rootName = compiler.rootName;
+        final int size = compiler.names.size();
+        names = compiler.names.toArray(new String[size]);
+        texts = compiler.texts.toArray(new String[size]);
+        positions = toArray(compiler.positions);
+        childCounts = toArray(compiler.childCounts);
+        firstChild = new int[size];
+        nextSibling = new int[size];
+        qvar = new boolean[size];
+        final int[] lastChild = new int[size];
+        for (int i = 0; i < size; i++) {
+            firstChild[i] = NONE;
+            nextSibling[i] = NONE;
+            lastChild[i] = NONE;
+            qvar[i] = compiler.qvar.get(i);
+        }
+        for (int i = 1; i < size; i++) {
+            final int parent = compiler.parents.get(i);
+            if (lastChild[parent] == NONE) {
+                firstChild[parent] = i;
+            } else {
+                nextSibling[lastChild[parent]] = i;
+            }
+            lastChild[parent] = i;
+        }
+        final List<int[]> groups = new ArrayList<>();
+        for (final List<Integer> occurrences : compiler.qvarOccurrences.values()) {
+            if (occurrences.size() > 1) {
+                groups.add(toArray(occurrences));
+            }
+        }
+        qvarGroups = groups.toArray(new int[groups.size()][]);
+    }
+
+    /**
+     * Compiles the main element of the given query document.
+     *
+     * @param query  document that contains a MathWebSearch expression, an annotation-xml or a semantics element
+     * @param config only restrictLength and findRootApply are used
+     * @return the matcher or null if the document contains no math
+     */
+    public static PatternMatcher compile(Document query, GeneratorConfig config) {
+        return compile(XMLHelper.getMainElement(query), config);
+    }
+
+    /**
+     * Compiles the given main element. The first child element of the main element is the query root.
+     *
+     * @param mainElement the parent of the query root as returned by {@link XMLHelper#getMainElement(Document)}
+     * @param config      only restrictLength and findRootApply are used
+     * @return the matcher or null if mainElement is null
+     */
+    public static PatternMatcher compile(Node mainElement, GeneratorConfig config) {
+        if (mainElement == null) {
+            return null;
+        }
+        final Node root = NonWhitespaceNodeList.getFirstChild(mainElement);
+        final Compiler compiler = new Compiler(config.isRestrictLength(), root.getLocalName());
+        compiler.add(null, PatternTree.text(root), 0, NONE, false);
+        if (root.hasChildNodes()) {
+            compiler.compileChildren(root, 0);
+        }
+        return new PatternMatcher(compiler, config.isFindRootApply());
+    }
+
+    /**
+     * @return the number of nodes of the compiled pattern, including qvars
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Tests whether the given element matches the pattern when it is bound to the query root.
+     * The name of the element itself is not compared, that is the job of the candidate selection.
+     */
+    public boolean matches(Node candidate) {
+        final Node[] bindings = new Node[names.length];
+        return matchNode(0, candidate, bindings) && matchQvars(bindings);
+    }
+
+    /**
+     * Matches all candidates below the given context node, which corresponds to $m in the XQuery.
+     *
+     * @return the number of hits
+     */
+    public int match(Node context, MatchCallback callback) {
+        final Node[] bindings = new Node[names.length];
+        if (findRootApply) {
+            return matchPostOrder(context, callback, bindings);
+        }
+        int hits = 0;
+        for (Node child = context.getFirstChild(); child != null; child = child.getNextSibling()) {
+            hits += matchPreOrder(child, callback, bindings);
+        }
+        return hits;
+    }
+
+    /**
+     * Matches all math elements of the given document or subtree, like the pathToRoot //*:math.
+     * Nested math elements are only matched as part of the outermost one, so every node is visited once.
+     *
+     * @return the number of hits
+     */
+    public int matchDocument(Node node, MatchCallback callback) {
+        if (node.getNodeType() == Node.ELEMENT_NODE && MATH.equals(localName(node))) {
+            return match(node, callback);
+        }
+        int hits = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            hits += matchDocument(child, callback);
+        }
+        return hits;
+    }
+
+    /**
+     * Matches all math elements of a stream. Each math element is copied into a small DOM tree before it is matched,
+     * so memory use is bounded by the largest formula. Nested math elements are only matched as part of the
+     * outermost one.
+     *
+     * @return the number of hits
+     */
+    public int match(XMLStreamReader reader, MatchCallback callback)
+            throws XMLStreamException, ParserConfigurationException {
+        final DocumentBuilder documentBuilder = XMLHelper.getDocumentBuilder(true);
+        int hits = 0;
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && MATH.equals(reader.getLocalName())) {
+                hits += match(StaxDomBuilder.readElement(reader, documentBuilder.newDocument()), callback);
+            }
+        }
+        return hits;
+    }
+
+    private int matchPreOrder(Node node, MatchCallback callback, Node[] bindings) {
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return 0;
+        }
+        int hits = 0;
+        if (rootName.equals(localName(node)) && matchNode(0, node, bindings) && matchQvars(bindings)) {
+            callback.onMatch(node);
+            hits++;
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            hits += matchPreOrder(child, callback, bindings);
+        }
+        return hits;
+    }
+
+    private int matchPostOrder(Node node, MatchCallback callback, Node[] bindings) {
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return 0;
+        }
+        int hits = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            hits += matchPostOrder(child, callback, bindings);
+        }
+        if (APPLY.equals(node.getNodeName()) && matchNode(0, node, bindings) && matchQvars(bindings)) {
+            callback.onMatch(node);
+            hits++;
+        }
+        return hits;
+    }
+
+    private boolean matchNode(int id, Node node, Node[] bindings) {
+        bindings[id] = node;
+        if (texts[id] != null && !hasText(node, texts[id])) {
+            return false;
+        }
+        if (childCounts[id] != NONE && countElements(node) != childCounts[id]) {
+            return false;
+        }
+        // the children of a pattern node are ordered by position, so one pass over the candidate children suffices
+        Node child = nextElement(node.getFirstChild());
+        int position = 1;
+        for (int c = firstChild[id]; c != NONE; c = nextSibling[c]) {
+            while (child != null && position < positions[c]) {
+                child = nextElement(child.getNextSibling());
+                position++;
+            }
+            final Node candidate = position == positions[c] ? child : null;
+            if (qvar[c]) {
+                bindings[c] = candidate;
+            } else if (candidate == null || !names[c].equals(candidate.getNodeName())
+                    || !matchNode(c, candidate, bindings)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchQvars(Node[] bindings) {
+        for (final int[] group : qvarGroups) {
+            final Node first = bindings[group[0]];
+            if (first == null) {
+                return false;
+            }
+            final String value = first.getTextContent();
+            for (int i = 1; i < group.length; i++) {
+                final Node other = bindings[group[i]];
+                if (other == null || !value.equals(other.getTextContent())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasText(Node node, String text) {
+        StringBuilder run = null;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            final short type = child.getNodeType();
+            if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+                final Node next = child.getNextSibling();
+                final boolean continued = next != null
+                        && (next.getNodeType() == Node.TEXT_NODE || next.getNodeType() == Node.CDATA_SECTION_NODE);
+                if (run == null && !continued) {
+                    if (text.equals(child.getNodeValue())) {
+                        return true;
+                    }
+                } else {
+                    // adjacent text and CDATA nodes form a single XDM text node
+                    if (run == null) {
+                        run = new StringBuilder();
+                    }
+                    run.append(child.getNodeValue());
+                    if (!continued) {
+                        if (text.contentEquals(run)) {
+                            return true;
+                        }
+                        run = null;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Node nextElement(Node node) {
+        Node current = node;
+        while (current != null && current.getNodeType() != Node.ELEMENT_NODE) {
+            current = current.getNextSibling();
+        }
+        return current;
+    }
+
+    private static int countElements(Node node) {
+        int count = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String localName(Node node) {
+        final String localName = node.getLocalName();
+        if (localName != null) {
+            return localName;
+        }
+        final String name = node.getNodeName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        final int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Walks the query like {@link GenerationContext} and records one program entry per query node.
+     */
+    private static final class Compiler {
+        private final boolean restrictLength;
+        private final String rootName;
+        private final List<String> names = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        private final List<Integer> parents = new ArrayList<>();
+        private final List<Integer> childCounts = new ArrayList<>();
+        private final List<Boolean> qvar = new ArrayList<>();
+        private final Map<String, List<Integer>> qvarOccurrences = new LinkedHashMap<>();
+
+        private Compiler(boolean restrictLength, String rootName) {
+            this.restrictLength = restrictLength;
+            this.rootName = rootName;
+        }
+
+        private int add(String name, String text, int position, int parent, boolean isQvar) {
+            names.add(name);
+            texts.add(text);
+            positions.add(position);
+            parents.add(parent);
+            childCounts.add(NONE);
+            qvar.add(isQvar);
+            return names.size() - 1;
+        }
+
+        private void compileChildren(Node node, int id) {
+            int childElementIndex = 0;
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    childElementIndex++;
+                    if ("mws:qvar".equals(child.getNodeName())) {
+                        String qvarName = child.getTextContent();
+                        if (qvarName.isEmpty()) {
+                            qvarName = child.getAttributes().getNamedItem("name").getTextContent();
+                        }
+                        final int qvarId = add(null, null, childElementIndex, id, true);
+                        if (!qvarOccurrences.containsKey(qvarName)) {
+                            qvarOccurrences.put(qvarName, new ArrayList<Integer>());
+                        }
+                        qvarOccurrences.get(qvarName).add(qvarId);
+                        continue;
+                    }
+                    if (child.getLocalName() != null
+                            && XMLHelper.ANNOTATION_XML_PATTERN.matcher(child.getLocalName()).matches()) {
+                        continue;
+                    }
+                    final int childId = add(child.getLocalName(), PatternTree.text(child), childElementIndex, id,
+                            false);
+                    if (child.hasChildNodes()) {
+                        compileChildren(child, childId);
+                    }
+                }
+            }
+            if (restrictLength) {
+                childCounts.set(id, childElementIndex);
+            }
+        }
+    }
+}
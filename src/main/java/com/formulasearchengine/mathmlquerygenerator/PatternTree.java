@@ -0,0 +1,237 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact, immutable copy of the elements of a pattern that holds no reference to the DOM it was read from.
+ * The elements are numbered in breadth-first order with the root as element 0, so the element children of every
+ * element are consecutive: they start at {@link #getFirstChild(int)} and there are {@link #getChildCount(int)} of
+ * them. Names are interned and shared between trees. Every element keeps its text, the concatenation of its trimmed
+ * text and CDATA children, or for mws:qvar elements the name of the qvar. Attributes, comments and the position of text
+ * between child elements are dropped; MathML content elements have either text or child elements, so this does not
+ * change the generated queries.
+ * <p>
+ * {@link QueryGenerator} and {@link XQueryGenerator} generate from trees directly; {@link #toDocument()} converts
+ * a tree back to DOM where that is needed.
+ */
+public final class PatternTree {
+    static final String QVAR = "mws:qvar";
+    private static final byte HAS_CHILD_NODES = 1;
+    private static final byte IS_QVAR = 2;
+
+    private final String[] names;
+    private final String[] localNames;
+    private final String[] namespaces;
+    private final String[] texts;
+    private final byte[] flags;
+    private final int[] firstChild;
+    private final int[] childCount;
+
+    private PatternTree(int size) {
+        names = new String[size];
+        localNames = new String[size];
+        namespaces = new String[size];
+        texts = new String[size];
+        flags = new byte[size];
+        firstChild = new int[size];
+        childCount = new int[size];
+    }
+
+    /**
+     * Copies the given element and its element descendants.
+     *
+     * @param root e.g. the main element of a query or the math element of a topic
+     * @return the tree with root as element 0
+     */
+    public static PatternTree of(Node root) {
+        return of(root, false);
+    }
+
+    /**
+     * Copies only what the generator reads from a pattern: the children of annotation and qvar elements below the
+     * root are left out. The generated query and the {@link QueryCacheKey} of the tree are the same as for
+     * {@link #of(Node)}, but {@link #toDocument()} does not restore the annotations.
+     *
+     * @param mainElement the parent of the query root
+     */
+    static PatternTree ofPattern(Node mainElement) {
+        return of(mainElement, true);
+    }
+
+    private static PatternTree of(Node root, boolean pattern) {
+        final List<Node> elements = new ArrayList<>();
+        elements.add(root);
+        final List<Integer> counts = new ArrayList<>();
+        for (int i = 0; i < elements.size(); i++) {
+            int count = 0;
+            if (pattern && i > 0 && isLeafOfPattern(elements.get(i))) {
+                counts.add(count);
+                continue;
+            }
+            for (Node child = elements.get(i).getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    elements.add(child);
+                    count++;
+                }
+            }
+            counts.add(count);
+        }
+        final PatternTree tree = new PatternTree(elements.size());
+        int next = 1;
+        for (int i = 0; i < elements.size(); i++) {
+            final Node element = elements.get(i);
+            tree.names[i] = intern(element.getNodeName(), pattern);
+            tree.localNames[i] = intern(element.getLocalName(), pattern);
+            tree.namespaces[i] = intern(element.getNamespaceURI(), pattern);
+            tree.firstChild[i] = next;
+            tree.childCount[i] = counts.get(i);
+            next += tree.childCount[i];
+            if (element.hasChildNodes()) {
+                tree.flags[i] |= HAS_CHILD_NODES;
+            }
+            if (QVAR.equals(element.getNodeName())) {
+                tree.flags[i] |= IS_QVAR;
+                tree.texts[i] = qvarName(element);
+            } else {
+                tree.texts[i] = text(element);
+            }
+        }
+        return tree;
+    }
+
+    private static boolean isLeafOfPattern(Node element) {
+        return QVAR.equals(element.getNodeName()) || element.getLocalName() != null
+                && XMLHelper.ANNOTATION_XML_PATTERN.matcher(element.getLocalName()).matches();
+    }
+
+    /**
+     * Pattern trees are only used during one generation, so their names are not interned; String.intern is the most
+     * expensive part of the copy.
+     */
+    private static String intern(String name, boolean pattern) {
+        return name == null || pattern ? name : name.intern();
+    }
+
+    /**
+     * @return the text of the qvar or its name attribute
+     */
+    static String qvarName(Node qvar) {
+        final String name = qvar.getTextContent();
+        if (name.isEmpty() && qvar.getAttributes().getNamedItem("name") != null) {
+            return qvar.getAttributes().getNamedItem("name").getTextContent();
+        }
+        return name;
+    }
+
+    /**
+     * The text of an element as the generator sees it. Split text, e.g. around a comment or a CDATA section, is
+     * joined, so every consumer of pattern texts should use this method.
+     *
+     * @return the concatenated trimmed text and CDATA children or null if there are none
+     */
+    static String text(Node element) {
+        String text = null;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                final String trimmed = child.getNodeValue().trim();
+                if (!trimmed.isEmpty()) {
+                    text = text == null ? trimmed : text + trimmed;
+                }
+            }
+        }
+        return text;
+    }
+
+    /**
+     * @return number of elements
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return qualified name, e.g. m:apply
+     */
+    public String getName(int element) {
+        return names[element];
+    }
+
+    public String getLocalName(int element) {
+        return localNames[element];
+    }
+
+    public String getNamespaceURI(int element) {
+        return namespaces[element];
+    }
+
+    /**
+     * @return the trimmed text, the qvar name for qvars, or null if the element has no text
+     */
+    public String getText(int element) {
+        return texts[element];
+    }
+
+    public boolean isQvar(int element) {
+        return (flags[element] & IS_QVAR) != 0;
+    }
+
+    /**
+     * @return true if the element had any child nodes in the DOM, including whitespace
+     */
+    public boolean hasChildNodes(int element) {
+        return (flags[element] & HAS_CHILD_NODES) != 0;
+    }
+
+    /**
+     * @return index of the first element child; only meaningful if the child count is positive
+     */
+    public int getFirstChild(int element) {
+        return firstChild[element];
+    }
+
+    public int getChildCount(int element) {
+        return childCount[element];
+    }
+
+    /**
+     * Converts the tree into a new namespace aware document.
+     *
+     * @return a document with the root of the tree as document element
+     */
+    public Document toDocument() {
+        final Document document;
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().newDocument();
+        } catch (final ParserConfigurationException e) {
+            throw new IllegalStateException("Cannot create document", e);
+        }
+        document.appendChild(toElement(document, 0));
+        return document;
+    }
+
+    private Element toElement(Document document, int element) {
+        final Element result = namespaces[element] == null
+                ? document.createElement(names[element])
+                : document.createElementNS(namespaces[element], names[element]);
+        if (texts[element] != null) {
+            result.appendChild(document.createTextNode(texts[element]));
+        } else if (childCount[element] == 0 && hasChildNodes(element)) {
+            // keeps hasChildNodes(), which the generator distinguishes
+            result.appendChild(document.createTextNode(""));
+        }
+        for (int i = 0; i < childCount[element]; i++) {
+            result.appendChild(toElement(document, firstChild[element] + i));
+        }
+        return result;
+    }
+}
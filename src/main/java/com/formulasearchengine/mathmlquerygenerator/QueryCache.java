@@ -0,0 +1,79 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Bounded cache for generated XQuery strings.
+ * The cache is keyed by {@link QueryCacheKey}, i.e. the canonical structure of the main element together with all
+ * generator settings that influence the output. Entries are evicted in LRU order once the total size of the cached
+ * query strings exceeds the configured maximum weight.
+ * Instances are thread-safe and may be shared between several generators.
+ */
+public class QueryCache {
+    /**
+     * Default maximum weight, 64 MiB of generated query strings.
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 64L * 1024 * 1024;
+
+    private final Cache<QueryCacheKey, String> cache;
+
+    public QueryCache() {
+        this(DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * @param maximumWeight maximum size of all cached query strings in bytes (two bytes per char)
+     */
+    public QueryCache(long maximumWeight) {
+        // a single segment keeps the LRU order and the weight limit global; reads do not lock
+        cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maximumWeight)
+                .weigher(new Weigher<QueryCacheKey, String>() {
+                    @Override
+                    public int weigh(QueryCacheKey key, String query) {
+                        return 2 * query.length();
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the cached query or null if the key is not cached
+     */
+    public String get(QueryCacheKey key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(QueryCacheKey key, String query) {
+        cache.put(key, query);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
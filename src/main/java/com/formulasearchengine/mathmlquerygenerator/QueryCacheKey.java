@@ -0,0 +1,151 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache key for {@link QueryCache}.
+ * The key consists of a canonical serialization of the main element subtree and the {@link GeneratorConfig}.
+ * The serialization only contains what the generator looks at: local names of elements, the text of every element as
+ * returned by {@link PatternTree#text(Node)}, qvars and whether an element has child nodes at all. Qvar names are
+ * replaced by their index of first occurrence, unless the qvar map is requested, because the qvar map contains the
+ * original names.
+ */
+public final class QueryCacheKey {
+    private final String structure;
+    private final GeneratorConfig config;
+    private final int hash;
+
+    public QueryCacheKey(Node mainElement, GeneratorConfig config) {
+        this.structure = canonicalize(mainElement, !config.isAddQvarMap());
+        this.config = config;
+        this.hash = 31 * structure.hashCode() + config.hashCode();
+    }
+
+    /**
+     * Same key as for the DOM element the tree was copied from, built without accessing the DOM.
+     *
+     * @param mainElement the main element as root of the tree, e.g. {@code PatternTree.of(mainElement)}
+     */
+    QueryCacheKey(PatternTree mainElement, GeneratorConfig config) {
+        final StringBuilder sb = new StringBuilder();
+        appendCanonical(sb, mainElement, 0, config.isAddQvarMap() ? null : new HashMap<String, Integer>());
+        this.structure = sb.toString();
+        this.config = config;
+        this.hash = 31 * structure.hashCode() + config.hashCode();
+    }
+
+    /**
+     * Serializes the given subtree into its canonical form.
+     *
+     * @param mainElement    the main element (parent of the query root)
+     * @param normalizeQvars if true qvar names are replaced by the index of their first occurrence
+     * @return the canonical form
+     */
+    public static String canonicalize(Node mainElement, boolean normalizeQvars) {
+        final StringBuilder sb = new StringBuilder();
+        appendCanonical(sb, mainElement, normalizeQvars ? new HashMap<String, Integer>() : null);
+        return sb.toString();
+    }
+
+    private static void appendCanonical(StringBuilder sb, Node node, Map<String, Integer> qvarIndices) {
+        // quoted once for all text children, since 'a''b' would also be the quoted form of a'b
+        final String text = PatternTree.text(node);
+        if (text != null) {
+            sb.append('\'').append(text.replace("'", "''")).append('\'');
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                if ("mws:qvar".equals(child.getNodeName())) {
+                    sb.append('?').append(qvarName(child, qvarIndices)).append('?');
+                } else if (child.getLocalName() != null
+                        && XMLHelper.ANNOTATION_XML_PATTERN.matcher(child.getLocalName()).matches()) {
+                    sb.append("<#>");
+                } else {
+                    sb.append('<').append(child.getLocalName());
+                    if (child.hasChildNodes()) {
+                        appendCanonical(sb, child, qvarIndices);
+                        sb.append('>');
+                    } else {
+                        sb.append("/>");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tree version of {@link #appendCanonical(StringBuilder, Node, Map)}, which must produce the same string.
+     */
+    private static void appendCanonical(StringBuilder sb, PatternTree tree, int element,
+                                        Map<String, Integer> qvarIndices) {
+        final String text = tree.getText(element);
+        if (text != null) {
+            sb.append('\'').append(text.replace("'", "''")).append('\'');
+        }
+        for (int i = 0; i < tree.getChildCount(element); i++) {
+            final int child = tree.getFirstChild(element) + i;
+            if (tree.isQvar(child)) {
+                sb.append('?').append(qvarName(tree.getText(child), qvarIndices)).append('?');
+            } else if (tree.getLocalName(child) != null
+                    && XMLHelper.ANNOTATION_XML_PATTERN.matcher(tree.getLocalName(child)).matches()) {
+                sb.append("<#>");
+            } else {
+                sb.append('<').append(tree.getLocalName(child));
+                if (tree.hasChildNodes(child)) {
+                    appendCanonical(sb, tree, child, qvarIndices);
+                    sb.append('>');
+                } else {
+                    sb.append("/>");
+                }
+            }
+        }
+    }
+
+    private static String qvarName(Node qvar, Map<String, Integer> qvarIndices) {
+        String name = qvar.getTextContent();
+        if (name.isEmpty()) {
+            name = qvar.getAttributes().getNamedItem("name").getTextContent();
+        }
+        return qvarName(name, qvarIndices);
+    }
+
+    private static String qvarName(String name, Map<String, Integer> qvarIndices) {
+        if (qvarIndices == null) {
+            return name.replace("?", "??");
+        }
+        Integer index = qvarIndices.get(name);
+        if (index == null) {
+            index = qvarIndices.size();
+            qvarIndices.put(name, index);
+        }
+        return index.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QueryCacheKey)) {
+            return false;
+        }
+        final QueryCacheKey other = (QueryCacheKey) o;
+        return hash == other.hash
+                && structure.equals(other.structure)
+                && config.equals(other.config);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return structure;
+    }
+}
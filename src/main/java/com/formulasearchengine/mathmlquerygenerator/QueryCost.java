@@ -0,0 +1,100 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Estimated evaluation cost of a generated query.
+ * The cost of testing one candidate node is the number of predicates (name, text and length tests) plus weighted terms
+ * for the nesting depth, which each adds a step below the candidate, and for the qvar comparisons, which compare whole
+ * subtrees by string value. The root apply search multiplies the cost, since it visits every apply element of a
+ * formula and, in the recursive form, calls a user-defined function per node.
+ * If the configuration has {@link SelectivityStatistics}, the score is multiplied by the number of candidates, i.e.
+ * the corpus frequency of the loop element (the anchor, the root or apply); otherwise the score is the cost per
+ * candidate. Budgets are therefore only comparable for the same kind of configuration.
+ */
+public final class QueryCost {
+    static final double DEPTH_WEIGHT = 2;
+    static final double QVAR_WEIGHT = 4;
+    static final double FLAT_ROOT_APPLY_FACTOR = 2;
+    static final double RECURSIVE_FACTOR = 4;
+
+    private final int predicateCount;
+    private final int maxDepth;
+    private final int qvarComparisons;
+    private final boolean recursive;
+    private final long fanOut;
+    private final double score;
+
+    QueryCost(int predicateCount, int maxDepth, int qvarComparisons, boolean findRootApply, boolean flatRootApply,
+              long fanOut) {
+        this.predicateCount = predicateCount;
+        this.maxDepth = maxDepth;
+        this.qvarComparisons = qvarComparisons;
+        this.recursive = findRootApply && !flatRootApply;
+        this.fanOut = fanOut;
+        double perCandidate = predicateCount + DEPTH_WEIGHT * maxDepth + QVAR_WEIGHT * qvarComparisons;
+        if (findRootApply) {
+            perCandidate *= flatRootApply ? FLAT_ROOT_APPLY_FACTOR : RECURSIVE_FACTOR;
+        }
+        this.score = fanOut < 0 ? perCandidate : perCandidate * Math.max(1, fanOut);
+    }
+
+    /**
+     * Estimates the cost of the query that is rendered from the context with the given configuration.
+     *
+     * @param rootName local name of the query root
+     */
+    static QueryCost estimate(GenerationContext context, GeneratorConfig config, String rootName) {
+        long fanOut = -1;
+        final SelectivityStatistics statistics = config.getSelectivityStatistics();
+        if (statistics != null) {
+            if (config.isFindRootApply()) {
+                fanOut = statistics.getElementCount("apply");
+            } else {
+                fanOut = statistics.getElementCount(rootName);
+                if (context.getAnchorPath() != null && context.getAnchorFrequency() < fanOut) {
+                    fanOut = context.getAnchorFrequency();
+                }
+            }
+        }
+        return new QueryCost(context.getTestCount() + context.getLengthConstraintCount(), context.getMaxDepth(),
+                context.getQvarComparisonCount(), config.isFindRootApply(), config.isFlatRootApply(), fanOut);
+    }
+
+    /**
+     * @return number of name, text and length tests per candidate
+     */
+    public int getPredicateCount() {
+        return predicateCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getQvarComparisons() {
+        return qvarComparisons;
+    }
+
+    /**
+     * @return true if the root apply is searched with the recursive local:compareApply function
+     */
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * @return expected number of candidate nodes in the corpus or -1 if there are no statistics
+     */
+    public long getFanOut() {
+        return fanOut;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCost{score=" + score + ", predicateCount=" + predicateCount + ", maxDepth=" + maxDepth
+                + ", qvarComparisons=" + qvarComparisons + ", recursive=" + recursive + ", fanOut=" + fanOut + "}";
+    }
+}
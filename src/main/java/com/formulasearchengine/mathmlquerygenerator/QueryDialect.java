@@ -0,0 +1,71 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Renders the engine specific parts of the generated queries.
+ * A dialect provides the defaults for the namespace declaration, the path to the formulae and the return format, and
+ * decides how element names and texts are tested. Wildcard steps like {@code *:apply} and {@code name()} comparisons
+ * work everywhere, but hide the element names from the index selection of most engines; namespace-qualified steps
+ * and plain {@code text() =} comparisons can be answered from the indexes.
+ * <p>
+ * The generator builds the structure of the query (loops, positions, length and qvar constraints) and asks the
+ * dialect for the single tests. The tests that are rendered for every pattern element are appended to the buffer of
+ * the query instead of being returned as strings. Implementations must be immutable and should implement equals and
+ * hashCode, since the dialect is part of {@link GeneratorConfig} and therefore of the query cache key.
+ *
+ * @see DefaultDialect
+ * @see Db2Dialect
+ * @see BaseXDialect
+ * @see XQuery30Dialect
+ */
+public interface QueryDialect {
+    /**
+     * @return the default namespace declaration, may be empty
+     */
+    String getNamespace();
+
+    /**
+     * @return the default path to the formulae, bound to $m
+     */
+    String getPathToRoot();
+
+    /**
+     * @return the default return format
+     */
+    String getReturnFormat();
+
+    /**
+     * @param localName local name of a MathML element
+     * @return a name test for an axis step, e.g. {@code *:apply} or {@code m:apply}
+     */
+    String elementTest(String localName);
+
+    /**
+     * Appends a predicate on the child at the given position, relative to its parent.
+     *
+     * @param out       the buffer of the query
+     * @param position  1-based position of the child element
+     * @param localName local name the child must have
+     */
+    void appendChildNameTest(StringBuilder out, int position, String localName);
+
+    /**
+     * @param variable  a variable bound to an element, e.g. {@code $x}
+     * @param localName local name the element must have
+     * @return a boolean expression that tests the name of the element
+     */
+    String selfNameTest(String variable, String localName);
+
+    /**
+     * Appends a predicate that tests the text of the context element.
+     *
+     * @param out  the buffer of the query
+     * @param text the trimmed text of a pattern element
+     */
+    void appendTextTest(StringBuilder out, String text);
+
+    /**
+     * @return true if the engine accepts map constructors ({@code map {"x" : ...}}, XQuery 3.1 or an engine
+     * extension); otherwise the qvar map function is not rendered, even if addQvarMap is set
+     */
+    boolean supportsMaps();
+}
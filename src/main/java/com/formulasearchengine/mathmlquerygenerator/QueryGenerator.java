@@ -0,0 +1,571 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe counterpart of {@link XQueryGenerator}.
+ * The settings are fixed at construction time by an immutable {@link GeneratorConfig}, and all traversal state
+ * lives in a per-call {@link GenerationContext}. Therefore one configured instance can be shared by all threads.
+ * Note that a DOM tree itself must not be traversed by several threads at the same time.
+ */
+public final class QueryGenerator {
+    /**
+     * Upper bound of the fixed text of the formats, e.g. the local:compareApply declaration.
+     */
+    private static final int FORMAT_OVERHEAD = 512;
+    private final GeneratorConfig config;
+    private final QueryCache queryCache;
+    private final GenerationListener listener;
+
+    public QueryGenerator(GeneratorConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config     the settings used for all generated queries
+     * @param queryCache an optional (shared) cache or null
+     */
+    public QueryGenerator(GeneratorConfig config, QueryCache queryCache) {
+        this(config, queryCache, null);
+    }
+
+    /**
+     * @param config     the settings used for all generated queries
+     * @param queryCache an optional (shared) cache or null
+     * @param listener   an optional thread-safe listener that is informed about every generation or null
+     */
+    public QueryGenerator(GeneratorConfig config, QueryCache queryCache, GenerationListener listener) {
+        this.config = config;
+        this.queryCache = queryCache;
+        this.listener = listener;
+    }
+
+    public GeneratorConfig getConfig() {
+        return config;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public GenerationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Generates the XQuery for the main element of the given document.
+     *
+     * @param xml document that contains a MathWebSearch expression, an annotation-xml or a semantics element
+     * @return XQuery as string or null if the document contains no math
+     */
+    public String generate(Document xml) {
+        return generate(XMLHelper.getMainElement(xml));
+    }
+
+    /**
+     * Generates the XQuery for the given main element.
+     *
+     * @param mainElement the parent of the query root as returned by {@link XMLHelper#getMainElement(Document)}
+     * @return XQuery as string or null if mainElement is null
+     */
+    public String generate(Node mainElement) {
+        if (mainElement == null) {
+            return null;
+        }
+        if (listener != null) {
+            return generateObserved(mainElement, null, 0);
+        }
+        if (queryCache == null) {
+            return build(mainElement, null, 0);
+        }
+        final QueryCacheKey key = new QueryCacheKey(mainElement, config);
+        String query = queryCache.get(key);
+        if (query == null) {
+            query = build(mainElement, null, 0);
+            queryCache.put(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * Generates the XQuery for a pattern tree whose root is the main element. The query cache is not used, since it
+     * is keyed by DOM trees; a listener is called with a null main element.
+     *
+     * @param pattern the pattern, e.g. {@code PatternTree.of(mainElement)}
+     * @return XQuery as string
+     */
+    public String generate(PatternTree pattern) {
+        if (listener != null) {
+            return generateObserved(null, pattern, 0);
+        }
+        return build(null, pattern, 0);
+    }
+
+    /**
+     * Generates the XQuery for the given main element and estimates its cost. The query cache is not used.
+     * If the configuration has an {@link AdmissionPolicy} and the cost exceeds its budget, the fallbacks of the
+     * policy are applied in order until the cost fits.
+     *
+     * @param mainElement the parent of the query root
+     * @return the query, its cost and the configuration it was rendered with
+     * @throws QueryRejectedException if the cost exceeds the budget even after all fallbacks
+     */
+    public GeneratedQuery generateWithCost(Node mainElement) {
+        return generateWithCost(mainElement, null, 0);
+    }
+
+    /**
+     * Same as {@link #generateWithCost(Node)} for a pattern tree whose root is the main element.
+     */
+    public GeneratedQuery generateWithCost(PatternTree pattern) {
+        return generateWithCost(null, pattern, 0);
+    }
+
+    /**
+     * The pattern is given either as DOM main element or, if tree is not null, as element of the tree.
+     */
+    private GeneratedQuery generateWithCost(Node mainElement, PatternTree tree, int treeMainElement) {
+        final CompiledPattern pattern = compile(mainElement, tree, treeMainElement);
+        final String rootName = pattern.getRootName();
+        final AdmissionPolicy policy = config.getAdmissionPolicy();
+        GeneratorConfig effective = config;
+        GenerationContext context = pattern.getContext();
+        QueryCost cost = QueryCost.estimate(context, effective, rootName);
+        if (policy != null && !policy.admits(cost)) {
+            for (final AdmissionPolicy.Fallback fallback : policy.getFallbacks()) {
+                final GeneratorConfig cheaper = fallback.apply(effective);
+                if (cheaper.equals(effective)) {
+                    continue;
+                }
+                effective = cheaper;
+                context = newContext(effective, mainElement, tree, treeMainElement);
+                cost = QueryCost.estimate(context, effective, rootName);
+                if (policy.admits(cost)) {
+                    break;
+                }
+            }
+            if (!policy.admits(cost)) {
+                throw new QueryRejectedException(cost, policy);
+            }
+        }
+        final QueryGenerator renderer = effective == config ? this : new QueryGenerator(effective);
+        return new GeneratedQuery(renderer.render(context, rootName), cost, effective, context);
+    }
+
+    private String build(Node mainElement, PatternTree tree, int treeMainElement) {
+        if (config.getAdmissionPolicy() == null) {
+            return render(compile(mainElement, tree, treeMainElement));
+        }
+        return generateWithCost(mainElement, tree, treeMainElement).getQuery();
+    }
+
+    /**
+     * Same as {@link #generate(Node)}, but measures the generation and informs the listener.
+     * Only DOM elements are looked up in the cache; a tree is used if it is not null.
+     */
+    private String generateObserved(Node mainElement, PatternTree tree, int treeMainElement) {
+        final long start = System.nanoTime();
+        QueryCacheKey key = null;
+        if (queryCache != null && mainElement != null) {
+            key = new QueryCacheKey(mainElement, config);
+            final String cached = queryCache.get(key);
+            if (cached != null) {
+                listener.generated(mainElement, newCacheHitEvent(System.nanoTime() - start, cached));
+                return cached;
+            }
+        }
+        final GeneratedQuery generated = generateUnobserved(mainElement, tree, treeMainElement);
+        if (key != null) {
+            queryCache.put(key, generated.getQuery());
+        }
+        listener.generated(mainElement, newEvent(System.nanoTime() - start, generated));
+        return generated.getQuery();
+    }
+
+    /**
+     * Generates the query for a tree without using the cache or calling the listener, so that the caller can do both
+     * itself, e.g. for the DOM element the tree was copied from.
+     *
+     * @return the query and its context; the cost is null if the configuration has no admission policy
+     */
+    GeneratedQuery generateUnobserved(PatternTree pattern) {
+        return generateUnobserved(null, pattern, 0);
+    }
+
+    private GeneratedQuery generateUnobserved(Node mainElement, PatternTree tree, int treeMainElement) {
+        if (config.getAdmissionPolicy() == null) {
+            final CompiledPattern compiled = compile(mainElement, tree, treeMainElement);
+            return new GeneratedQuery(render(compiled.getContext(), compiled.getRootName()), null, config,
+                    compiled.getContext());
+        }
+        return generateWithCost(mainElement, tree, treeMainElement);
+    }
+
+    /**
+     * @return the event of a generation that was not answered from the cache
+     */
+    static GenerationEvent newEvent(long wallTimeNanos, GeneratedQuery generated) {
+        final GenerationContext context = generated.getContext();
+        return new GenerationEvent(wallTimeNanos, false, context.getNodeCount(), context.getMaxDepth(),
+                context.getQvar().size(), context.getQvarComparisonCount(), context.getLengthConstraintCount(),
+                generated.getQuery().length());
+    }
+
+    /**
+     * @return the event of a query that was taken from the cache
+     */
+    static GenerationEvent newCacheHitEvent(long wallTimeNanos, String query) {
+        return new GenerationEvent(wallTimeNanos, true, 0, 0, 0, 0, 0, query.length());
+    }
+
+    /**
+     * Walks the main element once and keeps everything that the rendering needs, so that the pattern can be rendered
+     * with other namespaces, paths, return formats and layouts without accessing the DOM again.
+     *
+     * @param mainElement the parent of the query root
+     * @return the compiled pattern or null if mainElement is null
+     */
+    public CompiledPattern compile(Node mainElement) {
+        if (mainElement == null) {
+            return null;
+        }
+        return compile(mainElement, null, 0);
+    }
+
+    /**
+     * Same as {@link #compile(Node)} for a pattern tree whose root is the main element.
+     */
+    public CompiledPattern compile(PatternTree pattern) {
+        return compile(null, pattern, 0);
+    }
+
+    CompiledPattern compile(PatternTree tree, int mainElement) {
+        return compile(null, tree, mainElement);
+    }
+
+    private CompiledPattern compile(Node mainElement, PatternTree tree, int treeMainElement) {
+        final String rootName;
+        if (tree != null) {
+            rootName = tree.getChildCount(treeMainElement) == 0
+                    ? null : tree.getLocalName(tree.getFirstChild(treeMainElement));
+        } else {
+            final Node root = NonWhitespaceNodeList.getFirstChild(mainElement);
+            rootName = root == null ? null : root.getLocalName();
+        }
+        return new CompiledPattern(newContext(config, mainElement, tree, treeMainElement), rootName, config);
+    }
+
+    /**
+     * Walks the DOM main element in place, or the tree if it is not null.
+     */
+    private static GenerationContext newContext(GeneratorConfig config, Node mainElement, PatternTree tree,
+                                                int treeMainElement) {
+        final GenerationContext context = new GenerationContext(config);
+        return tree == null ? context.generate(mainElement) : context.generate(tree, treeMainElement);
+    }
+
+    /**
+     * Renders a compiled pattern with the namespace, path to root, return format and layout of this generator.
+     * The query cache and the listener are not used.
+     *
+     * @param pattern a pattern compiled with the same dialect, restrictLength, fingerprints and statistics
+     * @return XQuery as string
+     * @throws IllegalArgumentException if the pattern was compiled with other settings
+     * @see CompiledPattern#isCompatible(GeneratorConfig)
+     */
+    public String render(CompiledPattern pattern) {
+        if (!pattern.isCompatible(config)) {
+            throw new IllegalArgumentException("The pattern was compiled with incompatible settings");
+        }
+        return render(pattern.getContext(), pattern.getRootName());
+    }
+
+    String render(GenerationContext context, String rootName) {
+        if (config.isFindRootApply()) {
+            return config.isFlatRootApply() ? getFlatRootApplyString(context) : getRecursiveString(context);
+        } else {
+            return getDefaultString(context, rootName);
+        }
+    }
+
+    /**
+     * Builds the XQuery as a string. Uses the default format of looping through all nodes named like the root.
+     *
+     * @return XQuery as string
+     */
+    String getDefaultString(GenerationContext context, String rootName) {
+        final SelectivityStatistics statistics = config.getSelectivityStatistics();
+        if (statistics != null && context.getAnchorPath() != null
+                && context.getAnchorFrequency() < statistics.getElementCount(rootName)) {
+            return getAnchoredString(context, rootName);
+        }
+        final String lengthConstraint = context.getLengthConstraint();
+        final String qvarConstraint = context.getQvarConstraint();
+        final StringBuilder outBuilder = newOutBuilder(context);
+        appendHeader(outBuilder, context);
+        final int bodyStart = outBuilder.length();
+        appendRootLoop(outBuilder);
+        outBuilder.append("for $x in $m//").append(config.getDialect().elementTest(rootName))
+                .append("\n").append(context.getExactMatchXQuery());
+        if (!lengthConstraint.isEmpty() || !qvarConstraint.isEmpty()) {
+            outBuilder.append("\n").append("where").append("\n");
+            if (lengthConstraint.isEmpty()) {
+                outBuilder.append(qvarConstraint);
+            } else {
+                outBuilder.append(lengthConstraint)
+                        .append(qvarConstraint.isEmpty() ? "" : "\n and ").append(qvarConstraint);
+            }
+        }
+        appendOrderBy(outBuilder);
+        outBuilder.append("\n\n").append("return").append("\n").append(config.getReturnFormat());
+        return appendPage(outBuilder, bodyStart).toString();
+    }
+
+    /**
+     * Builds the XQuery as a string. Loops through the occurrences of the rarest element of the pattern and navigates
+     * up to the candidate root $x. The anchor has to be at its position below $x, so every hit is returned once;
+     * the hits are in the document order of their anchors.
+     *
+     * @return XQuery as string
+     */
+    String getAnchoredString(GenerationContext context, String rootName) {
+        final String anchorPath = context.getAnchorPath();
+        final StringBuilder outBuilder = newOutBuilder(context);
+        appendHeader(outBuilder, context);
+        final int bodyStart = outBuilder.length();
+        appendRootLoop(outBuilder);
+        outBuilder.append("for $a in $m//").append(config.getDialect().elementTest(context.getAnchorName()));
+        if (context.getAnchorText() != null) {
+            config.getDialect().appendTextTest(outBuilder.append("["), context.getAnchorText());
+            outBuilder.append("]");
+        }
+        outBuilder.append("\nlet $x := $a");
+        for (int i = anchorPath.indexOf('/'); i >= 0; i = anchorPath.indexOf('/', i + 1)) {
+            outBuilder.append("/..");
+        }
+        outBuilder.append("\nwhere\n$x").append(anchorPath).append(" is $a")
+                .append("\n and local-name($x) = '").append(rootName).append("'")
+                .append("\n and exists($x/ancestor::node() intersect $m)");
+        if (!context.getExactMatchXQuery().isEmpty()) {
+            outBuilder.append("\n and exists($x").append(context.getExactMatchXQuery()).append(")");
+        }
+        for (final String constraint : new String[]{context.getLengthConstraint(), context.getQvarConstraint()}) {
+            if (!constraint.isEmpty()) {
+                outBuilder.append("\n and ").append(constraint);
+            }
+        }
+        appendOrderBy(outBuilder);
+        outBuilder.append("\n\n").append("return").append("\n").append(config.getReturnFormat());
+        return appendPage(outBuilder, bodyStart).toString();
+    }
+
+    /**
+     * Builds the XQuery as a string. Uses the recursive format of recursively looping through the documents.
+     * This enables the $depth and the $rootApply variables. With an order, the flat form is returned instead, see
+     * {@link GeneratorConfig.Builder#setOrderBy(String)}.
+     *
+     * @return XQuery as string
+     */
+    String getRecursiveString(GenerationContext context) {
+        if (!config.getOrderBy().isEmpty()) {
+            return getFlatRootApplyString(context);
+        }
+        final String lengthConstraint = context.getLengthConstraint();
+        final String qvarConstraint = context.getQvarConstraint();
+        final StringBuilder outBuilder = newOutBuilder(context);
+        appendHeader(outBuilder, context);
+        appendCompareApplyRecursion(outBuilder);
+        outBuilder.append("if (").append(config.getDialect().selfNameTest("$x", "apply")).append("\n")
+                .append(" and $x").append(context.getExactMatchXQuery()).append("\n");
+        if (!lengthConstraint.isEmpty()) {
+            outBuilder.append(" and ").append(lengthConstraint).append("\n");
+        }
+        if (!qvarConstraint.isEmpty()) {
+            outBuilder.append(" and ").append(qvarConstraint).append("\n");
+        }
+        outBuilder.append(" ) then\n")
+                .append(config.getReturnFormat()).append("\n")
+                .append("else ()\n")
+                .append(")};\n\n");
+        final int bodyStart = outBuilder.length();
+        outBuilder.append("for $m in ").append(config.getPathToRoot()).append(" return\n")
+                .append("local:compareApply((), 0, $m)");
+        return appendPage(outBuilder, bodyStart).toString();
+    }
+
+    /**
+     * Builds the XQuery as a string. Returns the same hits as {@link #getRecursiveString(GenerationContext)}
+     * without a user-defined function: $m and every apply element below it is a candidate, $rootApply is its
+     * outermost apply ancestor-or-self below $m and $depth the number of steps from $rootApply down to $x.
+     * The hits are returned in document order instead of post-order. The apply elements are selected with the
+     * dialect's {@link QueryDialect#elementTest(String)} rather than its {@link QueryDialect#selfNameTest(String,
+     * String)}, see {@link GeneratorConfig.Builder#setFlatRootApply(boolean)} for the consequences.
+     *
+     * @return XQuery as string
+     */
+    String getFlatRootApplyString(GenerationContext context) {
+        final StringBuilder outBuilder = newOutBuilder(context);
+        appendHeader(outBuilder, context);
+        final int bodyStart = outBuilder.length();
+        appendFlatRootApplyLoop(outBuilder, config.getOrderBy().isEmpty());
+        outBuilder.append("where\n").append(getBatchCondition(context));
+        appendOrderBy(outBuilder);
+        outBuilder.append("\n\n").append("return").append("\n").append(config.getReturnFormat());
+        return appendPage(outBuilder, bodyStart).toString();
+    }
+
+    private void appendCompareApplyRecursion(StringBuilder outBuilder) {
+        final String isApply = config.getDialect().selfNameTest("$child", "apply");
+        outBuilder.append("\ndeclare function local:compareApply($rootApply, $depth, $x ) {\n")
+                .append("(for $child in $x/* return local:compareApply(\n")
+                .append("if (empty($rootApply) and ").append(isApply).append(") then $child else $rootApply,\n")
+                .append("if (empty($rootApply) and ").append(isApply).append(") then 0 else $depth+1, $child),\n");
+    }
+
+    /**
+     * @param nested true to return a FLWOR expression per $m, false to bind $m and $x in the same FLWOR expression
+     */
+    private void appendFlatRootApplyLoop(StringBuilder outBuilder, boolean nested) {
+        final String apply = config.getDialect().elementTest("apply");
+        outBuilder.append("for $m in ").append(config.getPathToRoot()).append(nested ? " return\n" : "\n")
+                .append("for $x in $m/descendant-or-self::").append(apply).append("\n")
+                .append("let $rootApply := ($x/ancestor-or-self::").append(apply).append("[. >> $m])[1]\n")
+                // like local:compareApply((), 0, $m), $m itself is a candidate without a root apply and at depth 0
+                .append("let $depth := count($x/ancestor::*) - count(($rootApply, $x)[1]/ancestor::*)\n");
+    }
+
+    /**
+     * Generates a single XQuery that checks all patterns in one scan of the corpus.
+     * Every candidate node is only tested against the patterns whose root has the same local name
+     * (with findRootApply, every apply node against all patterns). Each hit is wrapped in a
+     * {@code <hit num="..." formulaID="...">} element around the configured return format.
+     * The qvar map is not supported in batch queries and therefore never added.
+     *
+     * @param patterns the patterns, e.g. from {@link NtcirTopicReader#extractPatterns()}
+     * @return XQuery as string
+     */
+    public String generateBatch(List<NtcirPattern> patterns) {
+        final Map<String, StringBuilder> groups = new LinkedHashMap<>();
+        for (final NtcirPattern pattern : patterns) {
+            final PatternTree tree = pattern.getPatternTree();
+            final CompiledPattern compiled = compile(tree, tree.getFirstChild(0));
+            final GenerationContext context = compiled.getContext();
+            final String group = config.isFindRootApply() ? "apply" : compiled.getRootName();
+            StringBuilder tests = groups.get(group);
+            if (tests == null) {
+                tests = new StringBuilder();
+                groups.put(group, tests);
+            } else {
+                tests.append(",\n");
+            }
+            tests.append("if (").append(getBatchCondition(context)).append(") then <hit xmlns=\"\" num=\"")
+                    .append(escapeAttribute(pattern.getNum())).append("\" formulaID=\"")
+                    .append(escapeAttribute(pattern.getFormulaID())).append("\">{")
+                    .append(config.getReturnFormat()).append("}</hit> else ()");
+        }
+        final StringBuilder outBuilder = new StringBuilder();
+        if (!config.getNamespace().isEmpty()) {
+            outBuilder.append(config.getNamespace()).append("\n");
+        }
+        if (config.isFindRootApply() && config.isFlatRootApply()) {
+            appendFlatRootApplyLoop(outBuilder, true);
+            outBuilder.append("return (\n").append(groups.isEmpty() ? "" : groups.get("apply")).append("\n)");
+            return outBuilder.toString();
+        }
+        if (config.isFindRootApply()) {
+            appendCompareApplyRecursion(outBuilder);
+            outBuilder.append("if (").append(config.getDialect().selfNameTest("$x", "apply")).append(") then (\n")
+                    .append(groups.isEmpty() ? "" : groups.get("apply")).append("\n")
+                    .append(") else ()\n")
+                    .append(")};\n\n")
+                    .append("for $m in ").append(config.getPathToRoot()).append(" return\n")
+                    .append("local:compareApply((), 0, $m)");
+            return outBuilder.toString();
+        }
+        outBuilder.append("for $m in ").append(config.getPathToRoot()).append(" return\n")
+                .append("for $x in $m//*\n")
+                .append("let $name := local-name($x)\n")
+                .append("return\n");
+        for (final Map.Entry<String, StringBuilder> group : groups.entrySet()) {
+            outBuilder.append("if ($name = '").append(group.getKey()).append("') then (\n")
+                    .append(group.getValue()).append("\n) else ");
+        }
+        outBuilder.append("()");
+        return outBuilder.toString();
+    }
+
+    private static String getBatchCondition(GenerationContext context) {
+        final StringBuilder condition = new StringBuilder();
+        if (!context.getExactMatchXQuery().isEmpty()) {
+            condition.append("$x").append(context.getExactMatchXQuery());
+        }
+        for (final String constraint : new String[]{context.getLengthConstraint(), context.getQvarConstraint()}) {
+            if (!constraint.isEmpty()) {
+                condition.append(condition.length() == 0 ? "" : "\n and ").append(constraint);
+            }
+        }
+        return condition.length() == 0 ? "fn:true()" : condition.toString();
+    }
+
+    private static String escapeAttribute(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;")
+                .replace("{", "{{").replace("}", "}}");
+    }
+
+    /**
+     * @return a buffer that holds the query without resizing
+     */
+    private StringBuilder newOutBuilder(GenerationContext context) {
+        return new StringBuilder(FORMAT_OVERHEAD + config.getNamespace().length() + config.getPathToRoot().length()
+                + config.getReturnFormat().length() + context.getQvarMapVariable().length()
+                + 2 * context.getExactMatchXQuery().length() + context.getLengthConstraint().length()
+                + context.getQvarConstraint().length());
+    }
+
+    /**
+     * Binds $m to the formulae. With an order, the loop over $m and the following loop over $x form one FLWOR
+     * expression, so that the order by clause sorts all hits and not only those of one formula.
+     */
+    private void appendRootLoop(StringBuilder outBuilder) {
+        outBuilder.append("for $m in ").append(config.getPathToRoot())
+                .append(config.getOrderBy().isEmpty() ? " return\n" : "\n");
+    }
+
+    private void appendOrderBy(StringBuilder outBuilder) {
+        if (!config.getOrderBy().isEmpty()) {
+            outBuilder.append("\norder by ").append(config.getOrderBy());
+        }
+    }
+
+    /**
+     * Wraps the query body, which starts at bodyStart after the prolog, in a subsequence call if the hits are paged.
+     * Engines evaluate the body lazily and stop after the last requested hit.
+     */
+    private StringBuilder appendPage(StringBuilder outBuilder, int bodyStart) {
+        if (config.getLimit() == 0 && config.getOffset() == 0) {
+            return outBuilder;
+        }
+        // XQuery positions start at 1; long arithmetic keeps the largest offset from overflowing
+        outBuilder.insert(bodyStart, "subsequence((\n").append("\n), ").append(config.getOffset() + 1L);
+        if (config.getLimit() > 0) {
+            outBuilder.append(", ").append(config.getLimit());
+        }
+        return outBuilder.append(")");
+    }
+
+    private void appendHeader(StringBuilder outBuilder, GenerationContext context) {
+        if (!config.getNamespace().isEmpty()) {
+            outBuilder.append(config.getNamespace()).append("\n");
+        }
+        if (!context.getQvarMapVariable().isEmpty() && config.isAddQvarMap() && config.getDialect().supportsMaps()) {
+            outBuilder.append(context.getQvarMapVariable()).append("\n");
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Thrown if the cost of a pattern exceeds the budget of the {@link AdmissionPolicy} and no fallback helps.
+ */
+public class QueryRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final transient QueryCost cost;
+
+    public QueryRejectedException(QueryCost cost, AdmissionPolicy policy) {
+        super("Query cost " + cost.getScore() + " exceeds the budget of " + policy.getMaxScore() + ": " + cost);
+        this.cost = cost;
+    }
+
+    /**
+     * @return the cost of the last query that was tried, i.e. with all fallbacks of the policy applied
+     */
+    public QueryCost getCost() {
+        return cost;
+    }
+}
@@ -0,0 +1,379 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP endpoint on the JDK's {@code com.sun.net.httpserver} that converts MathML or MWS queries into XQuery.
+ * <p>
+ * {@code POST /query} takes the XML document as request body and returns the query as text/plain. The generator
+ * settings are given as URL parameters: {@code dialect} (default, xquery30, db2 or basex with {@code database}),
+ * {@code namespace}, {@code pathToRoot}, {@code returnFormat} and the booleans {@code findRootApply},
+ * {@code flatRootApply}, {@code restrictLength}, {@code addQvarMap} and {@code fingerprints}, and {@code limit},
+ * {@code offset} and {@code orderBy} to page the hits. Malformed documents, documents without a main element and
+ * unknown or invalid parameters are answered with 400. {@code GET /metrics} returns the
+ * {@link QueryServiceMetrics} as lines of name and value.
+ * <p>
+ * Requests run on the executor of the service. Each executor thread reuses its {@link DocumentParser} builder, and
+ * the thread-safe {@link QueryGenerator}s are pooled per configuration. Responses are cached twice: by the raw body
+ * and parameters, which skips parsing, and in a {@link QueryCache} by the canonical form of the pattern, which also
+ * matches documents that only differ in whitespace or ids.
+ */
+public class QueryService {
+    public static final String QUERY_PATH = "/query";
+    public static final String METRICS_PATH = "/metrics";
+    /**
+     * Default maximum weight of the response cache, 32 MiB of keys and responses.
+     */
+    public static final long DEFAULT_RESPONSE_CACHE_WEIGHT = 32L * 1024 * 1024;
+    /**
+     * Largest accepted request body in bytes.
+     */
+    public static final int MAX_BODY_LENGTH = 1024 * 1024;
+    private static final int MAX_POOLED_GENERATORS = 256;
+    private static final String TEXT_PLAIN = "text/plain; charset=UTF-8";
+
+    private final InetSocketAddress address;
+    private final QueryServiceMetrics metrics = new QueryServiceMetrics();
+    private final ConcurrentMap<GeneratorConfig, QueryGenerator> generators = new ConcurrentHashMap<>();
+    private ExecutorService executor = null;
+    private boolean ownExecutor = false;
+    private QueryCache queryCache = new QueryCache();
+    private long responseCacheWeight = DEFAULT_RESPONSE_CACHE_WEIGHT;
+    private Cache<String, String> responseCache = null;
+    private HttpServer server = null;
+
+    /**
+     * @param address the address to bind, port 0 selects a free port
+     */
+    public QueryService(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Starts a service on the given port (default 8080) with the given number of threads (default one per processor).
+     * Unless set on the command line, the JVM-wide property {@code sun.net.httpserver.nodelay} is set to true first:
+     * without TCP_NODELAY, headers and body are sent in separate segments and every response waits for the delayed
+     * ACK of the client. Embedders should pass {@code -Dsun.net.httpserver.nodelay=true} themselves, since the
+     * property is read once when the JDK server classes are loaded and applies to every HttpServer of the process.
+     */
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final QueryService service = new QueryService(new InetSocketAddress(port))
+                .setExecutor(Executors.newFixedThreadPool(threads));
+        service.start();
+        System.err.println("Listening on " + service.getAddress());
+    }
+
+    /**
+     * @param executor runs the requests; it is not shut down by {@link #stop(int)}. By default the service starts a
+     *                 fixed pool with one thread per processor.
+     */
+    public QueryService setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @param queryCache cache keyed by the canonical form of the pattern, or null to disable it
+     */
+    public QueryService setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+        return this;
+    }
+
+    /**
+     * @param responseCacheWeight maximum size of the cached raw requests and responses in bytes, 0 to disable the
+     *                            response cache; takes effect on {@link #start()}
+     */
+    public QueryService setResponseCacheWeight(long responseCacheWeight) {
+        this.responseCacheWeight = responseCacheWeight;
+        return this;
+    }
+
+    public QueryServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the bound address, e.g. to find the port after binding port 0
+     */
+    public InetSocketAddress getAddress() {
+        return server == null ? address : server.getAddress();
+    }
+
+    public void start() throws IOException {
+        if (responseCacheWeight > 0) {
+            responseCache = CacheBuilder.newBuilder()
+                    .maximumWeight(responseCacheWeight)
+                    .weigher(new Weigher<String, String>() {
+                        @Override
+                        public int weigh(String key, String response) {
+                            return 2 * (key.length() + response.length());
+                        }
+                    })
+                    .build();
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            ownExecutor = true;
+        }
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext(QUERY_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleQuery(exchange);
+            }
+        });
+        server.createContext(METRICS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, 200, metrics.toString());
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @param delaySeconds time to finish running requests
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        if (ownExecutor) {
+            executor.shutdown();
+            executor = null;
+            ownExecutor = false;
+        }
+    }
+
+    private void handleQuery(HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        int status = 200;
+        boolean cacheHit = false;
+        String response;
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                status = 405;
+                response = "Use POST with the query document as body\n";
+            } else {
+                final String parameters = exchange.getRequestURI().getRawQuery();
+                final byte[] body = readBody(exchange.getRequestBody());
+                // ISO-8859-1 maps every byte to one char, so different bodies never share a key
+                final String key = responseCache == null ? null
+                        : (parameters == null ? "" : parameters) + '\n' + new String(body, StandardCharsets.ISO_8859_1);
+                response = key == null ? null : responseCache.getIfPresent(key);
+                if (response == null) {
+                    response = generate(parameters, body);
+                    if (key != null) {
+                        responseCache.put(key, response);
+                    }
+                } else {
+                    cacheHit = true;
+                }
+            }
+        } catch (final IllegalArgumentException e) {
+            status = e instanceof BodyTooLargeException ? 413 : 400;
+            response = e.getMessage() + "\n";
+        } catch (final RuntimeException e) {
+            status = 500;
+            response = "Cannot generate query: " + e + "\n";
+        }
+        // recorded before sending, so that a client that received the response also sees it in the metrics
+        metrics.record(System.nanoTime() - start, status != 200, cacheHit);
+        send(exchange, status, response);
+    }
+
+    private String generate(String parameters, byte[] body) {
+        final GeneratorConfig config = parseParameters(parameters);
+        QueryGenerator generator = generators.get(config);
+        if (generator == null) {
+            generator = new QueryGenerator(config, queryCache, null);
+            if (generators.size() < MAX_POOLED_GENERATORS) {
+                final QueryGenerator pooled = generators.putIfAbsent(config, generator);
+                if (pooled != null) {
+                    generator = pooled;
+                }
+            }
+        }
+        final Document document;
+        try {
+            document = DocumentParser.parse(new ByteArrayInputStream(body), DocumentParser.Mode.DEFAULT);
+        } catch (final SAXException | IOException e) {
+            throw new IllegalArgumentException("Cannot parse the request body: " + e.getMessage(), e);
+        }
+        final Node mainElement = XMLHelper.getMainElement(document);
+        if (mainElement == null) {
+            throw new IllegalArgumentException("The request body contains no math or query element");
+        }
+        return generator.generate(mainElement);
+    }
+
+    /**
+     * @param parameters URL encoded parameters or null
+     * @return the configuration, based on the defaults of the selected dialect
+     */
+    static GeneratorConfig parseParameters(String parameters) {
+        final GeneratorConfig.Builder builder = GeneratorConfig.builder();
+        if (parameters == null || parameters.isEmpty()) {
+            return builder.build();
+        }
+        final String[] pairs = parameters.split("&");
+        // the dialect resets namespace, path to root and return format, so it is applied first
+        String database = "math";
+        String dialect = null;
+        for (final String pair : pairs) {
+            if (pair.startsWith("dialect=")) {
+                dialect = decode(pair.substring("dialect=".length()));
+            } else if (pair.startsWith("database=")) {
+                database = decode(pair.substring("database=".length()));
+            }
+        }
+        if (dialect != null) {
+            builder.setDialect(parseDialect(dialect, database));
+        }
+        for (final String pair : pairs) {
+            final int separator = pair.indexOf('=');
+            final String name = separator < 0 ? pair : pair.substring(0, separator);
+            final String value = separator < 0 ? "" : decode(pair.substring(separator + 1));
+            switch (name) {
+                case "dialect":
+                case "database":
+                case "":
+                    break;
+                case "namespace":
+                    builder.setNamespace(value);
+                    break;
+                case "pathToRoot":
+                    builder.setPathToRoot(value);
+                    break;
+                case "returnFormat":
+                    builder.setReturnFormat(value);
+                    break;
+                case "findRootApply":
+                    builder.setFindRootApply(parseBoolean(name, value));
+                    break;
+                case "flatRootApply":
+                    builder.setFlatRootApply(parseBoolean(name, value));
+                    break;
+                case "restrictLength":
+                    builder.setRestrictLength(parseBoolean(name, value));
+                    break;
+                case "addQvarMap":
+                    builder.setAddQvarMap(parseBoolean(name, value));
+                    break;
+                case "fingerprints":
+                    builder.setFingerprints(parseBoolean(name, value));
+                    break;
+                case "limit":
+                    builder.setLimit(parseInt(name, value));
+                    break;
+                case "offset":
+                    builder.setOffset(parseInt(name, value));
+                    break;
+                case "orderBy":
+                    builder.setOrderBy(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter " + name);
+            }
+        }
+        return builder.build();
+    }
+
+    private static QueryDialect parseDialect(String dialect, String database) {
+        switch (dialect) {
+            case "default":
+                return DefaultDialect.INSTANCE;
+            case "xquery30":
+                return XQuery30Dialect.INSTANCE;
+            case "db2":
+                return new Db2Dialect();
+            case "basex":
+                return new BaseXDialect(database);
+            default:
+                throw new IllegalArgumentException("Unknown dialect " + dialect);
+        }
+    }
+
+    private static boolean parseBoolean(String name, String value) {
+        if ("true".equals(value) || value.isEmpty()) {
+            return true;
+        }
+        if ("false".equals(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Parameter " + name + " must be true or false, was " + value);
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number, was " + value, e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readBody(InputStream body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        for (int read = body.read(buffer); read >= 0; read = body.read(buffer)) {
+            out.write(buffer, 0, read);
+            if (out.size() > MAX_BODY_LENGTH) {
+                throw new BodyTooLargeException();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int status, String response) throws IOException {
+        final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", TEXT_PLAIN);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static final class BodyTooLargeException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException() {
+            super("The request body exceeds " + MAX_BODY_LENGTH + " bytes");
+        }
+    }
+}
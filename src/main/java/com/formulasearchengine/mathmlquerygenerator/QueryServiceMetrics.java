@@ -0,0 +1,135 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request counters and latency histogram of a {@link QueryService}. The latency is measured from the start of the
+ * handler until the response is ready, so it includes reading the body, parsing, generation and the response cache
+ * lookup, but neither the time a request waits for a free executor thread nor sending the response. Updates are
+ * lock-free, with the same consistency limits as {@link GenerationMetrics}.
+ */
+public class QueryServiceMetrics implements QueryServiceMetricsMXBean {
+    /**
+     * Object name used by {@link #register()}.
+     */
+    public static final String DEFAULT_OBJECT_NAME =
+            "com.formulasearchengine.mathmlquerygenerator:type=QueryServiceMetrics";
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong responseCacheHitCount = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final Log2Histogram latencyMicros = new Log2Histogram();
+
+    /**
+     * Records a finished request.
+     *
+     * @param nanos    handling time
+     * @param error    true if the response status was not 200
+     * @param cacheHit true if the response came from the response cache
+     */
+    void record(long nanos, boolean error, boolean cacheHit) {
+        requestCount.incrementAndGet();
+        if (error) {
+            errorCount.incrementAndGet();
+        }
+        if (cacheHit) {
+            responseCacheHitCount.incrementAndGet();
+        }
+        latencyNanos.addAndGet(nanos);
+        long current = maxLatencyNanos.get();
+        while (nanos > current && !maxLatencyNanos.compareAndSet(current, nanos)) {
+            current = maxLatencyNanos.get();
+        }
+        latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Registers this instance at the platform MBean server under {@value #DEFAULT_OBJECT_NAME}.
+     *
+     * @return the object name
+     */
+    public ObjectName register() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(DEFAULT_OBJECT_NAME);
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * @param quantile e.g. 0.99
+     * @return upper bound of the latency quantile in microseconds
+     */
+    public long getLatencyMicros(double quantile) {
+        return latencyMicros.getQuantile(quantile);
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public long getResponseCacheHitCount() {
+        return responseCacheHitCount.get();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        final long count = requestCount.get();
+        return count == 0 ? 0 : latencyNanos.get() / 1000.0 / count;
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get());
+    }
+
+    @Override
+    public long getLatencyMicros50() {
+        return getLatencyMicros(0.5);
+    }
+
+    @Override
+    public long getLatencyMicros99() {
+        return getLatencyMicros(0.99);
+    }
+
+    @Override
+    public long getLatencyMicros999() {
+        return getLatencyMicros(0.999);
+    }
+
+    @Override
+    public void reset() {
+        requestCount.set(0);
+        errorCount.set(0);
+        responseCacheHitCount.set(0);
+        latencyNanos.set(0);
+        maxLatencyNanos.set(0);
+        latencyMicros.reset();
+    }
+
+    /**
+     * @return the figures as lines of name and value, as served by the metrics endpoint
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "requests %d\nerrors %d\nresponse_cache_hits %d\nlatency_mean_us %.1f\n"
+                        + "latency_p50_us %d\nlatency_p99_us %d\nlatency_p999_us %d\nlatency_max_us %d\n",
+                getRequestCount(), getErrorCount(), getResponseCacheHitCount(), getMeanLatencyMicros(),
+                getLatencyMicros50(), getLatencyMicros99(), getLatencyMicros999(), getMaxLatencyMicros());
+    }
+}
@@ -0,0 +1,24 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Management interface of {@link QueryServiceMetrics}. Times are in microseconds.
+ */
+public interface QueryServiceMetricsMXBean {
+    long getRequestCount();
+
+    long getErrorCount();
+
+    long getResponseCacheHitCount();
+
+    double getMeanLatencyMicros();
+
+    long getMaxLatencyMicros();
+
+    long getLatencyMicros50();
+
+    long getLatencyMicros99();
+
+    long getLatencyMicros999();
+
+    void reset();
+}
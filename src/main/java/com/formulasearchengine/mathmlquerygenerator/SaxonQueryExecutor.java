@@ -0,0 +1,203 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XQueryCompiler;
+import net.sf.saxon.s9api.XQueryEvaluator;
+import net.sf.saxon.s9api.XQueryExecutable;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+
+import javax.xml.transform.Source;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs generated queries in-process with Saxon-HE.
+ * Compiled queries are kept in a bounded LRU cache keyed by the query text, so repeated executions of the same
+ * query only pay for the evaluation. The queries are evaluated with a MathML document as context item, hence they
+ * should be generated with {@link #LOCAL_CONFIG} or another configuration whose pathToRoot is relative to the
+ * document and which does not add the qvar map (Saxon-HE does not support its map syntax).
+ * Instances are thread-safe; every execution uses its own evaluator.
+ */
+public class SaxonQueryExecutor {
+    /**
+     * Default number of compiled queries that are kept in the cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /**
+     * Generator settings for local execution. Every math element of a document is a candidate and every hit
+     * is returned as the matching node.
+     */
+    public static final GeneratorConfig LOCAL_CONFIG = GeneratorConfig.builder()
+            .setPathToRoot("//*:math")
+            .setReturnFormat("$x")
+            .setAddQvarMap(false)
+            .build();
+
+    private final Processor processor;
+    private final LoadingCache<String, XQueryExecutable> executables;
+
+    /**
+     * Receives the hits of a query execution as soon as they are evaluated.
+     */
+    public interface HitCallback {
+        /**
+         * @param source the document that contains the hit
+         * @param hit    the item returned by the query, e.g. a node or an atomic value
+         */
+        void onHit(File source, XdmItem hit);
+    }
+
+    public SaxonQueryExecutor() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize maximum number of compiled queries kept in the cache
+     */
+    public SaxonQueryExecutor(int cacheSize) {
+        this(new Processor(false), cacheSize);
+    }
+
+    /**
+     * @param processor the Saxon processor used to compile queries and build documents
+     * @param cacheSize maximum number of compiled queries kept in the cache
+     */
+    public SaxonQueryExecutor(Processor processor, int cacheSize) {
+        this.processor = processor;
+        final XQueryCompiler compiler = processor.newXQueryCompiler();
+        executables = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build(new CacheLoader<String, XQueryExecutable>() {
+                    @Override
+                    public XQueryExecutable load(String query) throws SaxonApiException {
+                        // XQueryCompiler is not thread-safe, but loads of different keys can run concurrently
+                        synchronized (compiler) {
+                            return compiler.compile(query);
+                        }
+                    }
+                });
+    }
+
+    public Processor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Returns the compiled query from the cache and compiles it on a miss.
+     *
+     * @param query the XQuery text
+     * @return the compiled query
+     * @throws SaxonApiException if the query cannot be compiled
+     */
+    public XQueryExecutable compile(String query) throws SaxonApiException {
+        try {
+            return executables.get(query);
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof SaxonApiException) {
+                throw (SaxonApiException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot compile query", e.getCause());
+        }
+    }
+
+    /**
+     * Runs the query against a MathML file or against all xml files in a directory and its subdirectories.
+     * Directories are processed in the order of the file names.
+     *
+     * @param query    the XQuery text
+     * @param input    a file or directory
+     * @param callback receives every hit
+     * @return the number of hits
+     * @throws SaxonApiException if the query cannot be compiled or evaluated, or if a document cannot be parsed
+     */
+    public long execute(String query, File input, HitCallback callback) throws SaxonApiException {
+        final XQueryExecutable executable = compile(query);
+        final DocumentBuilder builder = processor.newDocumentBuilder();
+        long hits = 0;
+        for (final File file : XmlFiles.list(input)) {
+            hits += evaluate(executable, builder.build(file), file, callback);
+        }
+        return hits;
+    }
+
+    /**
+     * Runs the query against a single document.
+     *
+     * @param query    the XQuery text
+     * @param source   the document
+     * @param callback receives every hit, the source file passed to the callback is null
+     * @return the number of hits
+     * @throws SaxonApiException if the query cannot be compiled or evaluated, or if the document cannot be parsed
+     */
+    public long execute(String query, Source source, HitCallback callback) throws SaxonApiException {
+        return execute(query, processor.newDocumentBuilder().build(source), callback);
+    }
+
+    /**
+     * Runs the query against a document that was built with the processor of this executor.
+     *
+     * @param query    the XQuery text
+     * @param document the document node
+     * @param callback receives every hit, the source file passed to the callback is null
+     * @return the number of hits
+     * @throws SaxonApiException if the query cannot be compiled or evaluated
+     */
+    public long execute(String query, XdmNode document, HitCallback callback) throws SaxonApiException {
+        return evaluate(compile(query), document, null, callback);
+    }
+
+    /**
+     * Collects all hits of the query in memory.
+     *
+     * @param query the XQuery text
+     * @param input a file or directory
+     * @return the hits in document order
+     * @throws SaxonApiException if the query cannot be compiled or evaluated, or if a document cannot be parsed
+     */
+    public List<XdmItem> executeToList(String query, File input) throws SaxonApiException {
+        final List<XdmItem> result = new ArrayList<>();
+        execute(query, input, new HitCallback() {
+            @Override
+            public void onHit(File source, XdmItem hit) {
+                result.add(hit);
+            }
+        });
+        return result;
+    }
+
+    public void invalidateAll() {
+        executables.invalidateAll();
+    }
+
+    public long getCacheSize() {
+        return executables.size();
+    }
+
+    public CacheStats getCacheStats() {
+        return executables.stats();
+    }
+
+    private long evaluate(XQueryExecutable executable, XdmNode document, File source, HitCallback callback)
+            throws SaxonApiException {
+        final XQueryEvaluator evaluator = executable.load();
+        evaluator.setContextItem(document);
+        long hits = 0;
+        for (final XdmItem item : evaluator) {
+            callback.onHit(source, item);
+            hits++;
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,160 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Element and text frequencies of a formula corpus.
+ * The statistics count how often an element name occurs and how often an element with a given name has a given
+ * trimmed text, e.g. {@code ci} and {@code ci} with text {@code ε}. They are used by {@link QueryGenerator} to
+ * anchor the generated query on the rarest element of the pattern and to order the predicates rarest-first.
+ * <p>
+ * The file format is plain UTF-8 text with one tab separated entry per line,
+ * {@code element<TAB>name<TAB>count} or {@code text<TAB>name<TAB>text<TAB>count}. Lines starting with # are
+ * comments; tabs, line breaks and backslashes in texts are escaped with a backslash.
+ * Files are produced by {@link SelectivityStatisticsCollector}. Instances are not thread-safe while they are
+ * modified, but can be shared once they are fully loaded.
+ */
+public class SelectivityStatistics {
+    private static final String ELEMENT = "element";
+    private static final String TEXT = "text";
+
+    private final Map<String, Long> elements = new TreeMap<>();
+    private final Map<String, Long> texts = new TreeMap<>();
+
+    public void addElement(String name, long count) {
+        final Long current = elements.get(name);
+        elements.put(name, current == null ? count : current + count);
+    }
+
+    public void addText(String name, String text, long count) {
+        final String key = name + '\t' + text;
+        final Long current = texts.get(key);
+        texts.put(key, current == null ? count : current + count);
+    }
+
+    /**
+     * @return the number of elements with the given local name
+     */
+    public long getElementCount(String name) {
+        final Long count = elements.get(name);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return the number of elements with the given local name and trimmed text
+     */
+    public long getTextCount(String name, String text) {
+        final Long count = texts.get(name + '\t' + text);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @param name local name of the element
+     * @param text trimmed text of the element or null
+     * @return the text count if a text is given, the element count otherwise
+     */
+    public long getFrequency(String name, String text) {
+        return text == null ? getElementCount(name) : getTextCount(name, text);
+    }
+
+    public static SelectivityStatistics load(File file) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * @throws IOException if a line is not in the format described above
+     */
+    public static SelectivityStatistics load(Reader reader) throws IOException {
+        final SelectivityStatistics statistics = new SelectivityStatistics();
+        final BufferedReader in = new BufferedReader(reader);
+        String line = in.readLine();
+        int lineNumber = 1;
+        while (line != null) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                final String[] fields = line.split("\t", -1);
+                try {
+                    if (ELEMENT.equals(fields[0]) && fields.length == 3) {
+                        statistics.addElement(unescape(fields[1]), Long.parseLong(fields[2]));
+                    } else if (TEXT.equals(fields[0]) && fields.length == 4) {
+                        statistics.addText(unescape(fields[1]), unescape(fields[2]), Long.parseLong(fields[3]));
+                    } else {
+                        throw new IOException("Invalid statistics entry in line " + lineNumber + ": " + line);
+                    }
+                } catch (final NumberFormatException e) {
+                    throw new IOException("Invalid count in line " + lineNumber + ": " + line, e);
+                }
+            }
+            line = in.readLine();
+            lineNumber++;
+        }
+        return statistics;
+    }
+
+    public void save(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            save(writer);
+        }
+    }
+
+    public void save(Writer writer) throws IOException {
+        final BufferedWriter out = new BufferedWriter(writer);
+        out.write("# selectivity statistics: element<TAB>name<TAB>count, text<TAB>name<TAB>text<TAB>count\n");
+        for (final Map.Entry<String, Long> entry : elements.entrySet()) {
+            out.write(ELEMENT + '\t' + escape(entry.getKey()) + '\t' + entry.getValue() + '\n');
+        }
+        for (final Map.Entry<String, Long> entry : texts.entrySet()) {
+            final int tab = entry.getKey().indexOf('\t');
+            out.write(TEXT + '\t' + escape(entry.getKey().substring(0, tab)) + '\t'
+                    + escape(entry.getKey().substring(tab + 1)) + '\t' + entry.getValue() + '\n');
+        }
+        out.flush();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        final StringBuilder out = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            final char c = value.charAt(i++);
+            if (c != '\\' || i == value.length()) {
+                out.append(c);
+                continue;
+            }
+            final char escaped = value.charAt(i++);
+            switch (escaped) {
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                default:
+                    out.append(escaped);
+                    break;
+            }
+        }
+        return out.toString();
+    }
+}
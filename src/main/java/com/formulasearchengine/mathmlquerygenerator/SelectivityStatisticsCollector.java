@@ -0,0 +1,131 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scans a MathML corpus with StAX and counts the element names and element texts for {@link SelectivityStatistics}.
+ * Only the content of math elements is counted. The text of an element is the trimmed concatenation of its direct
+ * text children, as it is compared by the generated queries.
+ * <p>
+ * Usage: {@code SelectivityStatisticsCollector <statistics file> <corpus file or directory>...}
+ */
+public class SelectivityStatisticsCollector {
+    private static final XMLInputFactory INPUT_FACTORY = StaxDomBuilder.createInputFactory();
+    private static final String MATH = "math";
+
+    private final Map<String, Long> elements = new HashMap<>();
+    private final Map<String, Map<String, Long>> texts = new HashMap<>();
+
+    public static void main(String[] args) throws IOException, XMLStreamException {
+        if (args.length < 2) {
+            System.err.println("Usage: SelectivityStatisticsCollector <statistics file> <corpus file or directory>...");
+            System.exit(1);
+        }
+        final SelectivityStatisticsCollector collector = new SelectivityStatisticsCollector();
+        for (int i = 1; i < args.length; i++) {
+            collector.add(new File(args[i]));
+        }
+        collector.getStatistics().save(new File(args[0]));
+    }
+
+    /**
+     * Adds a file or all xml files in a directory and its subdirectories.
+     */
+    public SelectivityStatisticsCollector add(File input) throws IOException, XMLStreamException {
+        for (final File file : XmlFiles.list(input)) {
+            try (InputStream is = new FileInputStream(file)) {
+                add(is);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds all math elements of the stream; the stream is not closed.
+     */
+    public SelectivityStatisticsCollector add(InputStream inputStream) throws XMLStreamException {
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+        try {
+            add(reader);
+        } finally {
+            reader.close();
+        }
+        return this;
+    }
+
+    /**
+     * Adds all math elements that follow the current position of the reader.
+     */
+    public SelectivityStatisticsCollector add(XMLStreamReader reader) throws XMLStreamException {
+        final List<String> names = new ArrayList<>();
+        final List<StringBuilder> text = new ArrayList<>();
+        int mathDepth = 0;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (mathDepth > 0 || MATH.equals(reader.getLocalName())) {
+                        mathDepth++;
+                        names.add(reader.getLocalName());
+                        text.add(new StringBuilder());
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (mathDepth > 0) {
+                        text.get(text.size() - 1).append(reader.getText());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (mathDepth > 0) {
+                        mathDepth--;
+                        count(names.remove(names.size() - 1), text.remove(text.size() - 1).toString().trim());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return a snapshot of the counts collected so far
+     */
+    public SelectivityStatistics getStatistics() {
+        final SelectivityStatistics statistics = new SelectivityStatistics();
+        for (final Map.Entry<String, Long> entry : elements.entrySet()) {
+            statistics.addElement(entry.getKey(), entry.getValue());
+        }
+        for (final Map.Entry<String, Map<String, Long>> element : texts.entrySet()) {
+            for (final Map.Entry<String, Long> entry : element.getValue().entrySet()) {
+                statistics.addText(element.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+        return statistics;
+    }
+
+    private void count(String name, String text) {
+        final Long count = elements.get(name);
+        elements.put(name, count == null ? 1 : count + 1);
+        if (!text.isEmpty()) {
+            Map<String, Long> counts = texts.get(name);
+            if (counts == null) {
+                counts = new HashMap<>();
+                texts.put(name, counts);
+            }
+            final Long textCount = counts.get(text);
+            counts.put(text, textCount == null ? 1 : textCount + 1);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Copies single elements of a StAX stream into small DOM trees.
+ * Text, including whitespace, is preserved as is, so the copies have the same string values as the source.
+ */
+final class StaxDomBuilder {
+    private StaxDomBuilder() {
+    }
+
+    /**
+     * @return a namespace aware, coalescing input factory that does not load DTDs
+     */
+    static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    /**
+     * Copies the element the reader is positioned on, including its subtree, and appends it to the document.
+     * Afterwards the reader is positioned on the matching end element.
+     * Since DTDs are not loaded, entity references cannot be expanded; rather than dropping them, they are rejected.
+     *
+     * @param reader reader positioned on a start element
+     * @param doc    the owner document of the copy, the copy becomes its document element
+     * @return the copied element
+     */
+    static Element readElement(XMLStreamReader reader, Document doc) throws XMLStreamException {
+        final Element root = createElement(reader, doc);
+        doc.appendChild(root);
+        Node current = root;
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final Element element = createElement(reader, doc);
+                    current.appendChild(element);
+                    current = element;
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    throw new XMLStreamException("Unresolved entity reference &" + reader.getLocalName() + ";",
+                            reader.getLocation());
+                default:
+                    break;
+            }
+        }
+        return root;
+    }
+
+    private static Element createElement(XMLStreamReader reader, Document doc) {
+        final String prefix = reader.getPrefix();
+        final String uri = reader.getNamespaceURI();
+        final Element element = doc.createElementNS(uri,
+                prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName());
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            final String nsPrefix = reader.getNamespacePrefix(i);
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, nsPrefix == null || nsPrefix.isEmpty()
+                    ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + nsPrefix,
+                    reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            final String attributePrefix = reader.getAttributePrefix(i);
+            final String localName = reader.getAttributeLocalName(i);
+            final String attributeUri = reader.getAttributeNamespace(i);
+            final String qualifiedName = attributePrefix == null || attributePrefix.isEmpty()
+                    ? localName : attributePrefix + ":" + localName;
+            element.setAttributeNS(attributeUri == null || attributeUri.isEmpty() ? null : attributeUri,
+                    qualifiedName, reader.getAttributeValue(i));
+        }
+        return element;
+    }
+}
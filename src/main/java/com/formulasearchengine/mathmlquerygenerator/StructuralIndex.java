@@ -0,0 +1,405 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of the parent/child structure of a formula corpus.
+ * For every element of a formula the index records the pair of the parent and the child name,
+ * e.g. {@code apply/csymbol}, and for children with text also the pair with each trimmed run of text,
+ * e.g. {@code apply/csymbol=superscript}. Each key maps to the ascending list of formula numbers that contain it.
+ * <p>
+ * A query requires all pairs of its main element (see {@link #requiredKeys(Node)}), so intersecting their posting
+ * lists yields a superset of the formulae with hits. Only these candidates have to be verified with the generated
+ * XQuery (see {@link #restrictPathToRoot(String, Collection)}) or a {@link PatternMatcher}.
+ * Names are compared by local name, which makes the candidate set independent of namespace prefixes.
+ * <p>
+ * Formulae can be added at any time, also after {@link #load(File)}. Instances are not thread-safe.
+ */
+public class StructuralIndex {
+    private static final int MAGIC = 0x4d514978;
+    private static final int VERSION = 2;
+    private static final String MATH = "math";
+
+    private final List<String> formulaIds = new ArrayList<>();
+    private final Map<String, PostingList> postings = new HashMap<>();
+
+    /**
+     * Adds a single formula. The pairs of all elements below the given element are indexed.
+     *
+     * @param formulaId the identifier that is returned for this formula by {@link #candidateIds(Node)}
+     * @param math      the math element of the formula
+     * @return the number of the new formula
+     */
+    public int add(String formulaId, Node math) {
+        final int formula = formulaIds.size();
+        formulaIds.add(formulaId);
+        final Set<String> keys = new LinkedHashSet<>();
+        collectKeys(math, keys);
+        for (final String key : keys) {
+            PostingList list = postings.get(key);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(key, list);
+            }
+            list.add(formula);
+        }
+        return formula;
+    }
+
+    /**
+     * Adds all math elements of a document or subtree. The identifier of a formula is its id attribute,
+     * or the given prefix followed by the number of the formula if it has none.
+     *
+     * @return the number of added formulae
+     */
+    public int addDocument(Node node, String prefix) {
+        return addMath(node, prefix, 0);
+    }
+
+    /**
+     * Parses a MathML file and adds all its math elements, see {@link #addDocument(Node, String)}.
+     * The file name is used as the prefix of generated identifiers.
+     *
+     * @return the number of added formulae
+     */
+    public int addFile(File file) throws IOException, SAXException, ParserConfigurationException {
+        final Document document = XMLHelper.getDocumentBuilder(true).parse(file);
+        return addDocument(document, file.getName() + "#");
+    }
+
+    public int getFormulaCount() {
+        return formulaIds.size();
+    }
+
+    public int getKeyCount() {
+        return postings.size();
+    }
+
+    public String getFormulaId(int formula) {
+        return formulaIds.get(formula);
+    }
+
+    /**
+     * @return the number of formulae that contain the key
+     */
+    public int getFrequency(String key) {
+        final PostingList list = postings.get(key);
+        return list == null ? 0 : list.size;
+    }
+
+    /**
+     * Extracts the pairs that every hit of the query must contain.
+     * Qvars and annotation-xml elements are ignored, the query root contributes only as the parent of its children.
+     *
+     * @param mainElement the parent of the query root as returned by {@link XMLHelper#getMainElement(Document)}
+     * @return the required keys in pre-order
+     */
+    public static Set<String> requiredKeys(Node mainElement) {
+        final Set<String> keys = new LinkedHashSet<>();
+        collectQueryKeys(NonWhitespaceNodeList.getFirstChild(mainElement), keys);
+        return keys;
+    }
+
+    /**
+     * Intersects the posting lists of all required keys of the query.
+     *
+     * @param mainElement the parent of the query root
+     * @return the ascending numbers of the candidate formulae
+     */
+    public int[] candidates(Node mainElement) {
+        return candidates(requiredKeys(mainElement));
+    }
+
+    /**
+     * Intersects the posting lists of the given keys, starting with the shortest list.
+     *
+     * @return the ascending numbers of the formulae that contain all keys; all formulae if keys is empty
+     */
+    public int[] candidates(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            final int[] all = new int[formulaIds.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        final List<PostingList> lists = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            final PostingList list = postings.get(key);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        Collections.sort(lists, new Comparator<PostingList>() {
+            @Override
+            public int compare(PostingList a, PostingList b) {
+                return Integer.compare(a.size, b.size);
+            }
+        });
+        int[] result = Arrays.copyOf(lists.get(0).formulae, lists.get(0).size);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return the identifiers of the candidate formulae in the order they were added
+     */
+    public List<String> candidateIds(Node mainElement) {
+        final int[] candidates = candidates(mainElement);
+        final List<String> ids = new ArrayList<>(candidates.length);
+        for (final int formula : candidates) {
+            ids.add(formulaIds.get(formula));
+        }
+        return ids;
+    }
+
+    /**
+     * Restricts a pathToRoot to the formulae with the given id attributes, so the generated XQuery only verifies
+     * the candidates, e.g. {@code //*:math[@id = ('f1', 'f2')]}.
+     */
+    public static String restrictPathToRoot(String pathToRoot, Collection<String> formulaIds) {
+        final StringBuilder out = new StringBuilder(pathToRoot).append("[@id = (");
+        final Iterator<String> iterator = formulaIds.iterator();
+        while (iterator.hasNext()) {
+            out.append('\'').append(iterator.next().replace("'", "''")).append('\'');
+            if (iterator.hasNext()) {
+                out.append(", ");
+            }
+        }
+        return out.append(")]").toString();
+    }
+
+    public void save(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            save(out);
+        }
+    }
+
+    /**
+     * Writes the index. Posting lists are stored as variable length deltas.
+     */
+    public void save(OutputStream outputStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(formulaIds.size());
+        for (final String id : formulaIds) {
+            out.writeUTF(id);
+        }
+        out.writeInt(postings.size());
+        for (final Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            out.writeUTF(entry.getKey());
+            final PostingList list = entry.getValue();
+            writeVarInt(out, list.size);
+            int previous = 0;
+            for (int i = 0; i < list.size; i++) {
+                writeVarInt(out, list.formulae[i] - previous);
+                previous = list.formulae[i];
+            }
+        }
+        out.flush();
+    }
+
+    public static StructuralIndex load(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return load(in);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #save(OutputStream)}.
+     *
+     * @throws IOException if the stream does not contain an index of this version
+     */
+    public static StructuralIndex load(InputStream inputStream) throws IOException {
+        final DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a structural index");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported structural index version " + version);
+        }
+        final StructuralIndex index = new StructuralIndex();
+        final int formulae = in.readInt();
+        for (int i = 0; i < formulae; i++) {
+            index.formulaIds.add(in.readUTF());
+        }
+        final int keys = in.readInt();
+        for (int i = 0; i < keys; i++) {
+            final String key = in.readUTF();
+            final PostingList list = new PostingList();
+            final int size = readVarInt(in);
+            int previous = 0;
+            for (int j = 0; j < size; j++) {
+                previous += readVarInt(in);
+                list.add(previous);
+            }
+            index.postings.put(key, list);
+        }
+        return index;
+    }
+
+    private int addMath(Node node, String prefix, int added) {
+        if (node.getNodeType() == Node.ELEMENT_NODE && MATH.equals(localName(node))) {
+            final String id = ((Element) node).getAttribute("id");
+            add(id.isEmpty() ? prefix + formulaIds.size() : id, node);
+            return added + 1;
+        }
+        int count = added;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            count = addMath(child, prefix, count);
+        }
+        return count;
+    }
+
+    private static void collectKeys(Node parent, Set<String> keys) {
+        final String parentName = localName(parent);
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                final String pair = parentName + "/" + localName(child);
+                keys.add(pair);
+                collectTextKeys(child, pair, keys);
+                collectKeys(child, keys);
+            }
+        }
+    }
+
+    /**
+     * Adds a key for every run of adjacent text and CDATA children, which is what a text comparison of the generated
+     * query sees as one text node. A pattern text ({@link PatternTree#text(Node)}) can only match such a run.
+     */
+    private static void collectTextKeys(Node element, String pair, Set<String> keys) {
+        StringBuilder run = new StringBuilder();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                run.append(child.getNodeValue());
+            } else if (run.length() > 0) {
+                addTextKey(run, pair, keys);
+                run = new StringBuilder();
+            }
+        }
+        addTextKey(run, pair, keys);
+    }
+
+    private static void addTextKey(CharSequence run, String pair, Set<String> keys) {
+        final String value = run.toString().trim();
+        if (!value.isEmpty()) {
+            keys.add(pair + "=" + value);
+        }
+    }
+
+    private static void collectQueryKeys(Node parent, Set<String> keys) {
+        final String parentName = parent.getLocalName();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE || "mws:qvar".equals(child.getNodeName())) {
+                continue;
+            }
+            if (child.getLocalName() != null
+                    && XMLHelper.ANNOTATION_XML_PATTERN.matcher(child.getLocalName()).matches()) {
+                continue;
+            }
+            final String pair = parentName + "/" + child.getLocalName();
+            keys.add(pair);
+            final String text = PatternTree.text(child);
+            if (text != null) {
+                keys.add(pair + "=" + text);
+            }
+            collectQueryKeys(child, keys);
+        }
+    }
+
+    private static int[] intersect(int[] candidates, PostingList list) {
+        final int[] result = new int[candidates.length];
+        int size = 0;
+        int j = 0;
+        for (final int candidate : candidates) {
+            while (j < list.size && list.formulae[j] < candidate) {
+                j++;
+            }
+            if (j == list.size) {
+                break;
+            }
+            if (list.formulae[j] == candidate) {
+                result[size++] = candidate;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static String localName(Node node) {
+        final String localName = node.getLocalName();
+        if (localName != null) {
+            return localName;
+        }
+        final String name = node.getNodeName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b = in.readUnsignedByte();
+        while ((b & 0x80) != 0) {
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+            b = in.readUnsignedByte();
+        }
+        return value | b << shift;
+    }
+
+    /**
+     * Growable ascending list of formula numbers.
+     */
+    private static final class PostingList {
+        private int[] formulae = new int[4];
+        private int size;
+
+        private void add(int formula) {
+            if (size == formulae.length) {
+                formulae = Arrays.copyOf(formulae, size * 2);
+            }
+            formulae[size++] = formula;
+        }
+    }
+}
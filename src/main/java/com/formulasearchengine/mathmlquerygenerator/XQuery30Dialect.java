@@ -0,0 +1,38 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * Plain XQuery 3.0 for any engine, e.g. Saxon. The MathML namespace is bound to the prefix m and all steps are
+ * qualified with it, so the queries do not depend on the default element namespace of the environment.
+ * The formulae are the math elements below the context item. Map constructors are not part of XQuery 3.0, so the
+ * qvar map is not rendered, even with addQvarMap.
+ */
+public final class XQuery30Dialect extends NamedStepDialect {
+    public static final XQuery30Dialect INSTANCE = new XQuery30Dialect();
+
+    private XQuery30Dialect() {
+        super("m:");
+    }
+
+    @Override
+    public String getNamespace() {
+        return "declare namespace m = \"http://www.w3.org/1998/Math/MathML\";";
+    }
+
+    @Override
+    public String getPathToRoot() {
+        return "//m:math";
+    }
+
+    @Override
+    public String getReturnFormat() {
+        return "$x";
+    }
+
+    /**
+     * @return false, map constructors are XQuery 3.1; the qvar map function is therefore never rendered
+     */
+    @Override
+    public boolean supportsMaps() {
+        return false;
+    }
+}
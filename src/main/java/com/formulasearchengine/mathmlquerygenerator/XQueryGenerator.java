@@ -1,8 +1,6 @@
 package com.formulasearchengine.mathmlquerygenerator;
 
-import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
 import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
-import com.google.common.collect.Lists;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
@@ -11,7 +9,6 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -22,25 +19,40 @@ import java.util.Map;
  * respective formula ID, so you can refer to local:qvarMap($parentNode) in the footer to return qvar results.
  * If findRootApply is turned on, the xquery takes on a recursive format. The variable $rootApply represents the root
  * apply node and the variable $depth represents the depth of the matched node. The root apply node has a depth of 0.
+ * With flatRootApply, both variables are computed from the ancestor axis in a flat loop instead.
+ * Instances are mutable and not thread-safe; use {@link QueryGenerator} to share one configured generator between
+ * threads. This class delegates the generation to QueryGenerator.
  * Created by Moritz Schubotz on 9/3/14.
  * Translated from http://git.wikimedia.org/blob/mediawiki%2Fextensions%2FMathSearch.git/31a80ae48d1aaa50da9103cea2e45a8dc2204b39/XQueryGenerator.php
  */
 @SuppressWarnings("WeakerAccess")
 public class XQueryGenerator extends XQueryGeneratorBase {
     private boolean findRootApply = false;
+    private boolean flatRootApply = false;
     private boolean addQvarMap = true;
-    private String qvarConstraint = "";
-    private String qvarMapVariable = "";
+    private boolean fingerprints = false;
+    private QueryDialect dialect = DefaultDialect.INSTANCE;
+    private PatternTree patternTree = null;
+    private CompiledPattern compiledPattern = null;
     private Map<String, ArrayList<String>> qvar = new LinkedHashMap<>();
+    private QueryCache queryCache = null;
+    private GenerationListener generationListener = null;
+    private AdmissionPolicy admissionPolicy = null;
+    private SelectivityStatistics selectivityStatistics = null;
+    private int limit = 0;
+    private int offset = 0;
+    private String orderBy = "";
 
     /**
      * Constructs a basic generator from an XML document given as a string.
+     * The document is parsed with the reusable builder of {@link DocumentParser}.
      *
      * @param input XML Document as a string
+     * @throws SAXException if the document is not well-formed
      */
     public XQueryGenerator(String input)
             throws IOException, SAXException, ParserConfigurationException {
-        final Document xml = XMLHelper.String2Doc(input, true);
+        final Document xml = DocumentParser.parse(input);
         this.mainElement = XMLHelper.getMainElement(xml);
     }
 
@@ -53,60 +65,66 @@ public class XQueryGenerator extends XQueryGeneratorBase {
         this.mainElement = XMLHelper.getMainElement(xml);
     }
 
+    /**
+     * Constructs a generator from a pattern tree without DOM, e.g. from {@link NtcirPattern#getPatternTree()}.
+     *
+     * @param mainElement tree whose root is the parent of the query root
+     */
+    public XQueryGenerator(PatternTree mainElement) {
+        this.patternTree = mainElement;
+    }
+
+    /**
+     * Walks the main element and stores the constraints, so that they can be inspected by the getters.
+     */
     protected void generateConstraints() {
+        final QueryGenerator generator = new QueryGenerator(getConfig());
+        compiledPattern = patternTree == null ? generator.compile(mainElement) : generator.compile(patternTree);
+        exactMatchXQuery = compiledPattern.getExactMatchXQuery();
+        lengthConstraint = compiledPattern.getLengthConstraint();
+        // a copy, so that callers of getQvar() cannot change the compiled pattern
         qvar = new LinkedHashMap<>();
-        super.generateConstraints();
-        generateQvarConstraints();
+        for (final Map.Entry<String, ArrayList<String>> entry : compiledPattern.getContext().getQvar().entrySet()) {
+            qvar.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
     }
 
     /**
-     * Uses the qvar map to generate a XQuery string containing qvar constraints,
-     * and the qvar map variable which maps qvar names to their respective formula ID's in the result.
+     * Compiles the main element unless the last compiled pattern is still valid. Changes of the namespace, the path
+     * to root, the return format or the layout do not require a new compilation.
+     *
+     * @return the compiled main element or null if no main element is set
      */
-    private void generateQvarConstraints() {
-        final StringBuilder qvarConstrBuilder = new StringBuilder();
-        final StringBuilder qvarMapStrBuilder = new StringBuilder();
-        final Iterator<Map.Entry<String, ArrayList<String>>> entryIterator = qvar.entrySet().iterator();
-        if (entryIterator.hasNext()) {
-            qvarMapStrBuilder.append("declare function local:qvarMap($x) {\n map {");
-
-            while (entryIterator.hasNext()) {
-                final Map.Entry<String, ArrayList<String>> currentEntry = entryIterator.next();
-
-                final Iterator<String> valueIterator = currentEntry.getValue().iterator();
-                final String firstValue = valueIterator.next();
-
-                qvarMapStrBuilder.append('"').append(currentEntry.getKey()).append('"')
-                        .append(" : (data($x").append(firstValue).append("/@xml:id)");
-
-                //check if there are additional values that we need to constrain
-                if (valueIterator.hasNext()) {
-                    if (qvarConstrBuilder.length() > 0) {
-                        //only add beginning and if it's an additional constraint in the aggregate qvar string
-                        qvarConstrBuilder.append("\n and ");
-                    }
-                    while (valueIterator.hasNext()) {
-                        //process second value onwards
-                        final String currentValue = valueIterator.next();
-                        qvarMapStrBuilder.append(",data($x").append(currentValue).append("/@xml-id)");
-                        //These constraints specify that the same qvars must refer to the same nodes,
-                        //using the XQuery "=" equality
-                        //This is equality based on: same text, same node names, and same children nodes
-                        qvarConstrBuilder.append("$x").append(firstValue).append(" = $x").append(currentValue);
-                        if (valueIterator.hasNext()) {
-                            qvarConstrBuilder.append(" and ");
-                        }
-                    }
-                }
-                qvarMapStrBuilder.append(')');
-                if (entryIterator.hasNext()) {
-                    qvarMapStrBuilder.append(',');
-                }
-            }
-            qvarMapStrBuilder.append("}\n};");
+    public CompiledPattern getCompiledPattern() {
+        if (mainElement == null && patternTree == null) {
+            return null;
+        }
+        if (compiledPattern == null || !compiledPattern.isCompatible(getConfig())) {
+            generateConstraints();
         }
-        qvarMapVariable = qvarMapStrBuilder.toString();
-        qvarConstraint = qvarConstrBuilder.toString();
+        return compiledPattern;
+    }
+
+    /**
+     * @return a snapshot of the current settings
+     */
+    public GeneratorConfig getConfig() {
+        return GeneratorConfig.builder()
+                .setDialect(dialect)
+                .setNamespace(namespace)
+                .setPathToRoot(pathToRoot)
+                .setReturnFormat(returnFormat)
+                .setRestrictLength(restrictLength)
+                .setFindRootApply(findRootApply)
+                .setFlatRootApply(flatRootApply)
+                .setAddQvarMap(addQvarMap)
+                .setFingerprints(fingerprints)
+                .setSelectivityStatistics(selectivityStatistics)
+                .setAdmissionPolicy(admissionPolicy)
+                .setLimit(limit)
+                .setOffset(offset)
+                .setOrderBy(orderBy)
+                .build();
     }
 
     /**
@@ -115,27 +133,8 @@ public class XQueryGenerator extends XQueryGeneratorBase {
      * @return XQuery as string
      */
     protected String getDefaultString() {
-        final StringBuilder outBuilder = new StringBuilder();
-        if (!namespace.isEmpty()) {
-            outBuilder.append(namespace).append("\n");
-        }
-        if (!qvarMapVariable.isEmpty() && addQvarMap) {
-            outBuilder.append(qvarMapVariable).append("\n");
-        }
-        outBuilder.append("for $m in ").append(pathToRoot).append(" return\n")
-                .append("for $x in $m//*:").append(NonWhitespaceNodeList.getFirstChild(mainElement).getLocalName())
-                .append("\n").append(exactMatchXQuery);
-        if (!lengthConstraint.isEmpty() || !qvarConstraint.isEmpty()) {
-            outBuilder.append("\n").append("where").append("\n");
-            if (lengthConstraint.isEmpty()) {
-                outBuilder.append(qvarConstraint);
-            } else {
-                outBuilder.append(lengthConstraint)
-                        .append(qvarConstraint.isEmpty() ? "" : "\n and ").append(qvarConstraint);
-            }
-        }
-        outBuilder.append("\n\n").append("return").append("\n").append(returnFormat);
-        return outBuilder.toString();
+        final CompiledPattern pattern = getCompiledPattern();
+        return new QueryGenerator(getConfig()).getDefaultString(pattern.getContext(), pattern.getRootName());
     }
 
     public String getNamespace() {
@@ -154,43 +153,6 @@ public class XQueryGenerator extends XQueryGeneratorBase {
         return qvar;
     }
 
-    /**
-     * Builds the XQuery as a string. Uses the recursive format of recursively looping through the documents.
-     * This enables the $depth and the $rootApply variables.
-     *
-     * @return XQuery as string
-     */
-    private String getRecursiveString() {
-        final StringBuilder outBuilder = new StringBuilder();
-        if (!namespace.isEmpty()) {
-            outBuilder.append(namespace).append("\n");
-        }
-        if (!qvarMapVariable.isEmpty() && addQvarMap) {
-            outBuilder.append(qvarMapVariable).append("\n");
-        }
-
-        outBuilder.append("\ndeclare function local:compareApply($rootApply, $depth, $x ) {\n")
-                .append("(for $child in $x/* return local:compareApply(\n")
-                .append("if (empty($rootApply) and $child/name() = \"apply\") then $child else $rootApply,\n")
-                .append("if (empty($rootApply) and $child/name() = \"apply\") then 0 else $depth+1, $child),\n")
-                .append("if ($x/name() = \"apply\"\n")
-                .append(" and $x").append(exactMatchXQuery).append("\n");
-        if (!lengthConstraint.isEmpty()) {
-            outBuilder.append(" and ").append(lengthConstraint).append("\n");
-        }
-        if (!qvarConstraint.isEmpty()) {
-            outBuilder.append(" and ").append(qvarConstraint).append("\n");
-        }
-        outBuilder.append(" ) then\n")
-                .append(returnFormat).append("\n")
-                .append("else ()\n")
-                .append(")};\n\n")
-                .append("for $m in ").append(pathToRoot).append(" return\n")
-                .append("local:compareApply((), 0, $m)");
-
-        return outBuilder.toString();
-    }
-
     public String getReturnFormat() {
         return returnFormat;
     }
@@ -200,23 +162,6 @@ public class XQueryGenerator extends XQueryGeneratorBase {
         return this;
     }
 
-    protected boolean handleSpecialElements(Node child, Integer childElementIndex) {
-        if (!"mws:qvar".equals(child.getNodeName())) {
-            return false;
-        }
-        //If qvar, add to qvar map
-        String qvarName = child.getTextContent();
-        if (qvarName.isEmpty()) {
-            qvarName = child.getAttributes().getNamedItem("name").getTextContent();
-        }
-        if (qvar.containsKey(qvarName)) {
-            qvar.get(qvarName).add(relativeXPath + "/*[" + childElementIndex + "]");
-        } else {
-            qvar.put(qvarName, Lists.newArrayList(relativeXPath + "/*[" + childElementIndex + "]"));
-        }
-        return true;
-    }
-
     public boolean isAddQvarMap() {
         return addQvarMap;
     }
@@ -255,6 +200,21 @@ public class XQueryGenerator extends XQueryGeneratorBase {
         return this;
     }
 
+    public boolean isFlatRootApply() {
+        return flatRootApply;
+    }
+
+    /**
+     * Computes $rootApply and $depth from the ancestor axis in a flat loop instead of the recursive
+     * local:compareApply function. Has no effect unless findRootApply is set.
+     *
+     * @param flatRootApply true to generate the flat form
+     */
+    public XQueryGenerator setFlatRootApply(boolean flatRootApply) {
+        this.flatRootApply = flatRootApply;
+        return this;
+    }
+
     /**
      * Resets the current xQuery expression and sets a new main element.
      *
@@ -262,30 +222,198 @@ public class XQueryGenerator extends XQueryGeneratorBase {
      */
     public void setMainElement(Node mainElement) {
         this.mainElement = mainElement;
+        patternTree = null;
+        compiledPattern = null;
         qvar = new LinkedHashMap<>();
         relativeXPath = "";
         lengthConstraint = "";
     }
 
+    /**
+     * Resets the current xQuery expression and sets a new main element given as pattern tree.
+     *
+     * @param mainElement tree whose root is the parent of the query root
+     */
+    public void setMainElement(PatternTree mainElement) {
+        setMainElement((Node) null);
+        patternTree = mainElement;
+    }
+
+    public QueryDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Selects the dialect and resets namespace, pathToRoot and returnFormat to its defaults.
+     *
+     * @param dialect the dialect, {@link DefaultDialect#INSTANCE} by default
+     */
+    public XQueryGenerator setDialect(QueryDialect dialect) {
+        this.dialect = dialect;
+        this.namespace = dialect.getNamespace();
+        this.pathToRoot = dialect.getPathToRoot();
+        this.returnFormat = dialect.getReturnFormat();
+        return this;
+    }
+
+    public boolean isFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Compares the subtree sizes and hashes written by {@link CorpusAnnotator} instead of counting children and
+     * comparing string values.
+     *
+     * @param fingerprints true to generate fingerprint constraints
+     */
+    public XQueryGenerator setFingerprints(boolean fingerprints) {
+        this.fingerprints = fingerprints;
+        return this;
+    }
+
+    public SelectivityStatistics getSelectivityStatistics() {
+        return selectivityStatistics;
+    }
+
+    /**
+     * Anchors the default format on the rarest element of the pattern and orders the predicates rarest-first.
+     *
+     * @param selectivityStatistics the statistics of the corpus or null to disable the optimization
+     */
+    public XQueryGenerator setSelectivityStatistics(SelectivityStatistics selectivityStatistics) {
+        this.selectivityStatistics = selectivityStatistics;
+        return this;
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * Limits the estimated cost of the query. With a policy, toString() applies its fallbacks or throws a
+     * {@link QueryRejectedException} for patterns above the budget.
+     *
+     * @param admissionPolicy the budget or null to admit all patterns
+     */
+    public XQueryGenerator setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        this.admissionPolicy = admissionPolicy;
+        return this;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns at most limit hits, see {@link GeneratorConfig.Builder#setLimit(int)}.
+     *
+     * @param limit the maximal number of hits, 0 for all hits
+     */
+    public XQueryGenerator setLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Skips the first hits, see {@link GeneratorConfig.Builder#setOffset(int)}.
+     *
+     * @param offset the number of hits to skip
+     */
+    public XQueryGenerator setOffset(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative");
+        }
+        this.offset = offset;
+        return this;
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    /**
+     * Orders the hits before limit and offset are applied, e.g. by {@code $depth} with findRootApply.
+     * See {@link GeneratorConfig.Builder#setOrderBy(String)}.
+     *
+     * @param orderBy an order spec or the empty string for the natural order
+     */
+    public XQueryGenerator setOrderBy(String orderBy) {
+        this.orderBy = orderBy == null ? "" : orderBy;
+        return this;
+    }
+
+    /**
+     * @return the estimated cost of the query for the current main element and settings, see {@link QueryCost}
+     * @throws QueryRejectedException if an admission policy rejects the pattern
+     */
+    public QueryCost getQueryCost() {
+        final QueryGenerator generator = new QueryGenerator(getConfig());
+        if (patternTree != null) {
+            return generator.generateWithCost(patternTree).getCost();
+        }
+        return generator.generateWithCost(mainElement).getCost();
+    }
+
     public XQueryGenerator setPathToRoot(String pathToRoot) {
         this.pathToRoot = pathToRoot;
         return this;
     }
 
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets a cache for generated queries. If the canonical form of the main element and all settings match a
+     * cached entry, toString() returns the cached query without generating the constraints.
+     *
+     * @param queryCache the cache to use or null to disable caching
+     */
+    public XQueryGenerator setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+        return this;
+    }
+
+    public GenerationListener getGenerationListener() {
+        return generationListener;
+    }
+
+    /**
+     * Reports the figures of every call of toString() to the listener, e.g. to a shared {@link GenerationMetrics}.
+     *
+     * @param generationListener the listener or null to disable the measurement
+     */
+    public XQueryGenerator setGenerationListener(GenerationListener generationListener) {
+        this.generationListener = generationListener;
+        return this;
+    }
+
     /**
-     * Generates the constraints of the XQuery and then builds the XQuery and returns it as a string
+     * Generates the constraints of the XQuery and then builds the XQuery and returns it as a string.
+     * The constraints are kept, so that later calls with a different namespace, path to root, return format or
+     * layout only render the query again.
+     *
+     * Pattern trees bypass the query cache, which is keyed by DOM trees.
      *
      * @return XQuery as string. Returns null if no main element set.
      */
     public String toString() {
-        if (mainElement == null) {
+        if (mainElement == null && patternTree == null) {
             return null;
         }
-        generateConstraints();
-        if (findRootApply) {
-            return getRecursiveString();
-        } else {
-            return getDefaultString();
+        final GeneratorConfig config = getConfig();
+        if (generationListener == null && admissionPolicy == null && (patternTree != null || queryCache == null
+                || compiledPattern != null && compiledPattern.isCompatible(config))) {
+            return new QueryGenerator(config).render(getCompiledPattern());
         }
+        final QueryGenerator generator = new QueryGenerator(config, queryCache, generationListener);
+        return patternTree == null ? generator.generate(mainElement) : generator.generate(patternTree);
     }
 }
@@ -0,0 +1,35 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+/**
+ * XQuery string literals for the dialects.
+ */
+final class XQueryLiterals {
+    private XQueryLiterals() {
+    }
+
+    /**
+     * @return the text as XQuery string literal in single quotes
+     */
+    static String stringLiteral(String text) {
+        return appendStringLiteral(new StringBuilder(text.length() + 2), text).toString();
+    }
+
+    /**
+     * Appends the text in single quotes; quotes are doubled and ampersands escaped, since they start entity
+     * references in XQuery literals.
+     */
+    static StringBuilder appendStringLiteral(StringBuilder out, String text) {
+        out.append('\'');
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '&') {
+                out.append("&amp;");
+            } else if (c == '\'') {
+                out.append("''");
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('\'');
+    }
+}
@@ -0,0 +1,49 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lists the xml inputs of the command line tools.
+ */
+final class XmlFiles {
+    private static final FileFilter XML_FILES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isDirectory() || file.getName().endsWith(".xml");
+        }
+    };
+
+    private XmlFiles() {
+    }
+
+    /**
+     * Lists a file, or all xml files of a directory and its subdirectories. The entries of every directory are
+     * visited in lexicographic order.
+     *
+     * @param input a file or directory
+     * @return the file itself, or the xml files below the directory
+     */
+    static List<File> list(File input) {
+        final List<File> files = new ArrayList<>();
+        add(input, files);
+        return files;
+    }
+
+    private static void add(File input, List<File> files) {
+        if (input.isDirectory()) {
+            final File[] children = input.listFiles(XML_FILES);
+            if (children != null) {
+                Arrays.sort(children);
+                for (final File child : children) {
+                    add(child, files);
+                }
+            }
+        } else {
+            files.add(input);
+        }
+    }
+}
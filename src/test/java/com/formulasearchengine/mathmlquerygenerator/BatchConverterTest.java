@@ -0,0 +1,96 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchConverterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<File> inputs() throws Exception {
+        return Arrays.asList(
+                new File(getClass().getClassLoader().getResource(NtcirTopicReaderTest.WIKIPEDIA_RESOURCE).toURI()),
+                new File(getClass().getClassLoader().getResource(NtcirTopicReaderTest.ARXIV_RESOURCE).toURI()));
+    }
+
+    private static String record(NtcirPattern pattern) {
+        final StringBuilder out = new StringBuilder("{\"num\":");
+        BatchConverter.appendJsonString(out, pattern.getNum());
+        out.append(",\"formulaID\":");
+        BatchConverter.appendJsonString(out, pattern.getFormulaID());
+        out.append(",\"query\":");
+        BatchConverter.appendJsonString(out, pattern.getxQueryExpression());
+        return out.append('}').toString();
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        final StringBuilder expected = new StringBuilder();
+        for (final File input : inputs()) {
+            for (final NtcirPattern pattern : new NtcirTopicReader(input).extractPatterns()) {
+                expected.append(record(pattern)).append('\n');
+            }
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        final long count = new BatchConverter(new QueryGenerator(GeneratorConfig.DEFAULT)).setWorkers(4)
+                .setQueueCapacity(3).setProgress(new PrintStream(progress, true, "UTF-8"), 0)
+                .convert(inputs(), output);
+        assertEquals(155, count);
+        assertEquals(expected.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(new String(progress.toByteArray(), StandardCharsets.UTF_8).contains("155 formulae (0 resumed)"));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        final File checkpoint = folder.newFile("checkpoint.properties");
+        final File complete = folder.newFile("complete.ndjson");
+        final BatchConverter converter = new BatchConverter(new QueryGenerator(GeneratorConfig.DEFAULT))
+                .setWorkers(2).setCheckpoint(checkpoint).setCheckpointInterval(40);
+        assertEquals(155, converter.convert(inputs(), complete, false));
+        final byte[] expected = Files.readAllBytes(complete.toPath());
+        // simulate a crash after the checkpoint at 120 records with a partially written record
+        final File output = folder.newFile("output.ndjson");
+        final int offset = ordinalIndexOf(expected, 120);
+        try (OutputStream os = new FileOutputStream(output)) {
+            os.write(expected, 0, offset + 20);
+        }
+        final Properties properties = new Properties();
+        properties.setProperty("records", "120");
+        properties.setProperty("offset", Integer.toString(offset));
+        try (OutputStream os = new FileOutputStream(checkpoint)) {
+            properties.store(os, null);
+        }
+        assertEquals(155, converter.convert(inputs(), output, true));
+        assertEquals(new String(expected, StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return offset after the given number of lines
+     */
+    private static int ordinalIndexOf(byte[] bytes, int lines) {
+        int seen = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n' && ++seen == lines) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Only " + seen + " lines");
+    }
+}
@@ -0,0 +1,84 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledPatternTest {
+    private static final String QQX2X = "com/formulasearchengine/mathmlquerygenerator/mws/qqx2x.xml";
+
+    private static Node mainElement() throws Exception {
+        final Document query = XMLHelper.String2Doc(getFileContents(QQX2X), true);
+        return XMLHelper.getMainElement(query);
+    }
+
+    @Test
+    public void testRenderWithoutDom() throws Exception {
+        final List<GeneratorConfig> configs = Arrays.asList(GeneratorConfig.DEFAULT,
+                GeneratorConfig.builder().setFindRootApply(true).build(),
+                GeneratorConfig.builder().setFindRootApply(true).setFlatRootApply(true).build(),
+                SaxonQueryExecutor.LOCAL_CONFIG,
+                GeneratorConfig.builder().setNamespace("").setPathToRoot("//*:expr").setReturnFormat("$x/@id")
+                        .setAddQvarMap(false).build());
+        final Node mainElement = mainElement();
+        final CompiledPattern pattern = new QueryGenerator(GeneratorConfig.DEFAULT).compile(mainElement);
+        final String[] expected = new String[configs.size()];
+        for (int i = 0; i < configs.size(); i++) {
+            expected[i] = new QueryGenerator(configs.get(i)).generate(mainElement);
+        }
+        // the compiled pattern must not depend on the DOM anymore
+        while (mainElement.hasChildNodes()) {
+            mainElement.removeChild(mainElement.getFirstChild());
+        }
+        for (int i = 0; i < configs.size(); i++) {
+            assertTrue(pattern.isCompatible(configs.get(i)));
+            assertEquals(expected[i], new QueryGenerator(configs.get(i)).render(pattern));
+        }
+        assertEquals("apply", pattern.getRootName());
+        assertEquals(Arrays.asList("/*[2]/*[2]", "/*[3]"), pattern.getQvar().get("x"));
+    }
+
+    @Test
+    public void testQvarGetterReturnsCopy() throws Exception {
+        final XQueryGenerator generator = new XQueryGenerator(XMLHelper.String2Doc(getFileContents(QQX2X), true));
+        final String query = generator.toString();
+        generator.getQvar().get("x").clear();
+        generator.getQvar().clear();
+        assertEquals(Arrays.asList("/*[2]/*[2]", "/*[3]"), generator.getCompiledPattern().getQvar().get("x"));
+        assertEquals(query, generator.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatible() throws Exception {
+        final CompiledPattern pattern = new QueryGenerator(GeneratorConfig.DEFAULT).compile(mainElement());
+        final GeneratorConfig unrestricted = GeneratorConfig.builder().setRestrictLength(false).build();
+        assertFalse(pattern.isCompatible(unrestricted));
+        new QueryGenerator(unrestricted).render(pattern);
+    }
+
+    @Test
+    public void testGeneratorReusesPattern() throws Exception {
+        final XQueryGenerator generator = new XQueryGenerator(XMLHelper.String2Doc(getFileContents(QQX2X), true));
+        final String defaultQuery = generator.toString();
+        final CompiledPattern pattern = generator.getCompiledPattern();
+        final String recursive = generator.setFindRootApply(true).setReturnFormat("$x").toString();
+        assertTrue(pattern == generator.getCompiledPattern());
+        assertEquals(new QueryGenerator(GeneratorConfig.builder().setFindRootApply(true).setReturnFormat("$x")
+                .build()).generate(mainElement()), recursive);
+        // restrictLength changes the compiled constraints
+        final String unrestricted = generator.setFindRootApply(false).setReturnFormat(
+                GeneratorConfig.DEFAULT_RETURN_FORMAT).setRestrictLength(false).toString();
+        assertFalse(pattern == generator.getCompiledPattern());
+        assertFalse(unrestricted.equals(defaultQuery));
+        assertEquals(defaultQuery, generator.setRestrictLength(true).toString());
+    }
+}
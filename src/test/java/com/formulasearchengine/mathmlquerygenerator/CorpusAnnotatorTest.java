@@ -0,0 +1,125 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import net.sf.saxon.s9api.XdmItem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CorpusAnnotatorTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+    private static final List<String> QUERIES = Arrays.asList("mws/q1.xml", "mws/q2.xml", "mws/q3.xml",
+            "mws/qqx2.xml", "mws/qqx2x.xml", "mws/qqx2xy.xml", "mws/qxy.xml", "cmml/q1.xml",
+            "formats/plainCMML.xml");
+    private static final String IDS = "string($x/ancestor::*:math/@id)";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File corpus() throws Exception {
+        return new File(getClass().getClassLoader().getResource(RESOURCES + "corpus").toURI());
+    }
+
+    private static List<String> sortedHits(SaxonQueryExecutor executor, String query, File corpus)
+            throws Exception {
+        final List<String> hits = new ArrayList<>();
+        for (final XdmItem item : executor.executeToList(query, corpus)) {
+            hits.add(item.getStringValue());
+        }
+        Collections.sort(hits);
+        return hits;
+    }
+
+    @Test
+    public void testAnnotateElement() throws Exception {
+        final Document doc = XMLHelper.String2Doc("<apply><plus/><apply><ci>x</ci><ci>y</ci></apply>"
+                + "<apply>\n  <ci> x </ci>\n  <ci>y</ci>\n</apply><apply><ci>y</ci><ci>x</ci></apply></apply>", true);
+        final Element root = doc.getDocumentElement();
+        CorpusAnnotator.annotate(root);
+        final Element[] children = new Element[4];
+        int i = 0;
+        for (org.w3c.dom.Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            children[i++] = (Element) child;
+        }
+        assertEquals("11", root.getAttribute(CorpusAnnotator.SIZE_ATTRIBUTE));
+        assertEquals("1", children[0].getAttribute(CorpusAnnotator.SIZE_ATTRIBUTE));
+        assertEquals("3", children[1].getAttribute(CorpusAnnotator.SIZE_ATTRIBUTE));
+        // whitespace does not change the hash, the order of the children does
+        assertEquals(children[1].getAttribute(CorpusAnnotator.HASH_ATTRIBUTE),
+                children[2].getAttribute(CorpusAnnotator.HASH_ATTRIBUTE));
+        assertNotEquals(children[1].getAttribute(CorpusAnnotator.HASH_ATTRIBUTE),
+                children[3].getAttribute(CorpusAnnotator.HASH_ATTRIBUTE));
+    }
+
+    @Test
+    public void testFingerprintQuery() throws Exception {
+        final Document query = XMLHelper.String2Doc(getFileContents(RESOURCES + "mws/qqx2x.xml"), true);
+        final String xQuery = new QueryGenerator(GeneratorConfig.builder().setFingerprints(true).build())
+                .generate(query);
+        assertFalse(xQuery, xQuery.contains("fn:count"));
+        assertTrue(xQuery, xQuery.contains("$x/@mqg-size = 5 + $x/*[2]/*[2]/@mqg-size + $x/*[3]/@mqg-size"));
+        assertTrue(xQuery, xQuery.contains("$x/*[2]/*[2]/@mqg-hash = $x/*[3]/@mqg-hash"));
+        final String unrestricted = new QueryGenerator(GeneratorConfig.builder().setFingerprints(true)
+                .setRestrictLength(false).build()).generate(query);
+        assertFalse(unrestricted, unrestricted.contains("@mqg-size"));
+    }
+
+    @Test
+    public void testDirectoriesAreMirrored() throws Exception {
+        final File input = folder.newFolder("input", "nested");
+        final File source = new File(corpus(), "algebra.xml");
+        Files.copy(source.toPath(), new File(input, "algebra.xml").toPath());
+        final File output = new File(folder.getRoot(), "output");
+        CorpusAnnotator.annotate(input.getParentFile(), output);
+        assertTrue(new File(output, "nested/algebra.xml").isFile());
+        final File single = folder.newFile("single.xml");
+        CorpusAnnotator.annotate(source, single);
+        assertTrue(single.length() > 0);
+    }
+
+    @Test
+    public void testAnnotatedCorpus() throws Exception {
+        final File corpus = corpus();
+        final File annotated = folder.newFolder("annotated");
+        CorpusAnnotator.annotate(corpus, annotated);
+        assertEquals(corpus.list().length, annotated.list().length);
+        final GeneratorConfig plain = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder().setReturnFormat(IDS).build();
+        final GeneratorConfig fingerprints = plain.toBuilder().setFingerprints(true).build();
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        int total = 0;
+        for (final String name : QUERIES) {
+            final Document query = XMLHelper.String2Doc(getFileContents(RESOURCES + name), true);
+            final List<String> expected = sortedHits(executor, new QueryGenerator(plain).generate(query), corpus);
+            final List<String> actual = sortedHits(executor, new QueryGenerator(fingerprints).generate(query),
+                    annotated);
+            if ("mws/qqx2x.xml".equals(name)) {
+                // (x+y) is indented differently in both places, so only the hashes are equal
+                assertFalse(expected.contains("nested.3"));
+                expected.add("nested.3");
+                Collections.sort(expected);
+            }
+            assertEquals(name, expected, actual);
+            total += expected.size();
+        }
+        assertTrue(total > 0);
+        // the annotated corpus still answers the plain queries
+        final Document query = XMLHelper.String2Doc(getFileContents(RESOURCES + "mws/qxy.xml"), true);
+        final String xQuery = new QueryGenerator(plain).generate(query);
+        assertEquals(sortedHits(executor, xQuery, corpus), sortedHits(executor, xQuery, annotated));
+    }
+}
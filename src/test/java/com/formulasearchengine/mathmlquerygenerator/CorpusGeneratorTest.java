@@ -0,0 +1,169 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CorpusGeneratorTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] generate(CorpusModel model, long seed, List<NtcirPattern> patterns) throws Exception {
+        final CorpusGenerator generator = new CorpusGenerator(model, seed).setPatterns(patterns, 0.2);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.write(out, 200, null);
+        return out.toByteArray();
+    }
+
+    private static List<NtcirPattern> patterns() throws Exception {
+        final List<NtcirPattern> patterns = new ArrayList<>();
+        for (final String name : Arrays.asList("q2", "q3", "qqx2x", "qqx2xy", "qxy")) {
+            final String xml = getFileContents(RESOURCES + "mws/" + name + ".xml");
+            patterns.add(new NtcirPattern(name, name, null, DocumentParser.parse(xml).getDocumentElement()));
+        }
+        return patterns;
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        final CorpusModel model = CorpusModel.defaults();
+        final byte[] corpus = generate(model, 42, patterns());
+        assertArrayEquals(corpus, generate(model, 42, patterns()));
+        assertFalse(Arrays.equals(corpus, generate(model, 43, patterns())));
+        final Document document = DocumentParser.parse(new String(corpus, "UTF-8"));
+        assertEquals(200, document.getElementsByTagNameNS(CorpusGenerator.MATHML_NAMESPACE, "math").getLength());
+    }
+
+    @Test
+    public void testSplitIntoFiles() throws Exception {
+        final CorpusGenerator generator = new CorpusGenerator(CorpusModel.defaults(), 7).setPatterns(patterns(), 0.2);
+        final File single = folder.newFile("single.xml");
+        final File directory = new File(folder.getRoot(), "split");
+        final long planted = generator.write(single, 250, 0, null);
+        assertEquals(planted, generator.write(directory, 250, 100, null));
+        final String[] files = directory.list();
+        Arrays.sort(files);
+        assertEquals(Arrays.asList("synthetic-000000.xml", "synthetic-000001.xml", "synthetic-000002.xml"),
+                Arrays.asList(files));
+        final List<String> formulae = new ArrayList<>();
+        for (final String name : files) {
+            formulae.addAll(formulae(new File(directory, name)));
+        }
+        assertEquals(formulae(single), formulae);
+    }
+
+    @Test
+    public void testMaxDepthWithoutSample() throws Exception {
+        final File output = folder.newFile("flat.xml");
+        CorpusGenerator.main(new String[]{"--formulae", "100", "--max-depth", "1", output.getPath()});
+        final Document document = DocumentParser.parse(new String(Files.readAllBytes(output.toPath()), "UTF-8"));
+        final NodeList applies = document.getElementsByTagNameNS(CorpusGenerator.MATHML_NAMESPACE, "apply");
+        assertTrue(applies.getLength() > 0);
+        for (int i = 0; i < applies.getLength(); i++) {
+            assertEquals(0, ((Element) applies.item(i)).getElementsByTagNameNS(CorpusGenerator.MATHML_NAMESPACE,
+                    "apply").getLength());
+        }
+        assertEquals(1, CorpusModel.defaultsBuilder().setMaxDepth(1).build().getMaxDepth());
+        try {
+            CorpusModel.builder().setMaxDepth(0);
+            fail("a maximum depth of 0 was accepted");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("at least 1"));
+        }
+    }
+
+    @Test
+    public void testLearn() throws Exception {
+        final File sample = new File(getClass().getClassLoader().getResource(RESOURCES + "corpus").toURI());
+        final CorpusModel model = CorpusModel.builder().learn(sample).build();
+        assertTrue(model.getOperatorWeights().containsKey("plus"));
+        assertTrue(model.getLeafWeights().containsKey("ci x"));
+        assertTrue(model.getApplyProbability(1) > 0);
+        assertEquals(0, model.getApplyProbability(model.getMaxDepth()), 0);
+        final Set<String> names = new HashSet<>();
+        for (final String operator : model.getOperatorWeights().keySet()) {
+            names.add(operator.split(" ")[0]);
+        }
+        final byte[] corpus = generate(model, 1, new ArrayList<NtcirPattern>());
+        final Document document = DocumentParser.parse(new String(corpus, "UTF-8"));
+        for (final Node apply : new NonWhitespaceNodeList(document.getElementsByTagName("apply"))) {
+            final String operator = NonWhitespaceNodeList.getFirstChild(apply).getLocalName();
+            assertTrue(operator, names.contains(operator));
+        }
+    }
+
+    @Test
+    public void testPlantedMatchesAreFound() throws Exception {
+        final List<NtcirPattern> patterns = patterns();
+        final Map<String, NtcirPattern> planted = new LinkedHashMap<>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CorpusGenerator(CorpusModel.defaults(), 3).setPatterns(patterns, 0.3)
+                .write(out, 500, new CorpusGenerator.PlantCallback() {
+                    @Override
+                    public void planted(String formulaId, NtcirPattern pattern) {
+                        planted.put(formulaId, pattern);
+                    }
+                });
+        assertTrue(planted.size() > 100);
+        final Document document = DocumentParser.parse(new String(out.toByteArray(), "UTF-8"));
+        for (final boolean restrictLength : new boolean[]{true, false}) {
+            final GeneratorConfig config = GeneratorConfig.builder().setRestrictLength(restrictLength).build();
+            for (final NtcirPattern pattern : patterns) {
+                final Set<String> hits = new HashSet<>();
+                PatternMatcher.compile(NonWhitespaceNodeList.getFirstChild(pattern.getMathMLNode()), config)
+                        .matchDocument(document, new PatternMatcher.MatchCallback() {
+                            @Override
+                            public void onMatch(Node hit) {
+                                Node math = hit;
+                                while (!"math".equals(math.getLocalName())) {
+                                    math = math.getParentNode();
+                                }
+                                hits.add(((Element) math).getAttribute("id"));
+                            }
+                        });
+                for (final Map.Entry<String, NtcirPattern> entry : planted.entrySet()) {
+                    if (entry.getValue() == pattern) {
+                        assertTrue(pattern.getNum() + " in " + entry.getKey(), hits.contains(entry.getKey()));
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<String> formulae(File file) throws Exception {
+        final String xml = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        final List<String> formulae = new ArrayList<>();
+        int start = xml.indexOf("<math");
+        while (start >= 0) {
+            final int end = xml.indexOf("</math>", start) + "</math>".length();
+            formulae.add(xml.substring(start, end));
+            start = xml.indexOf("<math", end);
+        }
+        return formulae;
+    }
+}
@@ -0,0 +1,97 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DocumentParserTest {
+    static final String DOCTYPE = "<!DOCTYPE math PUBLIC \"" + DocumentParser.MATHML_DTD_PUBLIC_ID + "\" \""
+            + DocumentParser.MATHML_DTD_SYSTEM_ID + "\">\n";
+    private static final String ENTITIES = DOCTYPE + "<math xmlns=\"http://www.w3.org/1998/Math/MathML\">\n"
+            + "  <mrow>\n    <mi>&alpha;</mi>\n    <mo>&InvisibleTimes;</mo>\n    <mi>&Rfr;</mi>\n  </mrow>\n</math>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameAsXmlHelper() throws Exception {
+        for (final String resource : Arrays.asList("com/formulasearchengine/mathmlquerygenerator/mws/qqx2x.xml",
+                "com/formulasearchengine/mathmlquerygenerator/cmml/q1.xml", NtcirTopicReaderTest.WIKIPEDIA_RESOURCE)) {
+            final String xml = getFileContents(resource);
+            final Document expected = XMLHelper.String2Doc(xml, true);
+            assertTrue(resource, expected.isEqualNode(DocumentParser.parse(xml)));
+            assertTrue(resource, expected.isEqualNode(DocumentParser.parse(xml, DocumentParser.Mode.FAST)));
+        }
+    }
+
+    @Test
+    public void testFlatDtd() throws Exception {
+        final Document expected = XMLHelper.String2Doc(ENTITIES, true);
+        final Document actual = DocumentParser.parse(ENTITIES);
+        assertTrue(expected.getDocumentElement().isEqualNode(actual.getDocumentElement()));
+        assertEquals("α", actual.getElementsByTagNameNS("*", "mi").item(0).getTextContent());
+        // the flat DTD declares the same general entities
+        assertEquals(expected.getDoctype().getEntities().getLength(), actual.getDoctype().getEntities().getLength());
+        // ignorable whitespace between element-only content is dropped as with the full DTD
+        assertEquals(expected.getDocumentElement().getChildNodes().getLength(),
+                actual.getDocumentElement().getChildNodes().getLength());
+    }
+
+    @Test
+    public void testFastModeSkipsDtd() throws Exception {
+        final Document fast = DocumentParser.parse(ENTITIES, DocumentParser.Mode.FAST);
+        assertEquals("", fast.getElementsByTagNameNS("*", "mi").item(0).getTextContent());
+    }
+
+    @Test
+    public void testExternalEntitiesAreNotResolved() throws Exception {
+        final File secret = folder.newFile("secret.txt");
+        Files.write(secret.toPath(), "SECRET_TOKEN".getBytes(StandardCharsets.UTF_8));
+        final File dtd = folder.newFile("entities.dtd");
+        Files.write(dtd.toPath(), "<!ENTITY f 'FROM_DTD'>".getBytes(StandardCharsets.UTF_8));
+        final String uri = secret.toURI().toString();
+        final String general = "<!DOCTYPE math [<!ENTITY e SYSTEM \"" + uri + "\">]><math><ci>&e;</ci></math>";
+        final String parameter = "<!DOCTYPE math [<!ENTITY % p SYSTEM \"" + dtd.toURI() + "\"> %p;]>"
+                + "<math><ci>&f;</ci></math>";
+        final String external = "<!DOCTYPE math SYSTEM \"" + dtd.toURI() + "\"><math><ci>&f;</ci></math>";
+        for (final DocumentParser.Mode mode : DocumentParser.Mode.values()) {
+            for (final String xml : Arrays.asList(general, parameter, external)) {
+                String text;
+                try {
+                    text = DocumentParser.parse(xml, mode).getDocumentElement().getTextContent();
+                } catch (final SAXException e) {
+                    // an undeclared entity is fatal once the internal subset references a parameter entity
+                    text = e.getMessage();
+                }
+                assertFalse(xml, text.contains("SECRET_TOKEN") || text.contains("FROM_DTD"));
+            }
+        }
+        assertEquals("", DocumentParser.parse(general).getDocumentElement().getTextContent());
+    }
+
+    @Test(expected = SAXException.class)
+    public void testMalformed() throws Exception {
+        DocumentParser.parse("<math><mi></math>");
+    }
+
+    @Test
+    public void testBuilderPerThread() throws Exception {
+        assertTrue(DocumentParser.getDocumentBuilder(DocumentParser.Mode.DEFAULT)
+                == DocumentParser.getDocumentBuilder(DocumentParser.Mode.DEFAULT));
+        assertTrue(DocumentParser.getDocumentBuilder(DocumentParser.Mode.DEFAULT)
+                != DocumentParser.getDocumentBuilder(DocumentParser.Mode.FAST));
+    }
+}
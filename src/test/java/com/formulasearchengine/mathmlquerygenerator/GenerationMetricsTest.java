@@ -0,0 +1,95 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GenerationMetricsTest {
+    private static final String QQX2X = "com/formulasearchengine/mathmlquerygenerator/mws/qqx2x.xml";
+
+    @Test
+    public void testEvent() throws Exception {
+        final List<GenerationEvent> events = new ArrayList<>();
+        final Document query = XMLHelper.String2Doc(getFileContents(QQX2X), true);
+        final XQueryGenerator generator = new XQueryGenerator(query).setGenerationListener(new GenerationListener() {
+            @Override
+            public void generated(Node mainElement, GenerationEvent event) {
+                events.add(event);
+            }
+        });
+        final String xQuery = generator.toString();
+        assertEquals(new XQueryGenerator(query).toString(), xQuery);
+        assertEquals(1, events.size());
+        final GenerationEvent event = events.get(0);
+        assertFalse(event.isCacheHit());
+        assertEquals(7, event.getNodeCount());
+        assertEquals(2, event.getMaxDepth());
+        assertEquals(1, event.getQvarCount());
+        assertEquals(1, event.getQvarRepetitions());
+        assertEquals(4, event.getLengthConstraintCount());
+        assertEquals(xQuery.length(), event.getQueryLength());
+        assertTrue(event.getWallTimeNanos() > 0);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final GenerationMetrics metrics = new GenerationMetrics();
+        final Document query = XMLHelper.String2Doc(getFileContents(QQX2X), true);
+        final QueryCache cache = new QueryCache();
+        final QueryGenerator generator = new QueryGenerator(GeneratorConfig.DEFAULT, cache, metrics);
+        final String xQuery = generator.generate(query);
+        assertEquals(xQuery, generator.generate(query));
+        assertEquals(2, metrics.getGenerationCount());
+        assertEquals(1, metrics.getCacheHitCount());
+        assertEquals(7, metrics.getNodeCount());
+        assertEquals(2, metrics.getMaxDepth());
+        assertEquals(xQuery.length(), metrics.getMaxQueryLength());
+        assertEquals(xQuery.length(), metrics.getMeanQueryLength(), 0.0);
+        assertTrue(metrics.getQueryLength99() >= xQuery.length());
+        assertTrue(metrics.getQueryLength99() < 2 * xQuery.length());
+        assertTrue(metrics.getWallTimeMicros99() >= metrics.getWallTimeMicros50());
+        metrics.reset();
+        assertEquals(0, metrics.getGenerationCount());
+        assertEquals(0, metrics.getQueryLength99());
+    }
+
+    @Test
+    public void testTopicReader() throws Exception {
+        final GenerationMetrics metrics = new GenerationMetrics();
+        final NtcirTopicReader reader = new NtcirTopicReader(new File(getClass().getClassLoader()
+                .getResource(NtcirTopicReaderTest.WIKIPEDIA_RESOURCE).toURI()))
+                .setParallelism(2).setGenerationListener(metrics);
+        assertEquals(reader.extractPatterns().size(), metrics.getGenerationCount());
+        assertTrue(metrics.getMaxNodeCount() > 7);
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        final GenerationMetrics metrics = new GenerationMetrics();
+        final ObjectName name = metrics.register(new ObjectName(GenerationMetrics.DEFAULT_OBJECT_NAME + ",test=jmx"));
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            new QueryGenerator(GeneratorConfig.DEFAULT, null, metrics)
+                    .generate(XMLHelper.String2Doc(getFileContents(QQX2X), true));
+            assertEquals(1L, server.getAttribute(name, "GenerationCount"));
+            assertEquals(4L, server.getAttribute(name, "LengthConstraintCount"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "GenerationCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexAdvisorTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+
+    private static IndexAdvisor advise(GeneratorConfig config, String... queries) throws Exception {
+        final IndexAdvisor advisor = new IndexAdvisor("math", "math_mathml", config);
+        for (final String query : queries) {
+            advisor.add(XMLHelper.getMainElement(XMLHelper.String2Doc(getFileContents(RESOURCES + query), true)));
+        }
+        return advisor;
+    }
+
+    @Test
+    public void testTextIndexes() throws Exception {
+        final List<IndexRecommendation> db2 = advise(GeneratorConfig.DEFAULT, "mws/qqx2x.xml", "mws/qxy.xml")
+                .recommend(IndexRecommendation.Target.DB2);
+        // qqx2x compares the texts of csymbol and cn, qxy only contains qvars
+        assertEquals(2, db2.size());
+        assertEquals("-- text comparisons on cn, helps 1 of 2 patterns\n"
+                + "CREATE INDEX math_math_mathml_cn_text ON math(math_mathml) GENERATE KEY USING XMLPATTERN "
+                + "'declare default element namespace \"http://www.w3.org/1998/Math/MathML\"; //cn/text()' "
+                + "AS SQL VARCHAR(256)", db2.get(0).toString());
+        final List<IndexRecommendation> basex = advise(GeneratorConfig.DEFAULT, "mws/qqx2x.xml", "mws/qxy.xml")
+                .recommend(IndexRecommendation.Target.BASEX);
+        assertEquals(1, basex.size());
+        assertEquals("SET TEXTINCLUDE cn,csymbol\nCREATE INDEX text", basex.get(0).getStatement());
+    }
+
+    @Test
+    public void testFingerprintIndexes() throws Exception {
+        final GeneratorConfig fingerprints = GeneratorConfig.builder().setFingerprints(true).build();
+        final List<IndexRecommendation> db2 = advise(fingerprints, "mws/qqx2x.xml", "mws/qxy.xml", "mws/q1.xml")
+                .recommend(IndexRecommendation.Target.DB2);
+        // all three patterns have length constraints, only qqx2x repeats a qvar
+        assertEquals(3, db2.get(0).getPatternCount());
+        assertTrue(db2.get(0).getStatement().endsWith("//@mqg-size' AS SQL DOUBLE"));
+        final IndexRecommendation hash = db2.get(db2.size() - 1);
+        assertEquals(1, hash.getPatternCount());
+        assertTrue(hash.getStatement().endsWith("//@mqg-hash' AS SQL VARCHAR(16)"));
+        // without fingerprints neither constraint can use an index
+        for (final IndexRecommendation recommendation : advise(GeneratorConfig.DEFAULT, "mws/qxy.xml").recommend()) {
+            assertTrue(recommendation.getStatement(), !recommendation.getStatement().contains("mqg-"));
+        }
+    }
+
+    @Test
+    public void testTopicWorkload() throws Exception {
+        final File topics = new File(getClass().getClassLoader()
+                .getResource(NtcirTopicReaderTest.WIKIPEDIA_RESOURCE).toURI());
+        final IndexAdvisor advisor = new IndexAdvisor().addAll(new NtcirTopicReader(topics).extractPatterns());
+        assertEquals(100, advisor.getPatternCount());
+        final List<IndexRecommendation> recommendations = advisor.recommend();
+        assertTrue(recommendations.size() > 2);
+        for (int i = 1; i < recommendations.size(); i++) {
+            assertTrue(recommendations.get(i - 1).getPatternCount() >= recommendations.get(i).getPatternCount());
+            assertTrue(recommendations.get(i).getPatternCount() <= 100);
+        }
+    }
+}
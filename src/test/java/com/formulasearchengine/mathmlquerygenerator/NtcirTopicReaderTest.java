@@ -1,21 +1,33 @@
 package com.formulasearchengine.mathmlquerygenerator;
 
 import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class NtcirTopicReaderTest {
     public static final String BASEX_NAMESPACE = "declare default element namespace \"http://www.w3.org/1998/Math/MathML\";";
@@ -110,4 +122,174 @@ public class NtcirTopicReaderTest {
         new NtcirTopicReader(topics);
         new NtcirTopicReader(topics, "", "", "", false);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelExtraction() throws Exception {
+        for (final String resource : new String[]{WIKIPEDIA_RESOURCE, ARXIV_RESOURCE}) {
+            final List<NtcirPattern> sequential = getTopicReader(resource).extractPatterns();
+            final List<NtcirPattern> parallel = getTopicReader(resource).setParallelism(4).extractPatterns();
+            assertEquals(sequential.size(), parallel.size());
+            for (int i = 0; i < sequential.size(); i++) {
+                assertEquals(sequential.get(i).getNum(), parallel.get(i).getNum());
+                assertEquals(sequential.get(i).getFormulaID(), parallel.get(i).getFormulaID());
+                assertEquals(sequential.get(i).getxQueryExpression(), parallel.get(i).getxQueryExpression());
+            }
+            final QueryCache cache = new QueryCache();
+            getTopicReader(resource).setQueryCache(cache).setParallelism(4).extractPatterns();
+            final List<NtcirPattern> cached = getTopicReader(resource).setQueryCache(cache).setParallelism(4)
+                    .extractPatterns();
+            assertEquals(sequential.size(), cache.getHitCount());
+            for (int i = 0; i < sequential.size(); i++) {
+                assertEquals(sequential.get(i).getxQueryExpression(), cached.get(i).getxQueryExpression());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelExtractionWithListenerAndCache() throws Exception {
+        for (final String resource : new String[]{WIKIPEDIA_RESOURCE, ARXIV_RESOURCE}) {
+            final long[] sequential = events(getTopicReader(resource), new QueryCache());
+            final long[] parallel = events(getTopicReader(resource).setParallelism(4), new QueryCache());
+            assertArrayEquals(sequential, parallel);
+        }
+    }
+
+    /**
+     * Extracts the patterns twice with the same cache and sums up the events of both runs.
+     *
+     * @return events, cache hits, node count and query length of the first run, then events and hits of the second
+     */
+    private static long[] events(NtcirTopicReader reader, QueryCache cache) throws Exception {
+        final long[] sums = new long[6];
+        final int[] offset = new int[1];
+        reader.setQueryCache(cache).setGenerationListener(new GenerationListener() {
+            @Override
+            public void generated(Node mainElement, GenerationEvent event) {
+                assertEquals(Node.ELEMENT_NODE, mainElement.getNodeType());
+                sums[offset[0]]++;
+                sums[offset[0] + 1] += event.isCacheHit() ? 1 : 0;
+                if (offset[0] == 0) {
+                    sums[2] += event.getNodeCount();
+                    sums[3] += event.getQueryLength();
+                }
+            }
+        });
+        final int size = reader.extractPatterns().size();
+        offset[0] = 4;
+        reader.extractPatterns();
+        assertEquals(size, sums[4]);
+        assertEquals(size, sums[5]);
+        return sums;
+    }
+
+    @Test
+    public void testBatchQuery() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final XdmNode corpus = executor.getProcessor().newDocumentBuilder()
+                .build(new StreamSource(new StringReader(TopicCorpus.mathCorpus(WIKIPEDIA_RESOURCE))));
+        final String positionPath = "string-join(for $a in $x/ancestor-or-self::* "
+                + "return string(count($a/preceding-sibling::*) + 1), '/')";
+        for (final boolean[] layout : new boolean[][]{{false, false}, {true, false}, {true, true}}) {
+            final NtcirTopicReader tr = getTopicReader(WIKIPEDIA_RESOURCE).setFindRootApply(layout[0])
+                    .setFlatRootApply(layout[1])
+                    .setPathToRoot(SaxonQueryExecutor.LOCAL_CONFIG.getPathToRoot()).setReturnFormat(positionPath);
+            final List<String> expected = new ArrayList<>();
+            for (final NtcirPattern pattern : tr.extractPatterns()) {
+                for (final XdmItem hit : execute(executor, pattern.getxQueryExpression(), corpus)) {
+                    expected.add(pattern.getNum() + " " + pattern.getFormulaID() + " " + hit.getStringValue());
+                }
+            }
+            final List<String> actual = new ArrayList<>();
+            for (final XdmItem hit : execute(executor, tr.extractBatchQuery(), corpus)) {
+                final XdmNode node = (XdmNode) hit;
+                actual.add(node.getAttributeValue(new QName("num")) + " "
+                        + node.getAttributeValue(new QName("formulaID")) + " " + node.getStringValue());
+            }
+            // the batch query reports the hits in corpus order instead of pattern order
+            Collections.sort(expected);
+            Collections.sort(actual);
+            // every formula of the topic file is part of the corpus and matches at least itself
+            assertTrue(expected.size() >= 100);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testFlatRootApply() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final XdmNode corpus = executor.getProcessor().newDocumentBuilder()
+                .build(new StreamSource(new StringReader(TopicCorpus.mathCorpus(WIKIPEDIA_RESOURCE))));
+        final String positionPath = "string-join(for $a in $x/ancestor-or-self::* "
+                + "return string(count($a/preceding-sibling::*) + 1), '/')";
+        final String returnFormat = "concat(" + positionPath + ", ' ', $depth, ' ', "
+                + positionPath.replace("$x", "$rootApply") + ")";
+        final NtcirTopicReader recursive = getTopicReader(WIKIPEDIA_RESOURCE).setFindRootApply(true)
+                .setPathToRoot(SaxonQueryExecutor.LOCAL_CONFIG.getPathToRoot()).setReturnFormat(returnFormat);
+        final NtcirTopicReader flat = getTopicReader(WIKIPEDIA_RESOURCE).setFindRootApply(true).setFlatRootApply(true)
+                .setPathToRoot(SaxonQueryExecutor.LOCAL_CONFIG.getPathToRoot()).setReturnFormat(returnFormat);
+        final List<NtcirPattern> recursivePatterns = recursive.extractPatterns();
+        final List<NtcirPattern> flatPatterns = flat.extractPatterns();
+        assertEquals(recursivePatterns.size(), flatPatterns.size());
+        int total = 0;
+        boolean nested = false;
+        for (int i = 0; i < recursivePatterns.size(); i++) {
+            final String flatQuery = flatPatterns.get(i).getxQueryExpression();
+            assertFalse(flatQuery.contains("local:compareApply"));
+            final List<String> expected = new ArrayList<>();
+            for (final XdmItem hit : execute(executor, recursivePatterns.get(i).getxQueryExpression(), corpus)) {
+                expected.add(hit.getStringValue());
+            }
+            final List<String> actual = new ArrayList<>();
+            for (final XdmItem hit : execute(executor, flatQuery, corpus)) {
+                actual.add(hit.getStringValue());
+                nested |= !hit.getStringValue().contains(" 0 ");
+            }
+            // the recursive form returns the hits in post-order, the flat form in document order
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(recursivePatterns.get(i).getNum(), expected, actual);
+            total += expected.size();
+        }
+        assertTrue(total >= 100);
+        // some hits are below their root apply, so $depth and $rootApply are actually compared
+        assertTrue(nested);
+    }
+
+    @Test
+    public void testRootApplyLayoutDifferences() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        // $m is an apply itself, once without and once with a prefix
+        final XdmNode corpus = executor.getProcessor().newDocumentBuilder().build(new StreamSource(new StringReader(
+                "<r><apply><plus/><ci>a</ci><ci>b</ci></apply>"
+                        + "<m:apply xmlns:m=\"http://www.w3.org/1998/Math/MathML\"><plus/><ci>a</ci><ci>b</ci>"
+                        + "</m:apply></r>")));
+        final Document pattern = XMLHelper.String2Doc("<mws:query xmlns:mws=\"http://search.mathweb.org/ns\">"
+                + "<mws:expr><apply><plus/><ci>a</ci><ci>b</ci></apply></mws:expr></mws:query>", true);
+        final GeneratorConfig.Builder builder = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder().setFindRootApply(true)
+                .setPathToRoot("/*/*").setReturnFormat("concat(name($x), ' ', $depth, ' ', count($rootApply))");
+        final List<String> recursive = new ArrayList<>();
+        for (final XdmItem hit : execute(executor, new QueryGenerator(builder.build()).generate(pattern), corpus)) {
+            recursive.add(hit.getStringValue());
+        }
+        final List<String> flat = new ArrayList<>();
+        for (final XdmItem hit : execute(executor,
+                new QueryGenerator(builder.setFlatRootApply(true).build()).generate(pattern), corpus)) {
+            flat.add(hit.getStringValue());
+        }
+        // both forms test $m itself; only the flat form's *:apply selects the prefixed apply
+        assertEquals(Collections.singletonList("apply 0 0"), recursive);
+        assertEquals(Arrays.asList("apply 0 0", "m:apply 0 0"), flat);
+    }
+
+    private static List<XdmItem> execute(SaxonQueryExecutor executor, String query, XdmNode document)
+            throws Exception {
+        final List<XdmItem> hits = new ArrayList<>();
+        executor.execute(query, document, new SaxonQueryExecutor.HitCallback() {
+            @Override
+            public void onHit(File source, XdmItem hit) {
+                hits.add(hit);
+            }
+        });
+        return hits;
+    }
+}
@@ -0,0 +1,113 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.NtcirTopicReaderTest.ARXIV_RESOURCE;
+import static com.formulasearchengine.mathmlquerygenerator.NtcirTopicReaderTest.WIKIPEDIA_RESOURCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NtcirTopicStreamReaderTest {
+
+    private static final String TOPICS_START = "<topics xmlns=\"http://ntcir-math.nii.ac.jp/\" "
+            + "xmlns:m=\"http://www.w3.org/1998/Math/MathML\">";
+    private static final String FORMULA = "<query><formula id=\"f\"><m:math><m:ci>x</m:ci></m:math></formula></query>";
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File getResource(String resourceName) throws Exception {
+        return new File(getClass().getClassLoader().getResource(resourceName).toURI());
+    }
+
+    private void assertSamePatterns(String resourceName, GeneratorConfig config) throws Exception {
+        final List<NtcirPattern> expected = new NtcirTopicReader(getResource(resourceName))
+                .setAddQvarMap(config.isAddQvarMap()).setFindRootApply(config.isFindRootApply()).extractPatterns();
+        final List<NtcirPattern> actual = new ArrayList<>();
+        try (NtcirTopicStreamReader reader = new NtcirTopicStreamReader(getResource(resourceName),
+                new QueryGenerator(config))) {
+            for (final NtcirPattern pattern : reader) {
+                actual.add(pattern);
+            }
+            assertFalse(reader.hasNext());
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getNum(), actual.get(i).getNum());
+            assertEquals(expected.get(i).getFormulaID(), actual.get(i).getFormulaID());
+            assertEquals(expected.get(i).getxQueryExpression(), actual.get(i).getxQueryExpression());
+            assertEquals(expected.get(i).getMathMLNode().getNodeName(), actual.get(i).getMathMLNode().getNodeName());
+            assertEquals(expected.get(i).getMathMLNode().getNamespaceURI(),
+                    actual.get(i).getMathMLNode().getNamespaceURI());
+        }
+    }
+
+    @Test
+    public void testSameAsDomReader() throws Exception {
+        assertSamePatterns(WIKIPEDIA_RESOURCE, GeneratorConfig.DEFAULT);
+        assertSamePatterns(ARXIV_RESOURCE, GeneratorConfig.DEFAULT);
+    }
+
+    @Test
+    public void testSameAsDomReaderRecursive() throws Exception {
+        final GeneratorConfig config = GeneratorConfig.DEFAULT.toBuilder().setFindRootApply(true)
+                .setAddQvarMap(false).build();
+        assertSamePatterns(WIKIPEDIA_RESOURCE, config);
+        assertSamePatterns(ARXIV_RESOURCE, config);
+    }
+
+    @Test
+    public void testNumIsResetPerTopic() throws Exception {
+        final List<String> nums = new ArrayList<>();
+        try (NtcirTopicStreamReader reader = new NtcirTopicStreamReader(stream(TOPICS_START
+                + "<topic><num>T1</num>" + FORMULA + "</topic><topic>" + FORMULA + "</topic></topics>"), null)) {
+            for (final NtcirPattern pattern : reader) {
+                nums.add(pattern.getNum());
+            }
+        }
+        assertEquals(2, nums.size());
+        assertEquals("T1", nums.get(0));
+        assertEquals("", nums.get(1));
+    }
+
+    @Test
+    public void testEntityReferenceIsRejected() throws Exception {
+        try (NtcirTopicStreamReader reader = new NtcirTopicStreamReader(stream(TOPICS_START + "<topic>"
+                + "<query><formula id=\"f\"><m:math><m:ci>&alpha;</m:ci></m:math></formula></query>"
+                + "</topic></topics>"), null)) {
+            reader.hasNext();
+            fail("entity reference was dropped");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getCause() instanceof XMLStreamException);
+        }
+    }
+
+    @Test
+    public void testStreamIsClosedIfConstructionFails() throws Exception {
+        final boolean[] closed = {false};
+        final InputStream input = new ByteArrayInputStream("<?xml version=\"1.0\" encoding=\"no-such-charset\"?><a/>"
+                .getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        try {
+            new NtcirTopicStreamReader(input, null).close();
+            fail("unreadable stream was accepted");
+        } catch (final XMLStreamException e) {
+            assertTrue(closed[0]);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PatternDeduplicatorTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+    private static final String MWS = "<mws:query xmlns:mws=\"http://search.mathweb.org/ns\" "
+            + "xmlns:m=\"http://www.w3.org/1998/Math/MathML\"><mws:expr>";
+
+    private static NtcirPattern pattern(String num, String xml) throws Exception {
+        return new NtcirPattern(num, num, null, DocumentParser.parse(xml).getDocumentElement());
+    }
+
+    private static NtcirPattern expression(String num, String expression) throws Exception {
+        return pattern(num, MWS + expression + "</mws:expr></mws:query>");
+    }
+
+    private static List<NtcirPattern> resources() throws Exception {
+        final List<NtcirPattern> patterns = new ArrayList<>();
+        for (final String name : Arrays.asList("q1", "q2", "q3", "qqx2", "qqx2v2", "qqx2x", "qqx2xy", "qxy")) {
+            patterns.add(pattern(name, getFileContents(RESOURCES + "mws/" + name + ".xml")));
+        }
+        return patterns;
+    }
+
+    @Test
+    public void testEquivalentPatterns() throws Exception {
+        final List<NtcirPattern> patterns = Arrays.asList(
+                expression("a", "<m:apply><m:plus/><mws:qvar>x</mws:qvar><mws:qvar>y</mws:qvar></m:apply>"),
+                expression("b", "<m:apply>\n  <m:plus/>\n  <mws:qvar>b</mws:qvar>\n  <mws:qvar name=\"a\"/>\n"
+                        + "</m:apply>"),
+                expression("c", "<m:apply><m:plus/><mws:qvar>x</mws:qvar><mws:qvar>x</mws:qvar></m:apply>"),
+                expression("d", "<m:apply><m:plus/><m:ci> x </m:ci><m:ci>y</m:ci></m:apply>"),
+                expression("e", "<m:apply><m:plus/><m:ci>x</m:ci><m:ci>y</m:ci></m:apply>"));
+        final List<PatternGroup> groups = new PatternDeduplicator(GeneratorConfig.DEFAULT).group(patterns);
+        assertEquals(3, groups.size());
+        assertEquals(Arrays.asList(patterns.get(0), patterns.get(1)), groups.get(0).getPatterns());
+        assertEquals("<apply<plus/>?0??1?>", groups.get(0).getCanonicalForm());
+        assertEquals(Arrays.asList(patterns.get(2)), groups.get(1).getPatterns());
+        assertEquals(Arrays.asList(patterns.get(3), patterns.get(4)), groups.get(2).getPatterns());
+        // ?x+?y is broader than ?x+?x and x+y, ?x+?x is not broader than x+y
+        assertFalse(groups.get(0).isSubsumed());
+        assertSame(groups.get(0), groups.get(1).getBroader());
+        assertSame(groups.get(0), groups.get(2).getBroader());
+        assertEquals(Arrays.asList(groups.get(1), groups.get(2)), groups.get(0).getNarrower());
+    }
+
+    @Test
+    public void testSubsumption() throws Exception {
+        final PatternDeduplicator restricted = new PatternDeduplicator(GeneratorConfig.DEFAULT);
+        final PatternDeduplicator unrestricted =
+                new PatternDeduplicator(GeneratorConfig.builder().setRestrictLength(false).build());
+        final PatternTree sum = expression("sum", "<m:apply><m:plus/><mws:qvar>x</mws:qvar></m:apply>")
+                .getPatternTree();
+        final PatternTree longSum = expression("long", "<m:apply><m:plus/><m:ci>x</m:ci><m:ci>z</m:ci></m:apply>")
+                .getPatternTree();
+        final PatternTree square = pattern("q2", getFileContents(RESOURCES + "mws/q2.xml")).getPatternTree();
+        final PatternTree anySquare = pattern("qqx2", getFileContents(RESOURCES + "mws/qqx2.xml")).getPatternTree();
+        assertTrue(restricted.subsumes(anySquare, square));
+        assertFalse(restricted.subsumes(square, anySquare));
+        // without restrictLength, the broader pattern may have fewer children
+        assertFalse(restricted.subsumes(sum, longSum));
+        assertTrue(unrestricted.subsumes(sum, longSum));
+        assertFalse(unrestricted.subsumes(anySquare, sum));
+    }
+
+    @Test
+    public void testFanOutMatchesDirectExecution() throws Exception {
+        final List<Document> corpus = new ArrayList<>();
+        final File directory = new File(getClass().getClassLoader().getResource(RESOURCES + "corpus").toURI());
+        for (final String name : Arrays.asList("algebra.xml", "arithmetic.xml", "nested.xml")) {
+            corpus.add(DocumentParser.parse(new File(directory, name), DocumentParser.Mode.DEFAULT));
+        }
+        final List<NtcirPattern> patterns = resources();
+        for (final boolean restrictLength : new boolean[]{true, false}) {
+            for (final boolean findRootApply : new boolean[]{false, true}) {
+                final GeneratorConfig config = GeneratorConfig.builder().setRestrictLength(restrictLength)
+                        .setFindRootApply(findRootApply).build();
+                final List<PatternGroup> groups = new PatternDeduplicator(config).group(patterns);
+                // qqx2 and qqx2v2 are equivalent, q2 is subsumed by qqx2
+                assertEquals(patterns.size() - 1, groups.size());
+                final Map<PatternGroup, List<Node>> hits = new HashMap<>();
+                for (final PatternGroup group : groups) {
+                    if (!group.isSubsumed()) {
+                        hits.put(group, match(group.getRepresentative(), config, corpus));
+                    }
+                }
+                assertTrue(hits.size() < groups.size());
+                final Map<NtcirPattern, List<Node>> fannedOut = PatternDeduplicator.fanOut(groups, hits);
+                int total = 0;
+                for (final NtcirPattern pattern : patterns) {
+                    assertEquals(pattern.getNum(), match(pattern, config, corpus), fannedOut.get(pattern));
+                    total += fannedOut.get(pattern).size();
+                }
+                assertTrue(total > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testTopics() throws Exception {
+        final List<NtcirPattern> patterns = new NtcirTopicReader(
+                DocumentParser.parse(getFileContents(NtcirTopicReaderTest.WIKIPEDIA_RESOURCE))).extractPatterns();
+        final List<PatternGroup> groups = new PatternDeduplicator(GeneratorConfig.DEFAULT).group(patterns);
+        int grouped = 0;
+        for (final PatternGroup group : groups) {
+            grouped += group.getPatterns().size();
+            assertNull(group.isSubsumed() ? group.getBroader().getBroader() : null);
+        }
+        assertEquals(patterns.size(), grouped);
+    }
+
+    private static List<Node> match(NtcirPattern pattern, GeneratorConfig config, List<Document> corpus) {
+        final PatternMatcher matcher =
+                PatternMatcher.compile(NonWhitespaceNodeList.getFirstChild(pattern.getMathMLNode()), config);
+        final List<Node> hits = new ArrayList<>();
+        for (final Document document : corpus) {
+            matcher.matchDocument(document, new PatternMatcher.MatchCallback() {
+                @Override
+                public void onMatch(Node hit) {
+                    hits.add(hit);
+                }
+            });
+        }
+        return hits;
+    }
+}
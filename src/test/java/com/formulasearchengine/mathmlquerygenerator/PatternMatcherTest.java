@@ -0,0 +1,152 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import net.sf.saxon.s9api.XdmItem;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the matcher returns exactly the hits of the generated XQuery on the test corpus.
+ */
+public class PatternMatcherTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+    // identifies a hit by the child positions from the document element down to the hit
+    private static final String POSITION_PATH = "string-join(for $a in $x/ancestor-or-self::* "
+            + "return string(count($a/preceding-sibling::*) + 1), '/')";
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getClassLoader().getResource(RESOURCES + name).toURI());
+    }
+
+    private List<File> queries() throws Exception {
+        final List<File> queries = new ArrayList<>();
+        for (final String collection : Arrays.asList("mws", "cmml", "formats")) {
+            final File[] files = resource(collection).listFiles();
+            Arrays.sort(files);
+            for (final File file : files) {
+                if (file.getName().endsWith(".xml")) {
+                    queries.add(file);
+                }
+            }
+        }
+        return queries;
+    }
+
+    private List<File> corpus() throws Exception {
+        final File[] files = resource("corpus").listFiles();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static String positionPath(Node node) {
+        final StringBuilder path = new StringBuilder();
+        for (Node current = node; current.getNodeType() == Node.ELEMENT_NODE; current = current.getParentNode()) {
+            int position = 1;
+            for (Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+                if (sibling.getNodeType() == Node.ELEMENT_NODE) {
+                    position++;
+                }
+            }
+            path.insert(0, path.length() == 0 ? "" : "/").insert(0, position);
+        }
+        return path.toString();
+    }
+
+    private static PatternMatcher.MatchCallback collect(final List<String> hits) {
+        return new PatternMatcher.MatchCallback() {
+            @Override
+            public void onMatch(Node hit) {
+                hits.add(positionPath(hit));
+            }
+        };
+    }
+
+    private int checkConformance(GeneratorConfig config) throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final GeneratorConfig xquery = config.toBuilder().setReturnFormat(POSITION_PATH).build();
+        int total = 0;
+        for (final File queryFile : queries()) {
+            final Document query = XMLHelper.String2Doc(
+                    XQueryGeneratorTest.getFileContents(RESOURCES + queryFile.getParentFile().getName() + "/"
+                            + queryFile.getName()), true);
+            final String xq = new QueryGenerator(xquery).generate(query);
+            final PatternMatcher matcher = PatternMatcher.compile(query, config);
+            for (final File document : corpus()) {
+                final String name = queryFile.getName() + " on " + document.getName();
+                final List<String> expected = new ArrayList<>();
+                for (final XdmItem item : executor.executeToList(xq, document)) {
+                    expected.add(item.getStringValue());
+                }
+                final List<String> domHits = new ArrayList<>();
+                matcher.matchDocument(XMLHelper.getDocumentBuilder(true).parse(document), collect(domHits));
+                assertEquals(name, expected, domHits);
+                final List<String> staxHits = new ArrayList<>();
+                try (InputStream is = new FileInputStream(document)) {
+                    final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+                    matcher.match(reader, collect(staxHits));
+                    reader.close();
+                }
+                // the StAX copies start at the math element, so only the relative part of the path is comparable
+                assertEquals(name, expected.size(), staxHits.size());
+                total += expected.size();
+            }
+        }
+        return total;
+    }
+
+    @Test
+    public void testConformance() throws Exception {
+        assertTrue(checkConformance(SaxonQueryExecutor.LOCAL_CONFIG) > 0);
+    }
+
+    @Test
+    public void testConformanceUnrestricted() throws Exception {
+        assertTrue(checkConformance(SaxonQueryExecutor.LOCAL_CONFIG.toBuilder().setRestrictLength(false).build()) > 0);
+    }
+
+    @Test
+    public void testConformanceRecursive() throws Exception {
+        assertTrue(checkConformance(SaxonQueryExecutor.LOCAL_CONFIG.toBuilder().setFindRootApply(true).build()) > 0);
+    }
+
+    @Test
+    public void testQvarEquality() throws Exception {
+        final PatternMatcher matcher = PatternMatcher.compile(XMLHelper.String2Doc(
+                XQueryGeneratorTest.getFileContents(RESOURCES + "mws/qqx2x.xml"), true), GeneratorConfig.DEFAULT);
+        final Document x = XMLHelper.String2Doc("<apply><plus/><apply><csymbol>superscript</csymbol><ci>x</ci>"
+                + "<cn>2</cn></apply><ci>x</ci></apply>", true);
+        final Document y = XMLHelper.String2Doc("<apply><plus/><apply><csymbol>superscript</csymbol><ci>y</ci>"
+                + "<cn>2</cn></apply><ci>x</ci></apply>", true);
+        assertEquals(7, matcher.size());
+        assertTrue(matcher.matches(x.getDocumentElement()));
+        assertFalse(matcher.matches(y.getDocumentElement()));
+        assertNull(PatternMatcher.compile(XMLHelper.String2Doc("<noMath />", true), GeneratorConfig.DEFAULT));
+    }
+
+    @Test
+    public void testSplitTextIsJoined() throws Exception {
+        final PatternMatcher matcher = PatternMatcher.compile(XMLHelper.String2Doc(
+                "<mws:query xmlns:mws=\"http://search.mathweb.org/ns\"><mws:expr><apply><plus/>"
+                        + "<ci> x<!-- split --><![CDATA[y]]></ci></apply></mws:expr></mws:query>", true),
+                GeneratorConfig.DEFAULT);
+        assertTrue(matcher.matches(XMLHelper.String2Doc("<apply><plus/><ci>xy</ci></apply>", true)
+                .getDocumentElement()));
+        assertFalse(matcher.matches(XMLHelper.String2Doc("<apply><plus/><ci>x</ci></apply>", true)
+                .getDocumentElement()));
+    }
+}
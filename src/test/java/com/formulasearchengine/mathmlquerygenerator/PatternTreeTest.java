@@ -0,0 +1,110 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PatternTreeTest {
+    private static final String MWS = "com/formulasearchengine/mathmlquerygenerator/mws/";
+    private static final String MATHML = "http://www.w3.org/1998/Math/MathML";
+    private static final List<GeneratorConfig> CONFIGS = Arrays.asList(GeneratorConfig.DEFAULT,
+            GeneratorConfig.builder().setFindRootApply(true).build(),
+            GeneratorConfig.builder().setRestrictLength(false).setAddQvarMap(false).build(),
+            GeneratorConfig.builder().setFingerprints(true).build(),
+            GeneratorConfig.builder().setDialect(XQuery30Dialect.INSTANCE).build());
+
+    private static Node mainElement(String name) throws Exception {
+        final Document query = XMLHelper.String2Doc(getFileContents(MWS + name), true);
+        return XMLHelper.getMainElement(query);
+    }
+
+    @Test
+    public void testStructure() throws Exception {
+        final PatternTree tree = PatternTree.of(mainElement("qqx2x.xml"));
+        assertEquals(8, tree.size());
+        assertEquals("mws:expr", tree.getName(0));
+        assertEquals(1, tree.getChildCount(0));
+        final int apply = tree.getFirstChild(0);
+        assertEquals("apply", tree.getLocalName(apply));
+        assertEquals(MATHML, tree.getNamespaceURI(apply));
+        assertEquals(3, tree.getChildCount(apply));
+        final int qvar = tree.getFirstChild(apply) + 2;
+        assertTrue(tree.isQvar(qvar));
+        assertEquals("x", tree.getText(qvar));
+        final int csymbol = tree.getFirstChild(tree.getFirstChild(apply) + 1);
+        assertEquals("superscript", tree.getText(csymbol));
+        assertNull(tree.getText(apply));
+        // names are interned, so trees of different documents share them
+        assertTrue(tree.getName(apply) == PatternTree.of(mainElement("qqx2.xml")).getName(apply));
+    }
+
+    @Test
+    public void testGenerateFromTree() throws Exception {
+        for (final String name : Arrays.asList("q1.xml", "q2.xml", "q3.xml", "qqx2x.xml", "qqx2xy.xml", "qxy.xml")) {
+            final Node mainElement = mainElement(name);
+            final PatternTree tree = PatternTree.of(mainElement);
+            for (final GeneratorConfig config : CONFIGS) {
+                final QueryGenerator generator = new QueryGenerator(config);
+                assertEquals(name, generator.generate(mainElement), generator.generate(tree));
+                assertEquals(name, generator.generate(tree), generator.generate(PatternTree.ofPattern(mainElement)));
+            }
+            assertEquals(name, new XQueryGenerator(XMLHelper.String2Doc(getFileContents(MWS + name), true))
+                    .toString(), new XQueryGenerator(tree).toString());
+            // the document built from the tree yields the same query
+            assertEquals(name, new QueryGenerator(GeneratorConfig.DEFAULT).generate(mainElement),
+                    new QueryGenerator(GeneratorConfig.DEFAULT).generate(tree.toDocument().getDocumentElement()));
+        }
+    }
+
+    @Test
+    public void testPatternTreeSkipsAnnotations() throws Exception {
+        final Document document = XMLHelper.String2Doc("<math><semantics><apply><eq/><ci>a</ci><ci>b</ci></apply>"
+                + "<annotation-xml encoding=\"MathML-Presentation\"><mrow><mi>a</mi><mo>=</mo><mi>b</mi></mrow>"
+                + "</annotation-xml></semantics></math>", true);
+        final Node semantics = document.getElementsByTagName("semantics").item(0);
+        final PatternTree pattern = PatternTree.ofPattern(semantics);
+        assertEquals(6, pattern.size());
+        assertEquals(10, PatternTree.of(semantics).size());
+        for (final GeneratorConfig config : CONFIGS) {
+            final QueryGenerator generator = new QueryGenerator(config);
+            assertEquals(generator.generate(semantics), generator.generate(pattern));
+        }
+    }
+
+    @Test
+    public void testCompactTopics() throws Exception {
+        final File topics = new File(getClass().getClassLoader().getResource(
+                NtcirTopicReaderTest.WIKIPEDIA_RESOURCE).toURI());
+        final List<NtcirPattern> expected = new NtcirTopicReader(topics).extractPatterns();
+        final NtcirTopicReader reader = new NtcirTopicReader(topics).setCompactPatterns(true);
+        final List<NtcirPattern> compact = reader.extractPatterns();
+        final List<NtcirPattern> parallel = new NtcirTopicReader(topics).setCompactPatterns(true).setParallelism(4)
+                .extractPatterns();
+        assertEquals(expected.size(), compact.size());
+        final QueryGenerator generator = new QueryGenerator(GeneratorConfig.DEFAULT);
+        for (int i = 0; i < expected.size(); i++) {
+            final String query = expected.get(i).getxQueryExpression();
+            assertEquals(query, compact.get(i).getxQueryExpression());
+            assertEquals(query, parallel.get(i).getxQueryExpression());
+            final PatternTree tree = compact.get(i).getPatternTree();
+            assertEquals(query, generator.render(generator.compile(tree, tree.getFirstChild(0))));
+            final Node math = compact.get(i).getMathMLNode();
+            assertEquals(MATHML, math.getNamespaceURI());
+            assertEquals(query, generator.generate(NonWhitespaceNodeList.getFirstChild(math)));
+        }
+        assertEquals(new NtcirTopicReader(topics).extractBatchQuery(), reader.extractBatchQuery());
+        assertFalse(compact.get(0).getMathMLNode() == compact.get(0).getMathMLNode());
+    }
+}
@@ -0,0 +1,107 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class QueryCacheTest {
+    private static final String QQX2X = "com/formulasearchengine/mathmlquerygenerator/mws/qqx2x.xml";
+    private static final String MATH = "<math xmlns=\"http://www.w3.org/1998/Math/MathML\">";
+
+    private static XQueryGenerator generator(String input, QueryCache cache) {
+        final Document query = XMLHelper.String2Doc(input, true);
+        return new XQueryGenerator(query).setQueryCache(cache);
+    }
+
+    @Test
+    public void testHitReturnsSameQuery() throws Exception {
+        final QueryCache cache = new QueryCache();
+        final String input = getFileContents(QQX2X);
+        final String expected = new XQueryGenerator(XMLHelper.String2Doc(input, true)).toString();
+        assertEquals(expected, generator(input, cache).toString());
+        assertEquals(expected, generator(input, cache).toString());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testQvarNamesAreNormalized() throws Exception {
+        final QueryCache cache = new QueryCache();
+        final String input = getFileContents(QQX2X);
+        final String renamed = input.replace("<mws:qvar>x</mws:qvar>", "<mws:qvar>y</mws:qvar>");
+        final String expected = generator(input, cache).setAddQvarMap(false).toString();
+        assertEquals(expected, generator(renamed, cache).setAddQvarMap(false).toString());
+        assertEquals(1, cache.getHitCount());
+        // the qvar map contains the names, so the renamed pattern must not hit
+        final String withMap = generator(input, cache).toString();
+        assertNotEquals(withMap, generator(renamed, cache).toString());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testSettingsArePartOfTheKey() throws Exception {
+        final QueryCache cache = new QueryCache();
+        final String input = getFileContents(QQX2X);
+        final String restricted = generator(input, cache).toString();
+        final String unrestricted = generator(input, cache).setRestrictLength(false).toString();
+        final String recursive = generator(input, cache).setFindRootApply(true).toString();
+        assertNotEquals(restricted, unrestricted);
+        assertNotEquals(restricted, recursive);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testSplitTextDoesNotCollide() throws Exception {
+        final Document split = XMLHelper.String2Doc(MATH + "<ci>a</ci></math>", true);
+        final Node ci = split.getElementsByTagNameNS("*", "ci").item(0);
+        ci.appendChild(split.createTextNode("b"));
+        final Document quoted = XMLHelper.String2Doc(MATH + "<ci>a'b</ci></math>", true);
+        final Document cdata = XMLHelper.String2Doc(MATH + "<ci>a<![CDATA[b]]></ci></math>", true);
+        final Document joined = XMLHelper.String2Doc(MATH + "<ci>ab</ci></math>", true);
+        final QueryCache cache = new QueryCache();
+        final QueryGenerator generator = new QueryGenerator(GeneratorConfig.DEFAULT, cache);
+        final String expected = new QueryGenerator(GeneratorConfig.DEFAULT).generate(joined);
+        assertEquals(expected, generator.generate(split));
+        assertNotEquals(expected, generator.generate(quoted));
+        assertEquals(expected, generator.generate(cdata));
+        assertEquals(expected, generator.generate(joined));
+        assertEquals(2, cache.size());
+        assertEquals(new QueryCacheKey(XMLHelper.getMainElement(split), GeneratorConfig.DEFAULT),
+                new QueryCacheKey(XMLHelper.getMainElement(cdata), GeneratorConfig.DEFAULT));
+    }
+
+    @Test
+    public void testTreeKeyEqualsDomKey() throws Exception {
+        final GeneratorConfig withMap = GeneratorConfig.DEFAULT;
+        final GeneratorConfig withoutMap = GeneratorConfig.builder().setAddQvarMap(false).build();
+        for (final String corpus : new String[]{TopicCorpus.WIKIPEDIA, TopicCorpus.ARXIV}) {
+            for (final Node mainElement : TopicCorpus.mainElements(TopicCorpus.load(corpus),
+                    TopicCorpus.SizeClass.ALL)) {
+                for (final GeneratorConfig config : new GeneratorConfig[]{withMap, withoutMap}) {
+                    final QueryCacheKey key = new QueryCacheKey(mainElement, config);
+                    final QueryCacheKey treeKey = new QueryCacheKey(PatternTree.of(mainElement), config);
+                    assertEquals(key.toString(), treeKey.toString());
+                    assertEquals(key, treeKey);
+                    assertEquals(key, new QueryCacheKey(PatternTree.ofPattern(mainElement), config));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final String input = getFileContents(QQX2X);
+        final int weight = 2 * generator(input, null).toString().length();
+        final QueryCache cache = new QueryCache(weight);
+        generator(input, cache).toString();
+        generator(input, cache).setPathToRoot("//*:root").toString();
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,96 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryCostTest {
+    private static final String QQX2X = "com/formulasearchengine/mathmlquerygenerator/mws/qqx2x.xml";
+
+    private static Node mainElement() throws Exception {
+        final Document query = XMLHelper.String2Doc(getFileContents(QQX2X), true);
+        return XMLHelper.getMainElement(query);
+    }
+
+    @Test
+    public void testCost() throws Exception {
+        final GeneratedQuery generated = new QueryGenerator(GeneratorConfig.DEFAULT).generateWithCost(mainElement());
+        final QueryCost cost = generated.getCost();
+        // plus, apply, csymbol, 'superscript', cn and '2' plus four length constraints
+        assertEquals(10, cost.getPredicateCount());
+        assertEquals(2, cost.getMaxDepth());
+        assertEquals(1, cost.getQvarComparisons());
+        assertFalse(cost.isRecursive());
+        assertEquals(-1, cost.getFanOut());
+        assertEquals(18, cost.getScore(), 0.0);
+        assertEquals(new QueryGenerator(GeneratorConfig.DEFAULT).generate(mainElement()), generated.getQuery());
+        final QueryCost recursive = new QueryGenerator(GeneratorConfig.builder().setFindRootApply(true).build())
+                .generateWithCost(mainElement()).getCost();
+        assertTrue(recursive.isRecursive());
+        assertEquals(4 * 18, recursive.getScore(), 0.0);
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        final SelectivityStatistics statistics = new SelectivityStatistics();
+        statistics.addElement("apply", 100);
+        statistics.addElement("plus", 50);
+        statistics.addElement("csymbol", 40);
+        statistics.addElement("cn", 60);
+        statistics.addText("csymbol", "superscript", 20);
+        statistics.addText("cn", "2", 5);
+        final QueryCost cost = new QueryGenerator(GeneratorConfig.builder().setSelectivityStatistics(statistics)
+                .build()).generateWithCost(mainElement()).getCost();
+        // the query loops over the five occurrences of <cn>2</cn>
+        assertEquals(5, cost.getFanOut());
+        assertEquals(5 * 18, cost.getScore(), 0.0);
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        final XQueryGenerator generator = new XQueryGenerator(XMLHelper.String2Doc(getFileContents(QQX2X), true))
+                .setAdmissionPolicy(AdmissionPolicy.reject(17));
+        try {
+            generator.toString();
+            fail("the query must be rejected");
+        } catch (final QueryRejectedException e) {
+            assertEquals(18, e.getCost().getScore(), 0.0);
+        }
+        assertEquals(new XQueryGenerator(XMLHelper.String2Doc(getFileContents(QQX2X), true)).toString(),
+                generator.setAdmissionPolicy(AdmissionPolicy.reject(18)).toString());
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        final GeneratorConfig recursive = GeneratorConfig.builder().setFindRootApply(true).build();
+        final GeneratedQuery flat = new QueryGenerator(recursive.toBuilder().setAdmissionPolicy(
+                AdmissionPolicy.fallback(18, AdmissionPolicy.Fallback.DROP_FIND_ROOT_APPLY)).build())
+                .generateWithCost(mainElement());
+        assertFalse(flat.getConfig().isFindRootApply());
+        assertTrue(flat.getConfig().isRestrictLength());
+        assertEquals(new QueryGenerator(GeneratorConfig.DEFAULT).generate(mainElement()), flat.getQuery());
+        // the first fallback is not sufficient, so both are applied
+        final AdmissionPolicy both = AdmissionPolicy.fallback(14, AdmissionPolicy.Fallback.DROP_RESTRICT_LENGTH,
+                AdmissionPolicy.Fallback.DROP_FIND_ROOT_APPLY);
+        final GeneratedQuery cheapest = new QueryGenerator(recursive.toBuilder().setAdmissionPolicy(both).build())
+                .generateWithCost(mainElement());
+        assertEquals(14, cheapest.getCost().getScore(), 0.0);
+        assertEquals(new QueryGenerator(GeneratorConfig.builder().setRestrictLength(false).build())
+                .generate(mainElement()), cheapest.getQuery());
+        try {
+            new QueryGenerator(recursive.toBuilder().setAdmissionPolicy(AdmissionPolicy.fallback(13,
+                    AdmissionPolicy.Fallback.DROP_RESTRICT_LENGTH, AdmissionPolicy.Fallback.DROP_FIND_ROOT_APPLY))
+                    .build()).generate(mainElement());
+            fail("the query must be rejected");
+        } catch (final QueryRejectedException e) {
+            assertEquals(14, e.getCost().getScore(), 0.0);
+        }
+    }
+}
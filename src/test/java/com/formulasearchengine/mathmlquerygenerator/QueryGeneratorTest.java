@@ -0,0 +1,175 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryGeneratorTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+    private static final String[][] DIALECT_INPUTS = {{"cmml.xq", "cmml/q1.xml"}, {"q1.xq", "mws/q1.xml"},
+            {"qqx2x.xq", "mws/qqx2x.xml"}, {"qxy.xq", "mws/qxy.xml"}};
+
+    private static final class Reference {
+        private final String name;
+        private final String input;
+        private final String expected;
+        private final QueryGenerator generator;
+
+        private Reference(String name, String input, String expected, QueryGenerator generator) {
+            this.name = name;
+            this.input = input;
+            this.expected = expected;
+            this.generator = generator;
+        }
+    }
+
+    private List<Reference> loadReferences(String collection, GeneratorConfig config) throws Exception {
+        final QueryGenerator generator = new QueryGenerator(config);
+        final File dir = new File(getClass().getClassLoader().getResource(RESOURCES + collection).toURI());
+        final List<Reference> references = new ArrayList<>();
+        for (final File file : dir.listFiles()) {
+            if (file.getName().endsWith(".xml")) {
+                final File result = new File(file.getAbsolutePath().replace(".xml", ".xq"));
+                references.add(new Reference(collection + "/" + file.getName(),
+                        new String(Files.readAllBytes(file.toPath()), "UTF-8"),
+                        new String(Files.readAllBytes(result.toPath()), "UTF-8"), generator));
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Loads the references of a dialect, whose inputs are the mws and cmml files of the same names.
+     */
+    private List<Reference> loadDialectReferences(String collection, QueryDialect dialect) throws Exception {
+        final QueryGenerator generator = new QueryGenerator(dialect(dialect));
+        final List<Reference> references = new ArrayList<>();
+        for (final String[] names : DIALECT_INPUTS) {
+            references.add(new Reference(collection + "/" + names[0],
+                    XQueryGeneratorTest.getFileContents(RESOURCES + names[1]),
+                    XQueryGeneratorTest.getFileContents(RESOURCES + collection + "/" + names[0]), generator));
+        }
+        return references;
+    }
+
+    private static GeneratorConfig dialect(QueryDialect dialect) {
+        return GeneratorConfig.builder().setDialect(dialect).build();
+    }
+
+    private List<Reference> allReferences() throws Exception {
+        final List<Reference> references = new ArrayList<>();
+        references.addAll(loadReferences("mws", GeneratorConfig.DEFAULT));
+        references.addAll(loadReferences("cmml", GeneratorConfig.DEFAULT));
+        references.addAll(loadReferences("formats", GeneratorConfig.DEFAULT));
+        references.addAll(loadReferences("recursive",
+                GeneratorConfig.DEFAULT.toBuilder().setFindRootApply(true).build()));
+        references.addAll(loadDialectReferences("db2", new Db2Dialect()));
+        references.addAll(loadDialectReferences("basex", new BaseXDialect("math")));
+        references.addAll(loadDialectReferences("xquery30", XQuery30Dialect.INSTANCE));
+        return references;
+    }
+
+    @Test
+    public void testReferenceFiles() throws Exception {
+        for (final Reference reference : allReferences()) {
+            final Document doc = XMLHelper.String2Doc(reference.input, true);
+            assertEquals(reference.name, reference.expected, reference.generator.generate(doc));
+        }
+    }
+
+    @Test
+    public void testConcurrentGeneration() throws Exception {
+        final List<Reference> references = allReferences();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        // DOM trees are not thread-safe, so every thread parses its own copies
+                        final List<Document> docs = new ArrayList<>();
+                        for (final Reference reference : references) {
+                            docs.add(XMLHelper.String2Doc(reference.input, true));
+                        }
+                        start.await();
+                        int checked = 0;
+                        for (int round = 0; round < ROUNDS; round++) {
+                            for (int i = 0; i < references.size(); i++) {
+                                final Reference reference = references.get(i);
+                                assertEquals(reference.name, reference.expected,
+                                        reference.generator.generate(docs.get(i)));
+                                checked++;
+                            }
+                        }
+                        return checked;
+                    }
+                }));
+            }
+            start.countDown();
+            for (final Future<Integer> result : results) {
+                assertEquals(ROUNDS * references.size(), (int) result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConfigBuilder() throws Exception {
+        final GeneratorConfig config = GeneratorConfig.builder().setNamespace("").setPathToRoot("//*:root")
+                .setReturnFormat("$x").setRestrictLength(false).setAddQvarMap(false).build();
+        assertEquals(config, config.toBuilder().build());
+        assertEquals(config.hashCode(), config.toBuilder().build().hashCode());
+        assertEquals(GeneratorConfig.DEFAULT, new XQueryGenerator(XMLHelper.getNewDocument()).getConfig());
+        assertNull(new QueryGenerator(config).generate(XMLHelper.String2Doc("<noMath />", true)));
+    }
+
+    @Test
+    public void testDialectDefaults() throws Exception {
+        final GeneratorConfig db2 = GeneratorConfig.builder().setDialect(new Db2Dialect("formulae", "mathml"))
+                .setReturnFormat("$x").build();
+        assertEquals("db2-fn:xmlcolumn(\"formulae.mathml\")", db2.getPathToRoot());
+        assertEquals("$x", db2.getReturnFormat());
+        assertEquals(db2, db2.toBuilder().build());
+        assertEquals(new Db2Dialect("formulae", "mathml"), db2.getDialect());
+        assertEquals("SELECT * FROM formulae WHERE XMLEXISTS('for $m in $m return $m[@id = ''a'']' PASSING mathml"
+                + " AS \"m\")", new Db2Dialect("formulae", "mathml").toXmlExists("for $m in $m return $m[@id = 'a']"));
+        final XQueryGenerator generator = new XQueryGenerator(XMLHelper.getNewDocument())
+                .setDialect(XQuery30Dialect.INSTANCE);
+        assertEquals(GeneratorConfig.builder().setDialect(XQuery30Dialect.INSTANCE).build(), generator.getConfig());
+        assertEquals("'it''s &amp; more'", XQueryLiterals.stringLiteral("it's & more"));
+    }
+
+    @Test
+    public void testMapSupport() throws Exception {
+        assertTrue(DefaultDialect.INSTANCE.supportsMaps());
+        assertTrue(new BaseXDialect("math").supportsMaps());
+        assertFalse(new Db2Dialect().supportsMaps());
+        assertFalse(XQuery30Dialect.INSTANCE.supportsMaps());
+        final Document qvars = XMLHelper.String2Doc(XQueryGeneratorTest.getFileContents(RESOURCES + "mws/qxy.xml"),
+                true);
+        final GeneratorConfig db2 = GeneratorConfig.builder().setDialect(new Db2Dialect()).setAddQvarMap(true).build();
+        assertFalse(new QueryGenerator(db2).generate(qvars).contains("map {"));
+        assertTrue(new QueryGenerator(db2.toBuilder().setDialect(new BaseXDialect("math")).build()).generate(qvars)
+                .contains("map {"));
+    }
+}
@@ -0,0 +1,135 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryServiceTest {
+    private static final String QQX2X = "com/formulasearchengine/mathmlquerygenerator/mws/qqx2x.xml";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private QueryService service;
+
+    @Before
+    public void setUp() throws Exception {
+        service = new QueryService(new InetSocketAddress("localhost", 0));
+        service.start();
+    }
+
+    @After
+    public void tearDown() {
+        service.stop(0);
+    }
+
+    private HttpURLConnection connect(String path) throws IOException {
+        return (HttpURLConnection) new URL("http", "localhost", service.getAddress().getPort(), path)
+                .openConnection();
+    }
+
+    private String post(String parameters, String body, int expectedStatus) throws IOException {
+        return post(parameters, body.getBytes(StandardCharsets.UTF_8), expectedStatus);
+    }
+
+    private String post(String parameters, byte[] body, int expectedStatus) throws IOException {
+        final HttpURLConnection connection = connect(QueryService.QUERY_PATH
+                + (parameters == null ? "" : "?" + parameters));
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        assertEquals(expectedStatus, connection.getResponseCode());
+        return read(expectedStatus == 200 ? connection.getInputStream() : connection.getErrorStream());
+    }
+
+    private static String read(InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        try (InputStream in = is) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testResponseCacheKeepsBodyBytes() throws Exception {
+        // both bodies decode to the same string with UTF-8, since neither byte is valid UTF-8 on its own
+        final String prefix = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><math><apply><csymbol>";
+        final String suffix = "</csymbol><ci>x</ci></apply></math>";
+        assertTrue(post(null, (prefix + "\u00ff" + suffix).getBytes(StandardCharsets.ISO_8859_1), 200)
+                .contains("\u00ff"));
+        assertTrue(post(null, (prefix + "\u00fe" + suffix).getBytes(StandardCharsets.ISO_8859_1), 200)
+                .contains("\u00fe"));
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        final String body = getFileContents(QQX2X);
+        final XQueryGenerator generator = new XQueryGenerator(XMLHelper.String2Doc(body, true));
+        assertEquals(generator.toString(), post(null, body, 200));
+        assertEquals(generator.setFindRootApply(true).setAddQvarMap(false).toString(),
+                post("findRootApply=true&addQvarMap=false", body, 200));
+        assertEquals(new XQueryGenerator(XMLHelper.String2Doc(body, true)).setDialect(new BaseXDialect("wiki"))
+                .toString(), post("dialect=basex&database=wiki", body, 200));
+        // served from the response cache
+        assertEquals(generator.toString(), post("findRootApply=true&addQvarMap=false", body, 200));
+        assertEquals(1, service.getMetrics().getResponseCacheHitCount());
+        assertEquals(4, service.getMetrics().getRequestCount());
+    }
+
+    @Test
+    public void testTopics() throws Exception {
+        final List<String> bodies = TopicCorpus.mathDocuments(TopicCorpus.load(TopicCorpus.WIKIPEDIA));
+        final List<NtcirPattern> patterns = new NtcirTopicReader(TopicCorpus.load(TopicCorpus.WIKIPEDIA))
+                .extractPatterns();
+        assertEquals(patterns.size(), bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(patterns.get(i).getxQueryExpression(), post(null, bodies.get(i), 200));
+        }
+    }
+
+    @Test
+    public void testExternalEntitiesAreNotExpanded() throws Exception {
+        final File secret = folder.newFile("secret.txt");
+        Files.write(secret.toPath(), "SECRET_TOKEN".getBytes(StandardCharsets.UTF_8));
+        final String body = "<!DOCTYPE math [<!ENTITY e SYSTEM \"" + secret.toURI() + "\">]>"
+                + "<math xmlns=\"http://www.w3.org/1998/Math/MathML\"><apply><plus/><ci>&e;</ci><ci>y</ci></apply>"
+                + "</math>";
+        final String query = post(null, body, 200);
+        assertFalse(query, query.contains("SECRET_TOKEN"));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertTrue(post(null, "<math", 400).startsWith("Cannot parse"));
+        post(null, "<?xml version=\"1.0\"?>\n<noMath />", 400);
+        post("unknown=1", getFileContents(QQX2X), 400);
+        post("findRootApply=maybe", getFileContents(QQX2X), 400);
+        final HttpURLConnection get = connect(QueryService.QUERY_PATH);
+        assertEquals(405, get.getResponseCode());
+        final String metrics = read(connect(QueryService.METRICS_PATH).getInputStream());
+        assertTrue(metrics, metrics.startsWith("requests 5\nerrors 5\n"));
+    }
+}
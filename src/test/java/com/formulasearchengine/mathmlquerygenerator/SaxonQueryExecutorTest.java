@@ -0,0 +1,170 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmItem;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SaxonQueryExecutorTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+    private static final GeneratorConfig IDS = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder()
+            .setReturnFormat("string($x/ancestor::*:math/@id)").build();
+
+    private File corpus() throws Exception {
+        return new File(getClass().getClassLoader().getResource(RESOURCES + "corpus").toURI());
+    }
+
+    private String query(String resource, GeneratorConfig config) throws Exception {
+        return new QueryGenerator(config).generate(XMLHelper.String2Doc(getFileContents(RESOURCES + resource), true));
+    }
+
+    private List<String> hits(SaxonQueryExecutor executor, String query, File input) throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (final XdmItem item : executor.executeToList(query, input)) {
+            ids.add(item.getStringValue());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testQvarPattern() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        // qvars are compared by string value, so the differently indented (x+y) of nested.3 does not match
+        assertEquals(Arrays.asList("arithmetic.1", "nested.1"),
+                hits(executor, query("mws/qqx2x.xml", IDS), corpus()));
+        assertEquals(Arrays.asList("arithmetic.1", "arithmetic.3", "nested.1"),
+                hits(executor, query("mws/qqx2x.xml", IDS.toBuilder().setRestrictLength(false).build()), corpus()));
+    }
+
+    @Test
+    public void testRecursiveLayout() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final GeneratorConfig recursive = IDS.toBuilder().setFindRootApply(true).build();
+        assertEquals(Arrays.asList("arithmetic.1", "nested.1"),
+                hits(executor, query("mws/qqx2x.xml", recursive), corpus()));
+    }
+
+    @Test
+    public void testXQuery30Dialect() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final String positionPath = "string-join(for $a in $x/ancestor-or-self::* "
+                + "return string(count($a/preceding-sibling::*) + 1), '/')";
+        final GeneratorConfig wildcard = IDS.toBuilder().setReturnFormat(positionPath).build();
+        final GeneratorConfig qualified = GeneratorConfig.builder().setDialect(XQuery30Dialect.INSTANCE)
+                .setReturnFormat(positionPath).build();
+        int total = 0;
+        for (final String resource : Arrays.asList("mws/q1.xml", "mws/qqx2.xml", "mws/qqx2x.xml", "mws/qxy.xml",
+                "cmml/q1.xml", "formats/semantic.xml")) {
+            for (final boolean[] layout : new boolean[][]{{false, false}, {true, false}, {true, true}}) {
+                final List<String> expected = hits(executor, query(resource, wildcard.toBuilder()
+                        .setFindRootApply(layout[0]).setFlatRootApply(layout[1]).build()), corpus());
+                final List<String> actual = hits(executor, query(resource, qualified.toBuilder()
+                        .setFindRootApply(layout[0]).setFlatRootApply(layout[1]).build()), corpus());
+                assertEquals(resource, expected, actual);
+                total += actual.size();
+            }
+        }
+        assertTrue(total > 0);
+    }
+
+    @Test
+    public void testXQuery30References() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final File directory = new File(getClass().getClassLoader().getResource(RESOURCES + "xquery30").toURI());
+        int total = 0;
+        for (final String name : directory.list()) {
+            if (!name.endsWith(".xq")) {
+                continue;
+            }
+            // fails with XPST0003 if the query uses syntax beyond XQuery 3.0, e.g. map constructors
+            total += executor.executeToList(getFileContents(RESOURCES + "xquery30/" + name), corpus()).size();
+        }
+        assertTrue(total > 0);
+    }
+
+    @Test
+    public void testSingleFileAndNodeHits() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final String query = query("mws/qxy.xml", SaxonQueryExecutor.LOCAL_CONFIG);
+        final File algebra = new File(corpus(), "algebra.xml");
+        final List<XdmItem> result = new ArrayList<>();
+        final long count = executor.execute(query, algebra, new SaxonQueryExecutor.HitCallback() {
+            @Override
+            public void onHit(File source, XdmItem hit) {
+                assertEquals(algebra, source);
+                result.add(hit);
+            }
+        });
+        // x/(y/z) contains two divisions
+        assertEquals(2, count);
+        assertEquals(2, result.size());
+        assertTrue(result.get(0).toString().startsWith("<apply"));
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final GeneratorConfig all = IDS.toBuilder().setRestrictLength(false).build();
+        // the query is evaluated per corpus file, so the limit applies to each file
+        for (final boolean findRootApply : new boolean[]{false, true}) {
+            final GeneratorConfig layout = all.toBuilder().setFindRootApply(findRootApply).build();
+            assertEquals(Arrays.asList("arithmetic.1", "nested.1"),
+                    hits(executor, query("mws/qqx2x.xml", layout.toBuilder().setLimit(1).build()), corpus()));
+            assertEquals(Arrays.asList("arithmetic.3"),
+                    hits(executor, query("mws/qqx2x.xml", layout.toBuilder().setOffset(1).build()), corpus()));
+            assertEquals(Arrays.asList("arithmetic.3"), hits(executor,
+                    query("mws/qqx2x.xml", layout.toBuilder().setOffset(1).setLimit(5).build()), corpus()));
+            assertEquals(Collections.<String>emptyList(), hits(executor,
+                    query("mws/qqx2x.xml", layout.toBuilder().setOffset(Integer.MAX_VALUE).build()), corpus()));
+        }
+    }
+
+    @Test
+    public void testOrderByDepth() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final File algebra = new File(corpus(), "algebra.xml");
+        final GeneratorConfig depth = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder().setFindRootApply(true)
+                .setReturnFormat("string($depth)").build();
+        // x/(y/z): the recursion returns the inner division first
+        assertEquals(Arrays.asList("1", "0"), hits(executor, query("mws/qxy.xml", depth), algebra));
+        final GeneratorConfig ordered = depth.toBuilder().setOrderBy("$depth").build();
+        assertEquals(Arrays.asList("0", "1"), hits(executor, query("mws/qxy.xml", ordered), algebra));
+        assertEquals(Arrays.asList("0"),
+                hits(executor, query("mws/qxy.xml", ordered.toBuilder().setLimit(1).build()), algebra));
+        assertEquals(Arrays.asList("1", "0"), hits(executor,
+                query("mws/qxy.xml", ordered.toBuilder().setOrderBy("$depth descending").build()), algebra));
+        // the default layout returns the outer division first unless it is ordered by an expression of $x
+        final GeneratorConfig size = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder()
+                .setReturnFormat("string(count($x//*))").setOrderBy("count($x//*)").build();
+        assertEquals(Arrays.asList("3", "6"), hits(executor, query("mws/qxy.xml", size), algebra));
+    }
+
+    @Test
+    public void testCompiledQueriesAreCached() throws Exception {
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor(1);
+        final String first = query("mws/q3.xml", IDS);
+        final String second = query("mws/q2.xml", IDS);
+        executor.executeToList(first, corpus());
+        executor.executeToList(first, corpus());
+        assertEquals(1, executor.getCacheStats().missCount());
+        assertEquals(1, executor.getCacheStats().hitCount());
+        executor.executeToList(second, corpus());
+        assertEquals(1, executor.getCacheSize());
+        assertEquals(1, executor.getCacheStats().evictionCount());
+    }
+
+    @Test(expected = SaxonApiException.class)
+    public void testInvalidQuery() throws Exception {
+        new SaxonQueryExecutor().compile("for $x in");
+    }
+}
@@ -0,0 +1,109 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import net.sf.saxon.s9api.XdmItem;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SelectivityStatisticsTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+    private static final List<String> QUERIES = Arrays.asList("mws/q1.xml", "mws/q2.xml", "mws/q3.xml",
+            "mws/qqx2.xml", "mws/qqx2x.xml", "mws/qqx2xy.xml", "mws/qxy.xml", "cmml/q1.xml",
+            "formats/plainCMML.xml");
+    private static final String IDS = "string($x/ancestor::*:math/@id)";
+
+    private File corpus() throws Exception {
+        return new File(getClass().getClassLoader().getResource(RESOURCES + "corpus").toURI());
+    }
+
+    private static List<String> sortedHits(SaxonQueryExecutor executor, String query, File corpus)
+            throws Exception {
+        final List<String> hits = new ArrayList<>();
+        for (final XdmItem item : executor.executeToList(query, corpus)) {
+            hits.add(item.getStringValue());
+        }
+        Collections.sort(hits);
+        return hits;
+    }
+
+    @Test
+    public void testCollector() throws Exception {
+        final SelectivityStatistics statistics = new SelectivityStatisticsCollector().add(corpus()).getStatistics();
+        assertEquals(14, statistics.getElementCount("math"));
+        assertEquals(3, statistics.getElementCount("divide"));
+        assertTrue(statistics.getElementCount("ci") > statistics.getTextCount("ci", "x"));
+        // texts are trimmed
+        assertEquals(2, statistics.getTextCount("ci", "E"));
+        assertEquals(0, statistics.getElementCount("unknown"));
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        final SelectivityStatistics statistics = new SelectivityStatistics();
+        statistics.addElement("ci", 10);
+        statistics.addElement("ci", 5);
+        statistics.addText("ci", "a\tb\\c\nd", 3);
+        final StringWriter writer = new StringWriter();
+        statistics.save(writer);
+        final SelectivityStatistics loaded = SelectivityStatistics.load(new StringReader(writer.toString()));
+        assertEquals(15, loaded.getElementCount("ci"));
+        assertEquals(3, loaded.getTextCount("ci", "a\tb\\c\nd"));
+        assertEquals(3, loaded.getFrequency("ci", "a\tb\\c\nd"));
+        assertEquals(15, loaded.getFrequency("ci", null));
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testInvalidFile() throws Exception {
+        SelectivityStatistics.load(new StringReader("element\tci\n"));
+    }
+
+    @Test
+    public void testAnchoredQuery() throws Exception {
+        final File corpus = corpus();
+        final SelectivityStatistics statistics = new SelectivityStatisticsCollector().add(corpus).getStatistics();
+        final GeneratorConfig plain = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder().setReturnFormat(IDS).build();
+        final GeneratorConfig selective = plain.toBuilder().setSelectivityStatistics(statistics).build();
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        int total = 0;
+        for (final String name : QUERIES) {
+            final Document query = XMLHelper.String2Doc(getFileContents(RESOURCES + name), true);
+            final List<String> expected = sortedHits(executor, new QueryGenerator(plain).generate(query), corpus);
+            assertEquals(name, expected,
+                    sortedHits(executor, new QueryGenerator(selective).generate(query), corpus));
+            total += expected.size();
+        }
+        assertTrue(total > 0);
+    }
+
+    @Test
+    public void testAnchorAndOrder() throws Exception {
+        final SelectivityStatistics statistics = new SelectivityStatistics();
+        statistics.addElement("apply", 100);
+        statistics.addElement("plus", 50);
+        statistics.addElement("csymbol", 40);
+        statistics.addElement("cn", 60);
+        statistics.addText("csymbol", "superscript", 20);
+        statistics.addText("cn", "2", 5);
+        final Document query = XMLHelper.String2Doc(getFileContents(RESOURCES + "mws/qqx2x.xml"), true);
+        final GeneratorConfig config = GeneratorConfig.builder().setSelectivityStatistics(statistics).build();
+        final String anchored = new QueryGenerator(config).generate(query);
+        assertTrue(anchored, anchored.contains("for $a in $m//*:cn[./text() = '2']"));
+        assertTrue(anchored, anchored.contains("$x/*[2]/*[3] is $a"));
+        // the subtree with the rare number is checked before the plus
+        assertTrue(anchored, anchored.indexOf("*[2]/name() = 'apply'") < anchored.indexOf("*[1]/name() = 'plus'"));
+        assertNotEquals(new QueryGenerator(GeneratorConfig.DEFAULT).generate(query), anchored);
+    }
+}
@@ -0,0 +1,161 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import net.sf.saxon.s9api.XdmItem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.formulasearchengine.mathmlquerygenerator.XQueryGeneratorTest.getFileContents;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StructuralIndexTest {
+    private static final String RESOURCES = "com/formulasearchengine/mathmlquerygenerator/";
+    private static final List<String> QUERIES = Arrays.asList("mws/q1.xml", "mws/q2.xml", "mws/q3.xml",
+            "mws/qqx2.xml", "mws/qqx2x.xml", "mws/qxy.xml", "cmml/q1.xml", "formats/plainCMML.xml");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private List<File> corpus() throws Exception {
+        final File[] files = new File(getClass().getClassLoader().getResource(RESOURCES + "corpus").toURI())
+                .listFiles();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static Node mainElement(String query) throws Exception {
+        return XMLHelper.getMainElement(XMLHelper.String2Doc(getFileContents(RESOURCES + query), true));
+    }
+
+    private StructuralIndex index(List<File> files) throws Exception {
+        final StructuralIndex index = new StructuralIndex();
+        for (final File file : files) {
+            index.addFile(file);
+        }
+        return index;
+    }
+
+    @Test
+    public void testRequiredKeys() throws Exception {
+        assertEquals(new LinkedHashSet<>(Arrays.asList("apply/plus", "apply/apply", "apply/csymbol",
+                        "apply/csymbol=superscript", "apply/cn", "apply/cn=2")),
+                StructuralIndex.requiredKeys(mainElement("mws/qqx2x.xml")));
+    }
+
+    @Test
+    public void testSplitTextIsJoined() throws Exception {
+        final Node query = XMLHelper.getMainElement(XMLHelper.String2Doc("<mws:query xmlns:mws="
+                + "\"http://search.mathweb.org/ns\"><mws:expr><apply><plus/><ci> x<!-- split --><![CDATA[y]]></ci>"
+                + "</apply></mws:expr></mws:query>", true));
+        assertTrue(StructuralIndex.requiredKeys(query).contains("apply/ci=xy"));
+        final StructuralIndex index = new StructuralIndex();
+        index.add("split", XMLHelper.String2Doc("<math><apply><plus/><ci>x<![CDATA[y]]></ci></apply></math>", true)
+                .getDocumentElement());
+        index.add("other", XMLHelper.String2Doc("<math><apply><plus/><ci>x</ci></apply></math>", true)
+                .getDocumentElement());
+        assertEquals(Arrays.asList("split"), index.candidateIds(query));
+    }
+
+    @Test
+    public void testCandidatesContainAllHits() throws Exception {
+        final StructuralIndex index = index(corpus());
+        assertEquals(14, index.getFormulaCount());
+        boolean pruned = false;
+        for (final String query : QUERIES) {
+            final PatternMatcher matcher = PatternMatcher.compile(mainElement(query), GeneratorConfig.DEFAULT);
+            final Set<String> expected = new LinkedHashSet<>();
+            for (final File file : corpus()) {
+                final Document document = XMLHelper.getDocumentBuilder(true).parse(file);
+                for (final Node math : elements(document, "math")) {
+                    if (matcher.match(math, new PatternMatcher.MatchCallback() {
+                        @Override
+                        public void onMatch(Node hit) {
+                        }
+                    }) > 0) {
+                        expected.add(((Element) math).getAttribute("id"));
+                    }
+                }
+            }
+            final List<String> candidates = index.candidateIds(mainElement(query));
+            assertTrue(query, candidates.containsAll(expected));
+            pruned |= candidates.size() < index.getFormulaCount();
+        }
+        assertTrue(pruned);
+        assertEquals(Arrays.asList("algebra.5", "arithmetic.6"), index.candidateIds(mainElement("mws/qxy.xml")));
+    }
+
+    @Test
+    public void testVerifyCandidatesWithXQuery() throws Exception {
+        final StructuralIndex index = index(corpus());
+        final SaxonQueryExecutor executor = new SaxonQueryExecutor();
+        final File dir = corpus().get(0).getParentFile();
+        final Node mainElement = mainElement("mws/qqx2.xml");
+        final GeneratorConfig config = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder()
+                .setReturnFormat("string($m/@id)").build();
+        final List<String> candidates = index.candidateIds(mainElement);
+        final GeneratorConfig restricted = config.toBuilder()
+                .setPathToRoot(StructuralIndex.restrictPathToRoot(config.getPathToRoot(), candidates)).build();
+        assertEquals(strings(executor.executeToList(new QueryGenerator(config).generate(mainElement), dir)),
+                strings(executor.executeToList(new QueryGenerator(restricted).generate(mainElement), dir)));
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        final StructuralIndex index = index(corpus());
+        final File file = folder.newFile("corpus.idx");
+        index.save(file);
+        final StructuralIndex loaded = StructuralIndex.load(file);
+        assertEquals(index.getFormulaCount(), loaded.getFormulaCount());
+        assertEquals(index.getKeyCount(), loaded.getKeyCount());
+        assertEquals(index.getFrequency("apply/cn=2"), loaded.getFrequency("apply/cn=2"));
+        for (final String query : QUERIES) {
+            assertArrayEquals(query, index.candidates(mainElement(query)), loaded.candidates(mainElement(query)));
+        }
+    }
+
+    @Test
+    public void testIncrementalAdd() throws Exception {
+        final List<File> files = corpus();
+        final StructuralIndex full = index(files);
+        final File file = folder.newFile("partial.idx");
+        index(files.subList(0, 1)).save(file);
+        final StructuralIndex incremental = StructuralIndex.load(file);
+        for (final File other : files.subList(1, files.size())) {
+            incremental.addFile(other);
+        }
+        for (final String query : QUERIES) {
+            assertEquals(query, full.candidateIds(mainElement(query)), incremental.candidateIds(mainElement(query)));
+        }
+    }
+
+    private static List<Node> elements(Document document, String localName) {
+        final List<Node> result = new ArrayList<>();
+        final NodeList list = document.getElementsByTagNameNS("*", localName);
+        for (int i = 0; i < list.getLength(); i++) {
+            result.add(list.item(i));
+        }
+        return result;
+    }
+
+    private static List<String> strings(List<XdmItem> items) {
+        final List<String> result = new ArrayList<>();
+        for (final XdmItem item : items) {
+            result.add(item.getStringValue());
+        }
+        return result;
+    }
+}
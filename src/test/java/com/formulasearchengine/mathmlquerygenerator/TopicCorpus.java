@@ -0,0 +1,135 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import com.formulasearchengine.mathmltools.xmlhelper.NonWhitespaceNodeList;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Loads the bundled NTCIR topic files for the tests and benchmarks, and splits their formulae into size classes,
+ * so that the benchmarks can report numbers per class instead of one blended average.
+ */
+public final class TopicCorpus {
+    public static final String WIKIPEDIA = "jp/ac/nii/Ntcir11MathWikipediaTopicsParticipants.xml";
+    public static final String ARXIV = "jp/ac/nii/NTCIR-11-Math-test.xml";
+
+    /**
+     * Size classes based on the number of elements below the main element of a formula.
+     */
+    public enum SizeClass {
+        SMALL(0, 8), MEDIUM(9, 24), LARGE(25, Integer.MAX_VALUE), ALL(0, Integer.MAX_VALUE);
+
+        private final int min;
+        private final int max;
+
+        SizeClass(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        public boolean contains(int size) {
+            return size >= min && size <= max;
+        }
+    }
+
+    private TopicCorpus() {
+    }
+
+    /**
+     * @param resourceName one of {@link #WIKIPEDIA} or {@link #ARXIV}
+     * @return the namespace aware topic document
+     */
+    public static Document load(String resourceName) throws Exception {
+        try (InputStream is = TopicCorpus.class.getClassLoader().getResourceAsStream(resourceName)) {
+            return XMLHelper.getDocumentBuilder(true).parse(is);
+        }
+    }
+
+    /**
+     * Returns the topic file as a corpus of plain MathML formulae. The m prefix is dropped, so the math elements
+     * use the default namespace and match the name() tests of the generated queries.
+     */
+    public static String mathCorpus(String resourceName) throws Exception {
+        try (InputStream is = TopicCorpus.class.getClassLoader().getResourceAsStream(resourceName)) {
+            final Scanner scanner = new Scanner(is, "UTF-8").useDelimiter("\\A");
+            return scanner.next().replace("</m:", "</").replace("<m:", "<")
+                    .replace("<math>", "<math xmlns=\"http://www.w3.org/1998/Math/MathML\">");
+        }
+    }
+
+    /**
+     * Returns the main elements (the parents of the query roots) of all formulae of the given size class,
+     * i.e. exactly the nodes NtcirTopicReader passes to XQueryGenerator.setMainElement.
+     */
+    public static List<Node> mainElements(Document topics, SizeClass sizeClass) {
+        final List<Node> result = new ArrayList<>();
+        for (final Node formula : new NonWhitespaceNodeList(
+                topics.getElementsByTagNameNS(NtcirTopicReader.NS_NII, "formula"))) {
+            final Node mainElement = NonWhitespaceNodeList.getFirstChild(NonWhitespaceNodeList.getFirstChild(formula));
+            if (sizeClass.contains(size(NonWhitespaceNodeList.getFirstChild(mainElement)))) {
+                result.add(mainElement);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Serializes the math elements of all formulae, e.g. as request bodies for {@code QueryService}.
+     */
+    public static List<String> mathDocuments(Document topics) throws Exception {
+        final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        final List<String> result = new ArrayList<>();
+        for (final Node formula : new NonWhitespaceNodeList(
+                topics.getElementsByTagNameNS(NtcirTopicReader.NS_NII, "formula"))) {
+            final StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(NonWhitespaceNodeList.getFirstChild(formula)),
+                    new StreamResult(writer));
+            result.add(writer.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Builds a new topic document that only contains the topics whose largest formula falls into the given class.
+     */
+    public static Document topics(Document topics, SizeClass sizeClass) throws Exception {
+        final Document filtered = XMLHelper.getNewDocument(true);
+        final Element root = filtered.createElementNS(NtcirTopicReader.NS_NII, "topics");
+        filtered.appendChild(root);
+        for (final Node topic : new NonWhitespaceNodeList(
+                topics.getElementsByTagNameNS(NtcirTopicReader.NS_NII, "topic"))) {
+            int largest = 0;
+            for (final Node formula : new NonWhitespaceNodeList(
+                    ((Element) topic).getElementsByTagNameNS(NtcirTopicReader.NS_NII, "formula"))) {
+                final Node mainElement = NonWhitespaceNodeList.getFirstChild(
+                        NonWhitespaceNodeList.getFirstChild(formula));
+                largest = Math.max(largest, size(NonWhitespaceNodeList.getFirstChild(mainElement)));
+            }
+            if (sizeClass.contains(largest)) {
+                root.appendChild(filtered.importNode(topic, true));
+            }
+        }
+        return filtered;
+    }
+
+    private static int size(Node node) {
+        int size = node.getNodeType() == Node.ELEMENT_NODE ? 1 : 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            size += size(child);
+        }
+        return size;
+    }
+}
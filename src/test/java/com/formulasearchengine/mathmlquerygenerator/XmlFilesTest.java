@@ -0,0 +1,30 @@
+package com.formulasearchengine.mathmlquerygenerator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XmlFilesTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecursiveSortedListing() throws Exception {
+        final File b = folder.newFile("b.xml");
+        final File nested = folder.newFolder("a", "c");
+        final File c = new File(nested, "c.xml");
+        final File a = folder.newFile("a.xml");
+        folder.newFile("readme.txt");
+        folder.newFolder("empty");
+        assertTrue(c.createNewFile());
+        assertEquals(Arrays.asList(c, a, b), XmlFiles.list(folder.getRoot()));
+        assertEquals(Collections.singletonList(c), XmlFiles.list(c));
+    }
+}
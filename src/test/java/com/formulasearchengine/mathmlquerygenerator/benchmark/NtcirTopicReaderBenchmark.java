@@ -0,0 +1,58 @@
+package com.formulasearchengine.mathmlquerygenerator.benchmark;
+
+import com.formulasearchengine.mathmlquerygenerator.NtcirPattern;
+import com.formulasearchengine.mathmlquerygenerator.NtcirTopicReader;
+import com.formulasearchengine.mathmlquerygenerator.TopicCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures NtcirTopicReader.extractPatterns() on the bundled NTCIR topic files.
+ * The topic documents are restricted to the topics of one size class, so the score is per topic set
+ * of that class. The parallelism parameter compares the sequential path with the fork/join extraction.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NtcirTopicReaderBenchmark {
+    @Param({TopicCorpus.WIKIPEDIA, TopicCorpus.ARXIV})
+    private String corpus;
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "ALL"})
+    private TopicCorpus.SizeClass sizeClass;
+
+    @Param({"false", "true"})
+    private boolean findRootApply;
+
+    @Param({"1", "2", "4"})
+    private int parallelism;
+
+    private Document topics;
+
+    @Setup
+    public void setUp() throws Exception {
+        topics = TopicCorpus.topics(TopicCorpus.load(corpus), sizeClass);
+    }
+
+    @Benchmark
+    public List<NtcirPattern> extractPatterns() throws Exception {
+        return new NtcirTopicReader(topics).setFindRootApply(findRootApply).setParallelism(parallelism)
+                .extractPatterns();
+    }
+}
@@ -0,0 +1,76 @@
+package com.formulasearchengine.mathmlquerygenerator.benchmark;
+
+import com.formulasearchengine.mathmlquerygenerator.DocumentParser;
+import com.formulasearchengine.mathmlquerygenerator.TopicCorpus;
+import com.formulasearchengine.mathmltools.xmlhelper.XMLHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-formula parse latency of the math elements of the NTCIR topics, with and without a reference to the XHTML plus
+ * MathML DTD. XMLHELPER is the previous path ({@code XMLHelper.String2Doc}, a new builder per call), DEFAULT and FAST
+ * are the modes of {@link DocumentParser}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+    /**
+     * The parsers to compare.
+     */
+    public enum Parser {
+        XMLHELPER, DEFAULT, FAST
+    }
+
+    @Param({TopicCorpus.WIKIPEDIA, TopicCorpus.ARXIV})
+    private String corpus;
+
+    @Param({"XMLHELPER", "DEFAULT", "FAST"})
+    private Parser parser;
+
+    @Param({"false", "true"})
+    private boolean doctype;
+
+    private String[] documents;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        final List<String> math = TopicCorpus.mathDocuments(TopicCorpus.load(corpus));
+        documents = new String[math.size()];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = doctype ? "<!DOCTYPE math PUBLIC \"" + DocumentParser.MATHML_DTD_PUBLIC_ID + "\" \""
+                    + DocumentParser.MATHML_DTD_SYSTEM_ID + "\">" + math.get(i) : math.get(i);
+        }
+    }
+
+    @Benchmark
+    public Document parse() throws Exception {
+        final String document = documents[next];
+        next = (next + 1) % documents.length;
+        switch (parser) {
+            case XMLHELPER:
+                return XMLHelper.String2Doc(document, true);
+            case DEFAULT:
+                return DocumentParser.parse(document, DocumentParser.Mode.DEFAULT);
+            default:
+                return DocumentParser.parse(document, DocumentParser.Mode.FAST);
+        }
+    }
+}
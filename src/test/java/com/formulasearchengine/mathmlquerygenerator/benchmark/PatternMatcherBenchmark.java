@@ -0,0 +1,107 @@
+package com.formulasearchengine.mathmlquerygenerator.benchmark;
+
+import com.formulasearchengine.mathmlquerygenerator.GeneratorConfig;
+import com.formulasearchengine.mathmlquerygenerator.PatternMatcher;
+import com.formulasearchengine.mathmlquerygenerator.QueryGenerator;
+import com.formulasearchengine.mathmlquerygenerator.SaxonQueryExecutor;
+import com.formulasearchengine.mathmlquerygenerator.TopicCorpus;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the native PatternMatcher with the generated XQuery evaluated by the embedded Saxon-HE engine.
+ * Each invocation runs one formula of the selected size class against all formulae of the topic file, which
+ * serves as a plain MathML corpus. Both engines work on a prebuilt document and a precompiled query.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PatternMatcherBenchmark {
+    private static final SaxonQueryExecutor.HitCallback IGNORE_HIT = new SaxonQueryExecutor.HitCallback() {
+        @Override
+        public void onHit(File source, XdmItem hit) {
+        }
+    };
+    private static final PatternMatcher.MatchCallback IGNORE_MATCH = new PatternMatcher.MatchCallback() {
+        @Override
+        public void onMatch(Node hit) {
+        }
+    };
+
+    @Param({TopicCorpus.WIKIPEDIA, TopicCorpus.ARXIV})
+    private String corpus;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private TopicCorpus.SizeClass sizeClass;
+
+    @Param({"false", "true"})
+    private boolean findRootApply;
+
+    private SaxonQueryExecutor executor;
+    private XdmNode xdmCorpus;
+    private Document domCorpus;
+    private String[] queries;
+    private PatternMatcher[] matchers;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        final String mathCorpus = TopicCorpus.mathCorpus(corpus);
+        executor = new SaxonQueryExecutor();
+        xdmCorpus = executor.getProcessor().newDocumentBuilder().build(new StreamSource(new StringReader(mathCorpus)));
+        // a fully expanded DOM, Xerces' deferred nodes would add the expansion cost to the first iterations only
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+        domCorpus = factory.newDocumentBuilder().parse(new InputSource(new StringReader(mathCorpus)));
+        final GeneratorConfig config = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder()
+                .setFindRootApply(findRootApply).build();
+        final QueryGenerator generator = new QueryGenerator(config);
+        final List<Node> mainElements = TopicCorpus.mainElements(TopicCorpus.load(corpus), sizeClass);
+        queries = new String[mainElements.size()];
+        matchers = new PatternMatcher[mainElements.size()];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = generator.generate(mainElements.get(i));
+            matchers[i] = PatternMatcher.compile(mainElements.get(i), config);
+            executor.compile(queries[i]);
+        }
+    }
+
+    @Benchmark
+    public long xquery() throws Exception {
+        final String query = queries[next];
+        next = (next + 1) % queries.length;
+        return executor.execute(query, xdmCorpus, IGNORE_HIT);
+    }
+
+    @Benchmark
+    public long nativeMatcher() {
+        final PatternMatcher matcher = matchers[next];
+        next = (next + 1) % matchers.length;
+        return matcher.matchDocument(domCorpus, IGNORE_MATCH);
+    }
+}
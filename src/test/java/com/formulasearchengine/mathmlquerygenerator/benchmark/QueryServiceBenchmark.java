@@ -0,0 +1,118 @@
+package com.formulasearchengine.mathmlquerygenerator.benchmark;
+
+import com.formulasearchengine.mathmlquerygenerator.QueryService;
+import com.formulasearchengine.mathmlquerygenerator.TopicCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of {@link QueryService} on localhost: the benchmark threads act as clients that post the math elements of
+ * the NTCIR topics in turn, so the numbers include HTTP, parsing and generation. With the response cache every
+ * request after the warmup is a cache hit, which shows the overhead of the HTTP layer alone. Vary the client threads
+ * with {@code -t} and the server threads with {@code -p serverThreads}:
+ * <p>
+ * {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="QueryServiceBenchmark -t 16 -p serverThreads=4"}
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class QueryServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({TopicCorpus.WIKIPEDIA, TopicCorpus.ARXIV})
+        private String corpus;
+
+        @Param({"4"})
+        private int serverThreads;
+
+        @Param({"true", "false"})
+        private boolean responseCache;
+
+        private ExecutorService executor;
+        private QueryService service;
+        private URL url;
+        private byte[][] bodies;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            final List<String> documents = TopicCorpus.mathDocuments(TopicCorpus.load(corpus));
+            bodies = new byte[documents.size()][];
+            for (int i = 0; i < bodies.length; i++) {
+                bodies[i] = documents.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+            executor = Executors.newFixedThreadPool(serverThreads);
+            service = new QueryService(new InetSocketAddress("localhost", 0))
+                    .setExecutor(executor)
+                    .setResponseCacheWeight(responseCache ? QueryService.DEFAULT_RESPONSE_CACHE_WEIGHT : 0)
+                    .setQueryCache(null);
+            service.start();
+            url = new URL("http", "localhost", service.getAddress().getPort(), QueryService.QUERY_PATH);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.out.println();
+            System.out.print(service.getMetrics());
+            service.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final byte[] buffer = new byte[64 * 1024];
+        private int next;
+    }
+
+    @Benchmark
+    public int post(Server server, Client client) throws IOException {
+        final byte[] body = server.bodies[client.next];
+        client.next = (client.next + 1) % server.bodies.length;
+        final HttpURLConnection connection = (HttpURLConnection) server.url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("Status " + connection.getResponseCode());
+        }
+        int length = 0;
+        // reading the response to the end lets the connection be reused
+        try (InputStream is = connection.getInputStream()) {
+            for (int read = is.read(client.buffer); read >= 0; read = is.read(client.buffer)) {
+                length += read;
+            }
+        }
+        return length;
+    }
+}
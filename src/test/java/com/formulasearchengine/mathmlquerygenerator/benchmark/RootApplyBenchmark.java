@@ -0,0 +1,84 @@
+package com.formulasearchengine.mathmlquerygenerator.benchmark;
+
+import com.formulasearchengine.mathmlquerygenerator.GeneratorConfig;
+import com.formulasearchengine.mathmlquerygenerator.QueryGenerator;
+import com.formulasearchengine.mathmlquerygenerator.SaxonQueryExecutor;
+import com.formulasearchengine.mathmlquerygenerator.TopicCorpus;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the recursive local:compareApply form of findRootApply with the flat ancestor-axis form, both evaluated
+ * by the embedded Saxon-HE engine. Each invocation runs one formula of the selected size class against all formulae
+ * of the topic file. The return format uses $rootApply and $depth, so neither form can skip their computation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RootApplyBenchmark {
+    private static final SaxonQueryExecutor.HitCallback IGNORE_HIT = new SaxonQueryExecutor.HitCallback() {
+        @Override
+        public void onHit(File source, XdmItem hit) {
+        }
+    };
+
+    @Param({TopicCorpus.WIKIPEDIA, TopicCorpus.ARXIV})
+    private String corpus;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private TopicCorpus.SizeClass sizeClass;
+
+    @Param({"false", "true"})
+    private boolean flatRootApply;
+
+    private SaxonQueryExecutor executor;
+    private XdmNode xdmCorpus;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        executor = new SaxonQueryExecutor();
+        xdmCorpus = executor.getProcessor().newDocumentBuilder()
+                .build(new StreamSource(new StringReader(TopicCorpus.mathCorpus(corpus))));
+        final GeneratorConfig config = SaxonQueryExecutor.LOCAL_CONFIG.toBuilder()
+                .setReturnFormat("($depth, $rootApply/@*[1])")
+                .setFindRootApply(true)
+                .setFlatRootApply(flatRootApply).build();
+        final QueryGenerator generator = new QueryGenerator(config);
+        final List<Node> mainElements = TopicCorpus.mainElements(TopicCorpus.load(corpus), sizeClass);
+        queries = new String[mainElements.size()];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = generator.generate(mainElements.get(i));
+            executor.compile(queries[i]);
+        }
+    }
+
+    @Benchmark
+    public long rootApply() throws Exception {
+        final String query = queries[next];
+        next = (next + 1) % queries.length;
+        return executor.execute(query, xdmCorpus, IGNORE_HIT);
+    }
+}
@@ -0,0 +1,68 @@
+package com.formulasearchengine.mathmlquerygenerator.benchmark;
+
+import com.formulasearchengine.mathmlquerygenerator.TopicCorpus;
+import com.formulasearchengine.mathmlquerygenerator.XQueryGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures XQueryGenerator.toString() on the formulae of the NTCIR topic files.
+ * Each invocation converts one formula of the selected size class, cycling through all of them.
+ * Run with the gc profiler (the default of the benchmark profile) to get allocation rates.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XQueryGeneratorBenchmark {
+    @Param({TopicCorpus.WIKIPEDIA, TopicCorpus.ARXIV})
+    private String corpus;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private TopicCorpus.SizeClass sizeClass;
+
+    @Param({"false", "true"})
+    private boolean findRootApply;
+
+    @Param({"true", "false"})
+    private boolean restrictLength;
+
+    @Param({"true", "false"})
+    private boolean addQvarMap;
+
+    private Node[] mainElements;
+    private XQueryGenerator generator;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Document topics = TopicCorpus.load(corpus);
+        final List<Node> nodes = TopicCorpus.mainElements(topics, sizeClass);
+        mainElements = nodes.toArray(new Node[nodes.size()]);
+        generator = new XQueryGenerator(topics);
+        generator.setFindRootApply(findRootApply).setRestrictLength(restrictLength).setAddQvarMap(addQvarMap);
+    }
+
+    @Benchmark
+    public String generate() {
+        generator.setMainElement(mainElements[next]);
+        next = (next + 1) % mainElements.length;
+        return generator.toString();
+    }
+}